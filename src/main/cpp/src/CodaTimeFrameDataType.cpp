@@ -238,9 +238,12 @@ CodaTimeFrame CodaTimeFrameSerializer::deserializeXMsgFormat(const std::vector<s
     // Find metadata items
     int timeFrameCount = 0;
     for (const auto& item : payload.item()) {
+        if (item.name() == "event_type" && item.data().string() != "CodaTimeFrame") {
+            // e.g. "IdentifiedEvents" from the Java event identification
+            throw std::runtime_error("Unsupported CodaTimeFrame event type: " + item.data().string());
+        }
         if (item.name() == "time_frame_count") {
             timeFrameCount = item.data().vlsint32();
-            break;
         }
     }
     
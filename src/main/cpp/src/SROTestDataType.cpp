@@ -69,8 +69,14 @@ public:
     }
 
     ersap::any read(const std::vector<std::uint8_t>& buffer) const override {
+        if (buffer.size() < 4) {
+            throw std::runtime_error("SRO data too short: " + std::to_string(buffer.size()) + " bytes");
+        }
         size_t i = 0;
         int32_t outer_size = to_int(buffer, i); i += 4;
+        if (outer_size < 0) {
+            throw std::runtime_error("Invalid SRO time frame count: " + std::to_string(outer_size));
+        }
         std::vector<std::vector<RocTimeFrameBank>> sro;
         sro.reserve(outer_size);
 
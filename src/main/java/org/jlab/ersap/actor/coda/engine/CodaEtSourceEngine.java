@@ -4,10 +4,12 @@ import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.std.services.AbstractEventReaderService;
 import org.jlab.epsci.ersap.std.services.EventReaderException;
 import org.jlab.ersap.actor.coda.source.et.CodaETReader;
+import org.jlab.ersap.actor.coda.source.et.LocalEtSystem;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
 import org.jlab.ersap.actor.util.AConstants;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.nio.ByteOrder;
 import java.nio.file.Path;
 
@@ -31,27 +33,71 @@ public class CodaEtSourceEngine extends AbstractEventReaderService<CodaETReader>
     private String etStationName = "ersap";
     private static final String ET_PORT = "et_port";
     private static final String FIFO_CAPACITY = "fifo_capacity";
+    private static final String RING_SIZE = "ring_size";
+    private static final String WAIT_STRATEGY = "wait_strategy";
+    private static final String LEASE = "lease";
+    private static final String CHUNK_MIN = "chunk_min";
+    private static final String CHUNK_MAX = "chunk_max";
+    private static final String MAX_WAIT = "max_wait";
+    private static final String ET_CONSUMERS = "et_consumers";
+    private static final String ET_CONSUMER_MODE = "et_consumer_mode";
+    private static final String ET_MERGE = "et_merge";
+    private static final String ET_REPLAY = "et_replay";
+    private static final String ET_REPLAY_RATE = "et_replay_rate";
 
     @Override
     protected CodaETReader createReader(Path path, JSONObject jsonObject) throws EventReaderException {
+        // evio file replayed by an in-process ET stand-in, no ET system is needed
+        String replay = jsonObject.has(ET_REPLAY) ? jsonObject.getString(ET_REPLAY) : AConstants.udf;
         if (jsonObject.has(ET_HOST)) {
             etHost = jsonObject.getString(ET_HOST);
-        } else {
+        } else if (replay.equals(AConstants.udf)) {
             System.out.println("ERROR: No ET host is defined. Exiting...");
             System.exit(1);
         }
         if (jsonObject.has(ET_NAME)) {
             etName = jsonObject.getString(ET_NAME);
-        } else {
+        } else if (replay.equals(AConstants.udf)) {
             System.out.println("ERROR: No ET system is defined. Exiting...");
             System.exit(1);
         }
         if (jsonObject.has(ET_STATION_NAME)) {
             etStationName = jsonObject.getString(ET_STATION_NAME);
         }
-        int maxRingItems = jsonObject.has(FIFO_CAPACITY) ? jsonObject.getInt(FIFO_CAPACITY) : 131072;
+        // number of preallocated ring slots, fifo_capacity is the older name
+        int maxRingItems = jsonObject.has(RING_SIZE) ? jsonObject.getInt(RING_SIZE)
+                : jsonObject.has(FIFO_CAPACITY) ? jsonObject.getInt(FIFO_CAPACITY) : 1024;
+        // blocking, sleeping, yielding or busy_spin
+        String waitStrategy = jsonObject.has(WAIT_STRATEGY) ? jsonObject.getString(WAIT_STRATEGY) : "blocking";
         int etPort = jsonObject.has(ET_PORT) ? jsonObject.getInt(ET_PORT) : 23911;
-            return new CodaETReader(etHost,etName, etPort, etStationName, maxRingItems);
+        // "yes" hands out leased ET buffers, released by the decoding engine
+        String lease = jsonObject.has(LEASE) ? jsonObject.getString(LEASE) : "no";
+        // bounds of the adaptive number of events fetched per getEvents call
+        int chunkMin = jsonObject.has(CHUNK_MIN) ? jsonObject.getInt(CHUNK_MIN) : 1;
+        int chunkMax = jsonObject.has(CHUNK_MAX) ? jsonObject.getInt(CHUNK_MAX) : 100;
+        // longest wait for ET events in microseconds, 0 sleeps until events arrive
+        int maxWait = jsonObject.has(MAX_WAIT) ? jsonObject.getInt(MAX_WAIT) : 0;
+        // parallel attachments, to one station or to a group of round-robin stations
+        int etConsumers = jsonObject.has(ET_CONSUMERS) ? jsonObject.getInt(ET_CONSUMERS) : 1;
+        String consumerMode = jsonObject.has(ET_CONSUMER_MODE) ? jsonObject.getString(ET_CONSUMER_MODE) : "station";
+        // "yes" restores the time frame order of the parallel attachments
+        String merge = jsonObject.has(ET_MERGE) ? jsonObject.getString(ET_MERGE) : "no";
+        if (!replay.equals(AConstants.udf)) {
+            // replayed ET events per second, 0 for as fast as they are consumed
+            double replayRate = jsonObject.has(ET_REPLAY_RATE) ? jsonObject.getDouble(ET_REPLAY_RATE) : 0;
+            try {
+                return new CodaETReader(LocalEtSystem.fromFile(replay, replayRate), etStationName,
+                        maxRingItems, lease.trim().equalsIgnoreCase("yes"), chunkMin, chunkMax, maxWait,
+                        waitStrategy, etConsumers, consumerMode.trim().equalsIgnoreCase("round_robin"),
+                        merge.trim().equalsIgnoreCase("yes"));
+            } catch (IOException e) {
+                throw new EventReaderException(e);
+            }
+        }
+            return new CodaETReader(etHost,etName, etPort, etStationName, maxRingItems,
+                    lease.trim().equalsIgnoreCase("yes"), chunkMin, chunkMax, maxWait, waitStrategy,
+                    etConsumers, consumerMode.trim().equalsIgnoreCase("round_robin"),
+                    merge.trim().equalsIgnoreCase("yes"));
     }
 
     @Override
@@ -4,9 +4,12 @@ import org.jlab.epsci.ersap.base.ErsapUtil;
 import org.jlab.epsci.ersap.engine.Engine;
 import org.jlab.epsci.ersap.engine.EngineData;
 import org.jlab.epsci.ersap.engine.EngineDataType;
+import org.jlab.ersap.actor.coda.proc.CoincidenceFinder;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
+import org.jlab.ersap.actor.coda.proc.IdentifiedEvents;
 import org.jlab.ersap.actor.coda.proc.LiveHistogram;
-import org.jlab.ersap.actor.coda.proc.FADCHit;
 import org.jlab.ersap.actor.coda.proc.RocTimeFrameBank;
+import org.jlab.ersap.actor.datatypes.IdentifiedEventDataType;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
 import org.json.JSONObject;
 
@@ -41,6 +44,11 @@ public class CodaHistogramEngine implements Engine {
 
     private static String DELTA_T = "delta_t";
     private int deltaT = 20;
+    // minimum number of coincidence channels with hits, 0 for all of them
+    private static String COINCIDENCE_MIN = "coincidence_min";
+    private int coincidenceMin = 0;
+    // execute runs on several threads, each with its own finder
+    private ThreadLocal<CoincidenceFinder> coincidenceFinder;
 
     @Override
     public EngineData configure(EngineData engineData) {
@@ -97,6 +105,16 @@ public class CodaHistogramEngine implements Engine {
             if (opts.has(DELTA_T)) {
                 deltaT = opts.getInt(DELTA_T);
             }
+            if (opts.has(COINCIDENCE_MIN)) {
+                coincidenceMin = opts.getInt(COINCIDENCE_MIN);
+            }
+            if (coincidence != null) {
+                List<String> channels = coincidence;
+                int window = deltaT;
+                int minChannels = coincidenceMin;
+                coincidenceFinder = ThreadLocal.withInitial(
+                        () -> new CoincidenceFinder(channels, window, minChannels));
+            }
 
 
             if (opts.has(HIST_MIN)) {
@@ -110,9 +128,6 @@ public class CodaHistogramEngine implements Engine {
 
     @Override
     public EngineData execute(EngineData engineData) {
-        List<FADCHit> conis = new ArrayList<>();
-        Set<String> conisNames = new HashSet<>();
-
         List<RocTimeFrameBank> banks;
 //        // Decoding
 //        try {
@@ -121,52 +136,69 @@ public class CodaHistogramEngine implements Engine {
 //            throw new RuntimeException(e);
 //        }
 
+        if (engineData.getData() instanceof IdentifiedEvents) {
+            fillEvents((IdentifiedEvents) engineData.getData());
+            return engineData;
+        }
         banks = new ArrayList<>((List<RocTimeFrameBank>) engineData.getData());
         if (!banks.isEmpty()) {
+            CoincidenceFinder coincidenceFinder = finder();
             if (scatterReset) liveHist.resetScatter();
+            if (coincidenceFinder != null) coincidenceFinder.reset();
             for (RocTimeFrameBank bank : banks) {
-                List<FADCHit> hits = bank.getHits();
+                FADCHitBatch hits = bank.getHitBatch();
 //                System.out.println("DDD ====> Frame = "+bank.getFrameNumber()+" timeStamp = "+bank.getTimeStamp());
 
-                for (FADCHit hit : hits) {
-                    System.out.println(hit);
-                    liveHist.update(hit.getName(),hit);
-                    liveHist.updateScatter(hit.withTime(hit.time()-bank.getTimeStamp()));
-                    if(coincidence.contains(hit.getName())){
-                        conis.add(hit);
-                        conisNames.add(hit.getName());
-                    }
-                }
-                // Coincidence
-                if(conisNames.containsAll(coincidence)){
-                    int totlaCharge;
-                    long time;
-                    int size;
-                    StringBuilder title = new StringBuilder();
-                    for(String s: conisNames) {
-                        title.append(s+"&");
-                    }
-                    String t = String.valueOf(title);
-                    // find in the frame the groups of required channels that had hits within the specified delta_t
-                    List<List<FADCHit>> coin = findCoincidenceWithinInterval(conis, deltaT);
-                    if(!coin.isEmpty()) {
-                        for (List<FADCHit> l:coin){
-                            totlaCharge = 0;
-                            time = 0;
-                            size = l.size();
-                            for(FADCHit h:l) {
-                                totlaCharge += h.charge();
-                                time += h.time() - bank.getTimeStamp();
-                            }
-                            liveHist.update(t.substring(0, t.length() - 1),new FADCHit(0,0,0,+totlaCharge, time/size));
-                        }
-                    }
-                }
+                liveHist.fill(hits, 0, hits.size(), bank.getTimeStamp());
+                if (coincidenceFinder != null) coincidenceFinder.addAll(hits);
             }
+            // Coincidence: the groups of required channels that had hits within delta_t
+            if (coincidenceFinder != null) fillCoincidences(coincidenceFinder);
         }
         return engineData;
     }
 
+    /**
+     * @return the coincidence finder of the calling thread, null without coincidences
+     */
+    private CoincidenceFinder finder() {
+        return coincidenceFinder != null ? coincidenceFinder.get() : null;
+    }
+
+    /**
+     * Fills the coincidence histogram with the total charge of each coincidence of the frame.
+     */
+    private void fillCoincidences(CoincidenceFinder coincidenceFinder) {
+        int found = coincidenceFinder.find();
+        FADCHitBatch hits = coincidenceFinder.getHits();
+        for (int k = 0; k < found; k++) {
+            int totalCharge = 0;
+            for (int i = coincidenceFinder.start(k); i < coincidenceFinder.end(k); i++) {
+                totalCharge += hits.charge(i);
+            }
+            liveHist.update(coincidenceFinder.getTitle(), totalCharge);
+        }
+    }
+
+    /**
+     * Fills the histograms with the hits of identified events, time frame by time frame.
+     */
+    private void fillEvents(IdentifiedEvents events) {
+        FADCHitBatch hits = events.getHits();
+        CoincidenceFinder coincidenceFinder = finder();
+        int k = 0;
+        for (int f = 0; f < events.frameCount(); f++) {
+            long timeStamp = events.getTimeStamp(f);
+            if (scatterReset) liveHist.resetScatter();
+            if (coincidenceFinder != null) coincidenceFinder.reset();
+            for (; k < events.size() && events.frame(k) == f; k++) {
+                liveHist.fill(hits, events.start(k), events.end(k), timeStamp);
+                if (coincidenceFinder != null) coincidenceFinder.addAll(hits, events.start(k), events.end(k));
+            }
+            if (coincidenceFinder != null) fillCoincidences(coincidenceFinder);
+        }
+    }
+
     @Override
     public EngineData executeGroup(Set<EngineData> set) {
         return null;
@@ -175,12 +207,14 @@ public class CodaHistogramEngine implements Engine {
     @Override
     public Set<EngineDataType> getInputDataTypes() {
         return ErsapUtil.buildDataTypes(JavaObjectType.JOBJ,
+                IdentifiedEventDataType.INSTANCE,
                 EngineDataType.JSON);
     }
 
     @Override
     public Set<EngineDataType> getOutputDataTypes() {
-        return ErsapUtil.buildDataTypes(JavaObjectType.JOBJ);
+        return ErsapUtil.buildDataTypes(JavaObjectType.JOBJ,
+                IdentifiedEventDataType.INSTANCE);
     }
 
     @Override
@@ -211,32 +245,5 @@ public class CodaHistogramEngine implements Engine {
     public void destroy() {
     }
 
-    private  List<List<FADCHit>> findCoincidenceWithinInterval(List<FADCHit> events, long maxInterval) {
-        List<List<FADCHit>> result = new ArrayList<>();
-
-        // Sort events by time
-        events.sort(Comparator.comparingLong(FADCHit::time));
-
-        int n = events.size();
-        for (int i = 0; i < n - 1; i++) {
-            List<FADCHit> group = new ArrayList<>();
-            group.add(events.get(i));
-            for (int j = i + 1; j < n; j++) {
-                long span = events.get(j).time() - events.get(i).time();
-//                System.out.println("DDD====> span = "+span+" delta_t = "+maxInterval);
-                if (span <= maxInterval) {
-                    group.add(events.get(j));
-                } else {
-                    break; // further events will only increase the span
-                }
-            }
-
-            if (group.size() == events.size()) {
-                result.add(new ArrayList<>(group));
-            }
-        }
-
-        return result;
-    }
 
 }
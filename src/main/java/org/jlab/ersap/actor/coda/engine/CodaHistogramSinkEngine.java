@@ -3,8 +3,10 @@ package org.jlab.ersap.actor.coda.engine;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.std.services.AbstractEventWriterService;
 import org.jlab.epsci.ersap.std.services.EventWriterException;
+import org.jlab.ersap.actor.coda.proc.CoincidenceFinder;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
+import org.jlab.ersap.actor.coda.proc.IdentifiedEvents;
 import org.jlab.ersap.actor.coda.proc.LiveHistogram;
-import org.jlab.ersap.actor.coda.proc.FADCHit;
 import org.jlab.ersap.actor.coda.proc.RocTimeFrameBank;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
 import org.json.JSONObject;
@@ -54,6 +56,11 @@ public class CodaHistogramSinkEngine extends AbstractEventWriterService<FileWrit
 
     private static String DELTA_T = "delta_t";
     private int deltaT = 20;
+    // minimum number of coincidence channels with hits, 0 for all of them
+    private static String COINCIDENCE_MIN = "coincidence_min";
+    private int coincidenceMin = 0;
+    // shared, the writer service calls writeEvent under its writer lock
+    private CoincidenceFinder coincidenceFinder;
 
     @Override
     protected FileWriter createWriter(Path file, JSONObject opts) throws EventWriterException {
@@ -107,6 +114,12 @@ public class CodaHistogramSinkEngine extends AbstractEventWriterService<FileWrit
         if (opts.has(DELTA_T)) {
             deltaT = opts.getInt(DELTA_T);
         }
+        if (opts.has(COINCIDENCE_MIN)) {
+            coincidenceMin = opts.getInt(COINCIDENCE_MIN);
+        }
+        if (concidence != null) {
+            coincidenceFinder = new CoincidenceFinder(concidence, deltaT, coincidenceMin);
+        }
 
 
         if (opts.has(HIST_MIN)) {
@@ -131,81 +144,61 @@ public class CodaHistogramSinkEngine extends AbstractEventWriterService<FileWrit
         }
     }
 
-        private  List<List<FADCHit>> findCoincidenceWithinInterval(List<FADCHit> events, long maxInterval) {
-            List<List<FADCHit>> result = new ArrayList<>();
-
-            // Sort events by time
-            events.sort(Comparator.comparingLong(FADCHit::time));
-
-            int n = events.size();
-            for (int i = 0; i < n - 1; i++) {
-                List<FADCHit> group = new ArrayList<>();
-                group.add(events.get(i));
-                for (int j = i + 1; j < n; j++) {
-                    long span = events.get(j).time() - events.get(i).time();
-                    if (span <= maxInterval) {
-                        group.add(events.get(j));
-                    } else {
-                        break; // further events will only increase the span
-                    }
-                }
-
-                if (group.size() == events.size()) {
-                    result.add(new ArrayList<>(group));
-                }
+
+    /**
+     * Fills the coincidence histogram with the total charge of each coincidence of the frame.
+     */
+    private void fillCoincidences() {
+        int found = coincidenceFinder.find();
+        FADCHitBatch hits = coincidenceFinder.getHits();
+        for (int k = 0; k < found; k++) {
+            int totalCharge = 0;
+            for (int i = coincidenceFinder.start(k); i < coincidenceFinder.end(k); i++) {
+                totalCharge += hits.charge(i);
             }
+            liveHist.update(coincidenceFinder.getTitle(), totalCharge);
+        }
+    }
 
-            return result;
+    /**
+     * Fills the histograms with the hits of identified events, time frame by time frame.
+     */
+    private void fillEvents(IdentifiedEvents events) {
+        FADCHitBatch hits = events.getHits();
+        int k = 0;
+        for (int f = 0; f < events.frameCount(); f++) {
+            long timeStamp = events.getTimeStamp(f);
+            if (scatterReset) liveHist.resetScatter();
+            if (coincidenceFinder != null) coincidenceFinder.reset();
+            for (; k < events.size() && events.frame(k) == f; k++) {
+                liveHist.fill(hits, events.start(k), events.end(k), timeStamp);
+                if (coincidenceFinder != null) coincidenceFinder.addAll(hits, events.start(k), events.end(k));
+            }
+            if (coincidenceFinder != null) fillCoincidences();
         }
+    }
 
-        @Override
+    @Override
     protected void writeEvent(Object event) throws EventWriterException {
-        List<FADCHit> conis = new ArrayList<>();
-        Set<String> conisNames = new HashSet<>();
+        if (event instanceof IdentifiedEvents) {
+            fillEvents((IdentifiedEvents) event);
+            return;
+        }
         List<RocTimeFrameBank> banks = (List<RocTimeFrameBank>)event;
         if (!banks.isEmpty()) {
             if (scatterReset) liveHist.resetScatter();
+            if (coincidenceFinder != null) coincidenceFinder.reset();
             for (RocTimeFrameBank bank : banks) {
-                List<FADCHit> hits = bank.getHits();
+                FADCHitBatch hits = bank.getHitBatch();
                 System.out.println();
                 System.out.println("DDD ------------ Frame = "+bank.getFrameNumber());
 
-                for (FADCHit hit : hits) {
-                    System.out.println(hit);
-                    liveHist.update(hit.getName(),hit);
-                    liveHist.updateScatter(hit.withTime(hit.time()-bank.getTimeStamp()));
-                    if(concidence.contains(hit.getName())){
-                        conis.add(hit);
-                        conisNames.add(hit.getName());
-                    }
-                }
-                // Coincidence
-                 if(conisNames.containsAll(concidence)){
-                     int totlaCharge;
-                     long time;
-                     int size;
-                     StringBuilder title = new StringBuilder();
-                     for(String s: conisNames) {
-                         title.append(s+"&");
-                     }
-                     String t = String.valueOf(title);
-                     // find in the frame the groups of required channels that had hits within the specified delta_t
-                     List<List<FADCHit>> coin = findCoincidenceWithinInterval(conis, deltaT);
-                     if(!coin.isEmpty()) {
-                         for (List<FADCHit> l:coin){
-                             totlaCharge = 0;
-                             time = 0;
-                             size = l.size();
-                             for(FADCHit h:l) {
-                                 totlaCharge += h.charge();
-                                 time += h.time() - bank.getTimeStamp();
-                             }
-                             liveHist.update(t.substring(0, t.length() - 1),new FADCHit(0,0,0,+totlaCharge, time/size));
-                         }
-                     }
-                }
+                liveHist.fill(hits, 0, hits.size(), bank.getTimeStamp());
+                if (coincidenceFinder != null) coincidenceFinder.addAll(hits);
                 System.out.println("DDD ------------ Time  = "+bank.getTimeStamp());
             }
+            // Coincidence: the groups of required channels that had hits within delta_t
+            if (coincidenceFinder != null) fillCoincidences();
         }
     }
 
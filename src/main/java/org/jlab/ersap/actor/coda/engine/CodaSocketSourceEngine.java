@@ -4,18 +4,23 @@ package org.jlab.ersap.actor.coda.engine;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.std.services.AbstractEventReaderService;
 import org.jlab.epsci.ersap.std.services.EventReaderException;
+import org.jlab.ersap.actor.coda.source.socket.AbstractStreamReceiver;
+import org.jlab.ersap.actor.coda.source.socket.MultiSocketStreamReceiver;
+import org.jlab.ersap.actor.coda.source.socket.SelectorSocketStreamReceiver;
 import org.jlab.ersap.actor.coda.source.socket.SingleSocketStreamReceiver;
 import org.jlab.ersap.actor.coda.source.socket.StreamParameters;
+import org.jlab.ersap.actor.coda.source.socket.ThreadedSocketStreamReceiver;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
 import org.jlab.ersap.actor.util.AConstants;
+import org.jlab.ersap.actor.util.IASource;
 import org.json.JSONObject;
 
 import java.nio.ByteOrder;
 import java.nio.file.Path;
 
-public class CodaSocketSourceEngine extends AbstractEventReaderService<SingleSocketStreamReceiver> {
+public class CodaSocketSourceEngine extends AbstractEventReaderService<IASource> {
     @Override
-    protected SingleSocketStreamReceiver createReader(Path path, JSONObject jsonObject) throws EventReaderException {
+    protected IASource createReader(Path path, JSONObject jsonObject) throws EventReaderException {
         //  Default parameters to construct PetStreamReceiver object
         StreamParameters p = new StreamParameters();
 
@@ -36,6 +41,52 @@ public class CodaSocketSourceEngine extends AbstractEventReaderService<SingleSoc
         if (jsonObject.has("readTimeout")) {
             p.setReadTimeout(jsonObject.getInt("readTimeout"));
         }
+        // blocking, sleeping, yielding or busy_spin
+        if (jsonObject.has("waitStrategy")) {
+            p.setWaitStrategy(jsonObject.getString("waitStrategy"));
+        }
+        // "yes" publishes one complete EVIO record per event
+        if (jsonObject.has("framed")) {
+            p.setFramed(jsonObject.getString("framed").trim().equalsIgnoreCase("yes"));
+        }
+        // "yes" reads each stream on a virtual thread, when the JVM supports them
+        if (jsonObject.has("virtualThreads")) {
+            p.setVirtualThreads(jsonObject.getString("virtualThreads").trim().equalsIgnoreCase("yes"));
+        }
+        // "yes" hands out the ring events, released by the decoding engine, instead of copies
+        if (jsonObject.has("lease")) {
+            p.setLeased(jsonObject.getString("lease").trim().equalsIgnoreCase("yes"));
+        }
+        // "host:port,host:port,..." streams multiplexed by a few selector threads,
+        // or read by a virtual thread each
+        if (jsonObject.has("streams")) {
+            String[] streams = jsonObject.getString("streams").split(",");
+            int selectorThreads = jsonObject.has("selectorThreads") ? jsonObject.getInt("selectorThreads") : 2;
+            StreamParameters[] ps = new StreamParameters[streams.length];
+            for (int i = 0; i < streams.length; i++) {
+                String[] hostPort = streams[i].trim().split(":");
+                ps[i] = new StreamParameters();
+                ps[i].setHost(hostPort[0]);
+                ps[i].setPort(hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : p.getPort());
+                ps[i].setRingBufferSize(p.getRingBufferSize());
+                ps[i].setConnectionTimeout(p.getConnectionTimeout());
+                ps[i].setReadTimeout(p.getReadTimeout());
+                ps[i].setWaitStrategy(p.getWaitStrategy());
+            }
+            AbstractStreamReceiver receiver = p.isVirtualThreads()
+                    ? new ThreadedSocketStreamReceiver(ps, true)
+                    : new SelectorSocketStreamReceiver(ps, selectorThreads);
+            receiver.setLeased(p.isLeased());
+            // "yes" merges the ROC streams into multi-ROC time frames by frame number,
+            // waiting at most frameTimeout ms for a ROC that misses a frame
+            if (jsonObject.has("buildTimeFrames")
+                    && jsonObject.getString("buildTimeFrames").trim().equalsIgnoreCase("yes")) {
+                int frameWindow = jsonObject.has("frameWindow") ? jsonObject.getInt("frameWindow") : 64;
+                long frameTimeout = jsonObject.has("frameTimeout") ? jsonObject.getLong("frameTimeout") : 100;
+                return new MultiSocketStreamReceiver(receiver, frameWindow, frameTimeout);
+            }
+            return receiver;
+        }
         if (!p.getHost().equals(AConstants.udf)) {
             return new SingleSocketStreamReceiver(p);
         } else {
@@ -5,13 +5,21 @@ import org.jlab.epsci.ersap.base.ErsapUtil;
 import org.jlab.epsci.ersap.engine.Engine;
 import org.jlab.epsci.ersap.engine.EngineData;
 import org.jlab.epsci.ersap.engine.EngineDataType;
-import org.jlab.ersap.actor.coda.proc.Awtbc;
 import org.jlab.ersap.actor.coda.proc.EtEvent;
+import org.jlab.ersap.actor.coda.proc.EventStitcher;
 import org.jlab.ersap.actor.coda.proc.EvioEventParser;
+import org.jlab.ersap.actor.coda.proc.HitSelection;
+import org.jlab.ersap.actor.coda.proc.IdentifiedEvents;
+import org.jlab.ersap.actor.coda.proc.SoftwareTrigger;
+import org.jlab.ersap.actor.coda.proc.TimeFramePool;
+import org.jlab.ersap.actor.coda.source.et.EtEventLease;
+import org.jlab.ersap.actor.datatypes.CodaTimeFrameDataType;
+import org.jlab.ersap.actor.datatypes.IdentifiedEventDataType;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
+import org.jlab.ersap.actor.datatypes.SROTestDataType;
 import org.json.JSONObject;
 
-import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -26,10 +34,18 @@ import java.util.Set;
  * {@code} ersap-actor
  * The EventIdentificationEngine class is responsible for identifying events in a single VTP time window.
  * It utilizes sliding window algorithm to define an event based on the FADC hit multiplicity.
+ * Only the hits of identified events are passed on: the ROC time frame banks keep the hits
+ * of the clusters found in their time frame, and time frames without any are dropped.
+ * Events crossing a time frame boundary are stitched, see {@link EventStitcher}; a reset
+ * ends the stream and the frames waiting to be stitched go out with the next event. The
+ * identified events can be further selected by a {@link SoftwareTrigger}.
+ * With output "events", only the identified events are passed on, in a compact
+ * {@link IdentifiedEvents} container instead of the time frames, with their own data type
+ * {@link IdentifiedEventDataType}.
  */
 public class EventIdentificationEngine implements Engine {
     private EvioEventParser parser;
-    private Awtbc awtbc;
+    private EventStitcher stitcher;
     private static final String SLIDING_WINDOW = "sliding_window";
     private long slidingWindow = 40; // in nanoseconds
     private static final String MULTIPLICITY = "multiplicity";
@@ -39,6 +55,25 @@ public class EventIdentificationEngine implements Engine {
     private boolean isSourceEt;
     private static final String VERBOSE = "verbose";
     private String verbose;
+    private static final String DECODER = "decoder";
+    private String decoder = "reader";
+    private static final String DECODE_THREADS = "decode_threads";
+    private int decodeThreads = 1;
+    // roc_ids, payload_ids, channel_mask and min_charge options
+    private HitSelection selection = HitSelection.ALL;
+    private static final String POOL = "pool";
+    private String pool = "no";
+    private static final String REORDER_FRAMES = "reorder_frames";
+    private int reorderFrames = 16; // frames held back waiting for earlier frames
+    // regions, rules and report options of the software trigger, see SoftwareTrigger
+    private static final String TRIGGER = "trigger";
+    private SoftwareTrigger trigger;
+    // "frames" passes on the time frames, "events" only the identified events
+    private static final String OUTPUT = "output";
+    private boolean outputEvents;
+    // jobj, binary or native, the data type of the time frames passed on
+    private static final String OUTPUT_TYPE = "output_type";
+    private EngineDataType outputType = JavaObjectType.JOBJ;
 
 
     @Override
@@ -50,18 +85,36 @@ public class EventIdentificationEngine implements Engine {
             multiplicity = data.has(MULTIPLICITY) ? data.getInt(MULTIPLICITY) : 2;
             streamSource = data.has(STREAMSOURCE) ? data.getString(STREAMSOURCE) : "et";
             verbose = data.has(VERBOSE) ? data.getString(VERBOSE) : "no";
+            decoder = data.has(DECODER) ? data.getString(DECODER) : "reader";
+            decodeThreads = data.has(DECODE_THREADS) ? data.getInt(DECODE_THREADS) : 1;
+            selection = HitSelection.fromJson(data);
+            pool = data.has(POOL) ? data.getString(POOL) : "no";
+            reorderFrames = data.has(REORDER_FRAMES) ? data.getInt(REORDER_FRAMES) : 16;
+            trigger = data.has(TRIGGER) ? SoftwareTrigger.fromJson(data.getJSONObject(TRIGGER)) : null;
+            outputEvents = data.has(OUTPUT) && data.getString(OUTPUT).trim().equalsIgnoreCase("events");
+            outputType = outputEvents ? IdentifiedEventDataType.INSTANCE
+                    : dataType(data.has(OUTPUT_TYPE) ? data.getString(OUTPUT_TYPE) : "jobj");
         }
         if(streamSource.trim().equalsIgnoreCase("et")){
             isSourceEt = true;
         } else if (streamSource.trim().equalsIgnoreCase("file")){
             isSourceEt = false;
         }
-        awtbc = new Awtbc(multiplicity, slidingWindow, false);
+        stitcher = new EventStitcher(multiplicity, slidingWindow, reorderFrames);
+        stitcher.setTrigger(trigger);
         if (verbose.trim().equalsIgnoreCase("yes")) {
             parser = new EvioEventParser(true);
         } else {
             parser = new EvioEventParser(false);
         }
+        // "direct" decodes ET buffers in place, without building the EvioReader object tree
+        parser.setDirectDecoding(decoder.trim().equalsIgnoreCase("direct"));
+        parser.setDecodeThreads(decodeThreads);
+        parser.setSelection(selection);
+        // recycle decoded events, sinks release them back to the pool once written
+        if (pool.trim().equalsIgnoreCase("yes")) {
+            parser.setPool(TimeFramePool.getInstance());
+        }
 
         return null;
     }
@@ -86,17 +139,8 @@ public class EventIdentificationEngine implements Engine {
             throw new RuntimeException(e);
         }
 
-            // Clustering
-//        for (RocTimeSliceBanks rsb : data) {
-//            result.addAll(awtbc.findCluster(rsb.getHits()));
-//        }
-//        System.out.println("DDD============DDD");
-//        for (IStreamItem evt : result) {
-//            System.out.println(evt);
-//        }
-//        System.out.println("DDD============DDD");
-
-        out.setData(JavaObjectType.JOBJ, data);
+        // Clustering
+        out.setData(outputType, identify(data));
         return out;
     }
 
@@ -107,15 +151,49 @@ public class EventIdentificationEngine implements Engine {
 
         // Decoding
         try {
-            data = parser.parseEtEvent((ByteBuffer)engineData.getData());
+            data = EtEventLease.parse(parser, engineData.getData());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
 
-        out.setData(JavaObjectType.JOBJ, data);
+        // Clustering
+        out.setData(outputType, identify(data));
         return out;
     }
 
+    /**
+     * Keeps only the hits of the events identified in each time frame.
+     *
+     * @return the event, or with output "events" the identified events of it
+     */
+    private Object identify(EtEvent data) {
+        if (data == null) {
+            return null;
+        }
+        if (!outputEvents) {
+            stitcher.process(data);
+            return data;
+        }
+        IdentifiedEvents events = new IdentifiedEvents();
+        stitcher.process(data, events);
+        // the identified events are copied out, the event can go back to the pool
+        data.release();
+        return events;
+    }
+
+    private static EngineDataType dataType(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "binary":
+                return SROTestDataType.INSTANCE;
+            case "native":
+                return CodaTimeFrameDataType.CODA_TIME_FRAME;
+            case "jobj":
+                return JavaObjectType.JOBJ;
+            default:
+                throw new IllegalArgumentException("Unknown output type: " + name);
+        }
+    }
+
     @Override
     public EngineData executeGroup(Set<EngineData> set) {
         return null;
@@ -129,12 +207,23 @@ public class EventIdentificationEngine implements Engine {
 
     @Override
     public Set<EngineDataType> getOutputDataTypes () {
-        return ErsapUtil.buildDataTypes(JavaObjectType.JOBJ);
+        return ErsapUtil.buildDataTypes(JavaObjectType.JOBJ,
+                SROTestDataType.INSTANCE,
+                CodaTimeFrameDataType.CODA_TIME_FRAME,
+                IdentifiedEventDataType.INSTANCE);
     }
 
+    /**
+     * @return the stitching statistics and the software trigger counts
+     */
     @Override
     public Set<String> getStates () {
-        return null;
+        if (stitcher == null) return null;
+        Set<String> states = new LinkedHashSet<>();
+        states.add(stitcher.toString());
+        String triggerCounts = stitcher.getTriggerCounts();
+        if (triggerCounts != null) states.add(triggerCounts);
+        return states;
     }
 
     @Override
@@ -152,12 +241,19 @@ public class EventIdentificationEngine implements Engine {
         return "gurjyan";
     }
 
+    /**
+     * Ends the stream, e.g. at the end of a run: the frames still waiting to be stitched go
+     * out with the next event.
+     */
     @Override
     public void reset () {
-
+        if (stitcher != null) stitcher.flush();
     }
 
     @Override
     public void destroy () {
+        // nothing follows to carry the waiting frames, they are counted as pending
+        Set<String> states = getStates();
+        if (states != null) states.forEach(System.out::println);
     }
 }
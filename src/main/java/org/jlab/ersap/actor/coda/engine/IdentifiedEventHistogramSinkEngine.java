@@ -0,0 +1,14 @@
+package org.jlab.ersap.actor.coda.engine;
+
+import org.jlab.epsci.ersap.engine.EngineDataType;
+import org.jlab.ersap.actor.datatypes.IdentifiedEventDataType;
+
+/**
+ * {@link CodaHistogramSinkEngine} of identified events, with the same options.
+ */
+public class IdentifiedEventHistogramSinkEngine extends CodaHistogramSinkEngine {
+    @Override
+    protected EngineDataType getDataType() {
+        return IdentifiedEventDataType.INSTANCE;
+    }
+}
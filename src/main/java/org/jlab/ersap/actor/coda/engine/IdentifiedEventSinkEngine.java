@@ -0,0 +1,65 @@
+package org.jlab.ersap.actor.coda.engine;
+
+import org.jlab.epsci.ersap.engine.EngineDataType;
+import org.jlab.epsci.ersap.std.services.AbstractEventWriterService;
+import org.jlab.epsci.ersap.std.services.EventWriterException;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
+import org.jlab.ersap.actor.coda.proc.IdentifiedEvents;
+import org.jlab.ersap.actor.datatypes.IdentifiedEventDataType;
+import org.json.JSONObject;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes the hits of identified events to a CSV file, in the same columns as
+ * {@code CodaSinkFileEngine} writes the hits of time frames.
+ */
+public class IdentifiedEventSinkEngine extends AbstractEventWriterService<FileWriter> {
+    @Override
+    protected FileWriter createWriter(Path path, JSONObject jsonObject) throws EventWriterException {
+        try {
+            return new FileWriter(path.toString());
+        } catch (IOException e) {
+            throw new EventWriterException(e);
+        }
+    }
+
+    @Override
+    protected void closeWriter() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void writeEvent(Object o) throws EventWriterException {
+        IdentifiedEvents events = (IdentifiedEvents) o;
+        FADCHitBatch hits = events.getHits();
+        try {
+            for (int k = 0; k < events.size(); k++) {
+                int f = events.frame(k);
+                for (int h = events.start(k); h < events.end(k); h++) {
+                    writer.write(hits.crate(h)+","+
+                            events.getFrameNumber(f)+","+
+                            events.getTimeStamp(f)+","+
+                            hits.crate(h)+","+
+                            hits.slot(h)+","+
+                            hits.channel(h)+","+
+                            hits.charge(h)+","+
+                            hits.time(h) +"\n");
+                }
+            }
+        } catch (IOException e) {
+            throw new EventWriterException(e);
+        }
+    }
+
+    @Override
+    protected EngineDataType getDataType() {
+        return IdentifiedEventDataType.INSTANCE;
+    }
+}
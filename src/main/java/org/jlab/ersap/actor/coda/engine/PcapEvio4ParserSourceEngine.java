@@ -13,6 +13,7 @@ import java.nio.file.Path;
 public class PcapEvio4ParserSourceEngine extends AbstractEventReaderService<CustomEvioEventParser> {
     private static final String VERBOSE = "verbose";
     private static final String FIFO_CAPACITY = "fifo_capacity";
+    private static final String DECODE_THREADS = "decode_threads";
     private boolean debug = false;
     public CustomEvioEventParser customEvioEventParser;
 
@@ -21,12 +22,14 @@ public class PcapEvio4ParserSourceEngine extends AbstractEventReaderService<Cust
     protected CustomEvioEventParser createReader(Path path, JSONObject jsonObject) throws EventReaderException {
         String verbose = jsonObject.has(VERBOSE) ? jsonObject.getString(VERBOSE) : "no";
         int fifoCapacity = jsonObject.has(FIFO_CAPACITY) ? jsonObject.getInt(FIFO_CAPACITY) : 131072;
+        int decodeThreads = jsonObject.has(DECODE_THREADS) ? jsonObject.getInt(DECODE_THREADS) : 1;
 
         if (verbose.trim().equalsIgnoreCase("yes")) {
             debug = true;
         }
         System.out.println("DDD ===========> "+path.toAbsolutePath().toString());
-        return customEvioEventParser = new CustomEvioEventParser(path.toAbsolutePath().toString(), fifoCapacity, debug);
+        return customEvioEventParser = new CustomEvioEventParser(path.toAbsolutePath().toString(), fifoCapacity,
+                decodeThreads, debug);
     }
 
     @Override
@@ -3,6 +3,7 @@ package org.jlab.ersap.actor.coda.engine.binary;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.std.services.AbstractEventWriterService;
 import org.jlab.epsci.ersap.std.services.EventWriterException;
+import org.jlab.ersap.actor.coda.proc.EtEvent;
 import org.jlab.ersap.actor.datatypes.SROTestDataType;
 import org.json.JSONObject;
 
@@ -65,6 +66,10 @@ public class CodaSinkBinaryEngine extends AbstractEventWriterService<FileOutputS
             ByteBuffer buffer = SROTestDataType.INSTANCE.serializer().write(o);
             byte[] bytes = new byte[buffer.remaining()];
             buffer.get(bytes);
+            if (o instanceof EtEvent) {
+                // serialized, the event can go back to the pool
+                ((EtEvent) o).release();
+            }
             writer.write(bytes);
             writer.flush();
             frameCount++;
@@ -4,7 +4,7 @@ import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.std.services.AbstractEventWriterService;
 import org.jlab.epsci.ersap.std.services.EventWriterException;
 import org.jlab.ersap.actor.coda.proc.EtEvent;
-import org.jlab.ersap.actor.coda.proc.FADCHit;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
 import org.jlab.ersap.actor.coda.proc.RocTimeFrameBank;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
 import org.jlab.ersap.actor.datatypes.SROTestDataType;
@@ -41,16 +41,17 @@ public class CodaSinkFileEngine extends AbstractEventWriterService<FileWriter> {
         if(ltf !=null && !ltf.isEmpty()) {
             for (List<RocTimeFrameBank> timeFrame : data.getTimeFrames()) {
                     for (RocTimeFrameBank bank : timeFrame) {
-                        for (FADCHit hit : bank.getHits()) {
+                        FADCHitBatch hits = bank.getHitBatch();
+                        for (int h = 0; h < hits.size(); h++) {
                             try {
                                 writer.write(bank.getRocID()+","+
                                         bank.getFrameNumber()+","+
                                         bank.getTimeStamp()+","+
-                                        hit.crate()+","+
-                                        hit.slot()+","+
-                                        hit.channel()+","+
-                                        hit.charge()+","+
-                                        hit.time() +"\n");
+                                        hits.crate(h)+","+
+                                        hits.slot(h)+","+
+                                        hits.channel(h)+","+
+                                        hits.charge(h)+","+
+                                        hits.time(h) +"\n");
                             } catch (IOException e) {
                                 throw new RuntimeException(e);
                             }
@@ -59,6 +60,7 @@ public class CodaSinkFileEngine extends AbstractEventWriterService<FileWriter> {
                     }
                 }
             }
+        data.release();
     }
 
     @Override
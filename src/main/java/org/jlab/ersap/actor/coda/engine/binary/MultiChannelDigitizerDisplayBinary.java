@@ -6,7 +6,7 @@ import org.jlab.epsci.ersap.engine.Engine;
 import org.jlab.epsci.ersap.engine.EngineData;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.ersap.actor.coda.proc.EtEvent;
-import org.jlab.ersap.actor.coda.proc.FADCHit;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
 import org.jlab.ersap.actor.coda.proc.LiveHistogram;
 import org.jlab.ersap.actor.coda.proc.RocTimeFrameBank;
 import org.jlab.ersap.actor.datatypes.SROTestDataType;
@@ -39,6 +39,7 @@ public class MultiChannelDigitizerDisplayBinary implements Engine {
     private boolean isDebug = false;
 
     private LiveHistogram liveHist;
+    private List<String> histTitles;
 
     @Override
     public EngineData configure(EngineData engineData) {
@@ -74,7 +75,7 @@ public class MultiChannelDigitizerDisplayBinary implements Engine {
                 isDebug = true;
             }
 
-            List<String> histTitles = new ArrayList<>();
+            histTitles = new ArrayList<>();
             for(int i=0;i<16;i++){
                 histTitles.add(rocId+"-"+slot+"-"+i);
             }
@@ -94,9 +95,13 @@ public class MultiChannelDigitizerDisplayBinary implements Engine {
             for (List<RocTimeFrameBank> rtf : data.getTimeFrames()) {
                 if(rtf !=null && !rtf.isEmpty()) {
                     for (RocTimeFrameBank tb : rtf) {
-                        for (FADCHit hit : tb.getHits()) {
-                        if (isDebug) System.out.println("DDD => "+hit);
-                            liveHist.update(hit.getName(), hit);
+                        FADCHitBatch hits = tb.getHitBatch();
+                        for (int h = 0; h < hits.size(); h++) {
+                            if (isDebug) System.out.println("DDD => " + hits.get(h));
+                            // only channels of the configured ROC and slot have histograms
+                            if (hits.crate(h) == rocId && hits.slot(h) == slot) {
+                                liveHist.update(histTitles.get(hits.channel(h)), hits.charge(h));
+                            }
                         }
                     }
                 }
@@ -3,6 +3,7 @@ package org.jlab.ersap.actor.coda.engine.jobj;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.std.services.AbstractEventWriterService;
 import org.jlab.epsci.ersap.std.services.EventWriterException;
+import org.jlab.ersap.actor.coda.proc.EtEvent;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
 import org.json.JSONObject;
 
@@ -31,7 +32,9 @@ public class CodaSinkEngine extends AbstractEventWriterService<FileWriter> {
 
     @Override
     protected void writeEvent(Object o) throws EventWriterException {
-
+        if (o instanceof EtEvent) {
+            ((EtEvent) o).release();
+        }
     }
 
     @Override
@@ -7,11 +7,13 @@ import org.jlab.epsci.ersap.engine.EngineData;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.ersap.actor.coda.proc.EtEvent;
 import org.jlab.ersap.actor.coda.proc.EvioEventParser;
+import org.jlab.ersap.actor.coda.proc.HitSelection;
+import org.jlab.ersap.actor.coda.proc.TimeFramePool;
+import org.jlab.ersap.actor.coda.source.et.EtEventLease;
 import org.jlab.ersap.actor.datatypes.CodaTimeFrameDataType;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
 import org.json.JSONObject;
 
-import java.nio.ByteBuffer;
 import java.util.Set;
 
 public class CodaHitFinderNativeEngine implements Engine {
@@ -21,6 +23,14 @@ public class CodaHitFinderNativeEngine implements Engine {
     private boolean isSourceEt;
     private static final String VERBOSE = "verbose";
     private String verbose;
+    private static final String DECODER = "decoder";
+    private String decoder = "reader";
+    private static final String DECODE_THREADS = "decode_threads";
+    private int decodeThreads = 1;
+    // roc_ids, payload_ids, channel_mask and min_charge options
+    private HitSelection selection = HitSelection.ALL;
+    private static final String POOL = "pool";
+    private String pool = "no";
 
     @Override
     public EngineData configure(EngineData engineData) {
@@ -29,6 +39,10 @@ public class CodaHitFinderNativeEngine implements Engine {
             JSONObject data = new JSONObject(source);
             streamSource = data.has(STREAMSOURCE) ? data.getString(STREAMSOURCE) : "et";
             verbose = data.has(VERBOSE) ? data.getString(VERBOSE) : "no";
+            decoder = data.has(DECODER) ? data.getString(DECODER) : "reader";
+            decodeThreads = data.has(DECODE_THREADS) ? data.getInt(DECODE_THREADS) : 1;
+            selection = HitSelection.fromJson(data);
+            pool = data.has(POOL) ? data.getString(POOL) : "no";
         }
         if (streamSource.trim().equalsIgnoreCase("et")) {
             isSourceEt = true;
@@ -40,6 +54,14 @@ public class CodaHitFinderNativeEngine implements Engine {
         } else {
             parser = new EvioEventParser(false);
         }
+        // "direct" decodes ET buffers in place, without building the EvioReader object tree
+        parser.setDirectDecoding(decoder.trim().equalsIgnoreCase("direct"));
+        parser.setDecodeThreads(decodeThreads);
+        parser.setSelection(selection);
+        // recycle decoded events, sinks release them back to the pool once written
+        if (pool.trim().equalsIgnoreCase("yes")) {
+            parser.setPool(TimeFramePool.getInstance());
+        }
         return null;
     }
 
@@ -75,7 +97,7 @@ public class CodaHitFinderNativeEngine implements Engine {
         EtEvent data;
         // Decoding
         try {
-            data = parser.parseEtEvent((ByteBuffer) engineData.getData());
+            data = EtEventLease.parse(parser, engineData.getData());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -3,6 +3,7 @@ package org.jlab.ersap.actor.coda.engine.nat;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.std.services.AbstractEventWriterService;
 import org.jlab.epsci.ersap.std.services.EventWriterException;
+import org.jlab.ersap.actor.coda.proc.EtEvent;
 import org.jlab.ersap.actor.datatypes.CodaTimeFrameDataType;
 import org.jlab.ersap.actor.datatypes.JavaObjectType;
 import org.json.JSONObject;
@@ -32,7 +33,10 @@ public class CodaSinkNativeEngine extends AbstractEventWriterService<FileWriter>
 
     @Override
     protected void writeEvent(Object o) throws EventWriterException {
-
+        if (o instanceof EtEvent) {
+            // nothing is written, the event can go back to the pool
+            ((EtEvent) o).release();
+        }
     }
 
     @Override
@@ -5,7 +5,7 @@ import org.jlab.epsci.ersap.engine.Engine;
 import org.jlab.epsci.ersap.engine.EngineData;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.ersap.actor.coda.proc.EtEvent;
-import org.jlab.ersap.actor.coda.proc.FADCHit;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
 import org.jlab.ersap.actor.coda.proc.LiveHistogram;
 import org.jlab.ersap.actor.coda.proc.RocTimeFrameBank;
 import org.jlab.ersap.actor.datatypes.CodaTimeFrameDataType;
@@ -36,6 +36,7 @@ public class MultiChannelDigitizerDisplayNative implements Engine {
     private int slot = 1;
 
     private LiveHistogram liveHist;
+    private List<String> histTitles;
 
     @Override
     public EngineData configure(EngineData engineData) {
@@ -67,7 +68,7 @@ public class MultiChannelDigitizerDisplayNative implements Engine {
                 rocId = opts.getInt(ROC_ID);
             }
 
-            List<String> histTitles = new ArrayList<>();
+            histTitles = new ArrayList<>();
             for(int i=0;i<16;i++){
                 histTitles.add(rocId+"-"+slot+"-"+i);
             }
@@ -86,9 +87,12 @@ public class MultiChannelDigitizerDisplayNative implements Engine {
             for (List<RocTimeFrameBank> rtf : data.getTimeFrames()) {
                 if(rtf !=null && !rtf.isEmpty()) {
                     for (RocTimeFrameBank tb : rtf) {
-                        for (FADCHit hit : tb.getHits()) {
-//                            System.out.println("DDD => "+hit);
-                            liveHist.update(hit.getName(), hit);
+                        FADCHitBatch hits = tb.getHitBatch();
+                        for (int h = 0; h < hits.size(); h++) {
+                            // only channels of the configured ROC and slot have histograms
+                            if (hits.crate(h) == rocId && hits.slot(h) == slot) {
+                                liveHist.update(histTitles.get(hits.channel(h)), hits.charge(h));
+                            }
                         }
                     }
                 }
@@ -1,9 +1,6 @@
 package org.jlab.ersap.actor.coda.proc;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
 
 /**
  * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
@@ -28,15 +25,24 @@ import java.util.Set;
  * accommodate the necessary number of elements. This iterative process persists, enabling the AWTBC
  * algorithm to adapt dynamically to fluctuating data streams and accurately detect event clusters
  * in real time.
+ * <p>
+ * The window is a pair of indices moving over time-sorted hit columns, so a time frame
+ * is clustered in a single pass, O(n), without creating objects. A cluster starts at the
+ * first hit of the window that reaches the multiplicity, and takes every hit within the
+ * time window of that first hit. The search then goes on after the cluster, so clusters
+ * do not overlap. Clusters are reported as index ranges of the hits.
  */
 public class Awtbc {
 
-    private int clusterEvents;
-    private long clusterTimeWindow;
+    private final int clusterEvents;
+    private final long clusterTimeWindow;
 
-    private boolean isExact = false;
+    private final boolean isExact;
 
-    private List<FADCHit> AdaptiveWindow;
+    // Clusters of the last findClusters call, as [start, end) ranges of hit indices
+    private int[] clusterStart = new int[16];
+    private int[] clusterEnd = new int[16];
+    private int clusterCount;
 
     /**
      * Creates an object of the AWTBC algorithm that looks
@@ -47,51 +53,102 @@ public class Awtbc {
      * @param c if set true algorithm will perform exact match to n
      */
     public Awtbc(int n, long t, boolean c) {
-        clusterEvents = n;
+        clusterEvents = Math.max(n, 1);
         clusterTimeWindow = t;
-        AdaptiveWindow = new ArrayList<>();
         isExact = c;
     }
 
-    public Set<IStreamItem> findCluster(List<FADCHit> hits) {
-        Set<IStreamItem> out = new HashSet<>();
-        Set<IStreamItem> tmp = new HashSet<>();
-        for (FADCHit hit:hits) {
-            if (AdaptiveWindow.size() < clusterEvents) {
-                AdaptiveWindow.add(hit);
-            } else {
-                // loop to remove elements that have larger time than clusterWindowTime
-
-                for (int i = 0; i < AdaptiveWindow.size(); i++) {
-                    IStreamItem tItem_0 = AdaptiveWindow.get(i);
-                    IStreamItem tItem_1 = AdaptiveWindow.get(i + 1);
+    /**
+     * Finds the clusters of the hits, which must be sorted by time
+     * (see {@link FADCHitBatch#sortByTime()}).
+     *
+     * @return number of clusters found, see {@link #clusterStart(int)} and {@link #clusterEnd(int)}
+     */
+    public int findClusters(FADCHitBatch hits) {
+        return findClusters(hits, hits.size());
+    }
 
-                    // We check if ID's of two neighbour items are not the same,
-                    // and that the time distance between them are within clusterTimeWindow
-                    if ((tItem_0.getId() != tItem_1.getId()) &&
-                            (tItem_0.time() - tItem_1.time() <= clusterTimeWindow)) {
-                        tmp.add(tItem_0);
-                        tmp.add(tItem_1);
+    /**
+     * Finds the clusters of the hits, which must be sorted by time, that start before
+     * {@code startLimit}. Used when the hits from the limit on may still form clusters
+     * with hits that are not known yet.
+     *
+     * @return number of clusters found, see {@link #clusterStart(int)} and {@link #clusterEnd(int)}
+     */
+    public int findClusters(FADCHitBatch hits, int startLimit) {
+        return findClusters(hits, 0, startLimit);
+    }
 
-                        // If we find a cluster
-                        if (tmp.size() == clusterEvents) {
-                            // Remove elements from the adaptive window
-                            for (int j = 0; j < out.size(); j++) {
-                                AdaptiveWindow.remove(j);
-                            }
-                            out.addAll(tmp);
-                            tmp.clear();
-                        }
-                    }
+    /**
+     * Finds the clusters of the hits from index {@code from} on, which must be sorted by
+     * time, that start before {@code startLimit}. The hits before {@code from} are ignored,
+     * which gives the same clusters as a search of all hits when the hit at {@code from}
+     * is more than the time window after the hit before it.
+     *
+     * @return number of clusters found, see {@link #clusterStart(int)} and {@link #clusterEnd(int)}
+     */
+    public int findClusters(FADCHitBatch hits, int from, int startLimit) {
+        clusterCount = 0;
+        long[] time = hits.times();
+        int size = hits.size();
+        int left = from;
+        for (int right = from; right < size; right++) {
+            // Shrink the window from the left until it spans at most clusterTimeWindow
+            while (time[right] - time[left] > clusterTimeWindow) {
+                left++;
+            }
+            if (left >= startLimit) break;
+            if (right - left + 1 >= clusterEvents) {
+                int end = right + 1;
+                while (end < size && time[end] - time[left] <= clusterTimeWindow) {
+                    end++;
+                }
+                if (!isExact || end - left == clusterEvents) {
+                    addCluster(left, end);
                 }
-                // Remove elements from the adaptive window, except the last one.
-//                for (int j = 0; j < AdaptiveWindow.size() - 1; j++) {
-//                    AdaptiveWindow.remove(j);
-//                }
-                AdaptiveWindow.clear();
+                // Go on after the cluster
+                left = end;
+                right = end - 1;
             }
         }
-        return out;
+        return clusterCount;
     }
 
+    private void addCluster(int start, int end) {
+        if (clusterCount == clusterStart.length) {
+            clusterStart = Arrays.copyOf(clusterStart, 2 * clusterCount);
+            clusterEnd = Arrays.copyOf(clusterEnd, 2 * clusterCount);
+        }
+        clusterStart[clusterCount] = start;
+        clusterEnd[clusterCount] = end;
+        clusterCount++;
+    }
+
+    /**
+     * @return time window of the clusters
+     */
+    public long getTimeWindow() {
+        return clusterTimeWindow;
+    }
+
+    /**
+     * @return number of clusters found by the last {@link #findClusters(FADCHitBatch)} call
+     */
+    public int clusterCount() {
+        return clusterCount;
+    }
+
+    /**
+     * @return index of the first hit of cluster k
+     */
+    public int clusterStart(int k) {
+        return clusterStart[k];
+    }
+
+    /**
+     * @return index after the last hit of cluster k
+     */
+    public int clusterEnd(int k) {
+        return clusterEnd[k];
+    }
 }
@@ -0,0 +1,80 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Dense indices 0..N-1 of a set of FADC channels, given as "crate-slot-channel" names.
+ * <p>
+ * The index of a hit's channel is looked up in a flat table indexed by crate, slot and
+ * channel, so that code working on hit columns can keep per-channel state in plain arrays
+ * and bitmasks.
+ */
+public class ChannelMap {
+    private static final int SLOT_BITS = 5;
+    private static final int CHANNEL_BITS = 4;
+
+    private final List<String> names = new ArrayList<>();
+    // Index by (crate, slot, channel) key, -1 for other channels
+    private int[] table = new int[0];
+
+    /**
+     * Adds a channel, if it is not in the map yet.
+     *
+     * @param name "crate-slot-channel" name of the channel
+     * @return index of the channel
+     */
+    public int add(String name) {
+        String[] f = name.trim().split("-");
+        if (f.length != 3) {
+            throw new IllegalArgumentException("Channel must be crate-slot-channel: " + name);
+        }
+        int crate = Integer.parseInt(f[0]);
+        int slot = Integer.parseInt(f[1]);
+        int channel = Integer.parseInt(f[2]);
+        if (crate < 0 || slot < 0 || slot >= 1 << SLOT_BITS || channel < 0 || channel >= 1 << CHANNEL_BITS) {
+            throw new IllegalArgumentException("Crate, slot or channel out of range: " + name);
+        }
+        int key = key(crate, slot, channel);
+        if (key >= table.length) {
+            int size = table.length;
+            table = Arrays.copyOf(table, (crate + 1) << (SLOT_BITS + CHANNEL_BITS));
+            Arrays.fill(table, size, table.length, -1);
+        }
+        if (table[key] < 0) {
+            table[key] = names.size();
+            names.add(name.trim());
+        }
+        return table[key];
+    }
+
+    private static int key(int crate, int slot, int channel) {
+        return (((crate << SLOT_BITS) | slot) << CHANNEL_BITS) | channel;
+    }
+
+    /**
+     * @return index of the channel, or -1 if it is not in the map
+     */
+    public int index(int crate, int slot, int channel) {
+        if (crate < 0 || slot < 0 || slot >= 1 << SLOT_BITS || channel < 0 || channel >= 1 << CHANNEL_BITS) {
+            return -1;
+        }
+        int key = key(crate, slot, channel);
+        return key < table.length ? table[key] : -1;
+    }
+
+    /**
+     * @return number of channels
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @return name of the channel with the index
+     */
+    public String name(int index) {
+        return names.get(index);
+    }
+}
@@ -0,0 +1,173 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds coincidences of FADC channels within a time window.
+ * <p>
+ * The channels, given as "crate-slot-channel" names, are compiled once into dense IDs
+ * 0..N-1 by a {@link ChannelMap}, and a coincidence
+ * is tracked as a bitmask of the channels present in the window. A time frame is searched
+ * in a single pass of two indices over its time-sorted hits, counting the hits of each
+ * channel in the window: whenever the window of at most {@code delta_t} holds hits of at
+ * least M of the N channels (all N by default), it is reported as a coincidence, as the
+ * range of its hits, and the search goes on after it. Nothing is allocated per hit.
+ * <p>
+ * Usage per time frame: {@link #reset()}, {@link #addAll(FADCHitBatch)} for each bank,
+ * {@link #find()}, then read the coincidences from {@link #getHits()}.
+ */
+public class CoincidenceFinder {
+    private final ChannelMap channels = new ChannelMap();
+    private final long window;
+    private final int minChannels;
+    // Hit counts of the channels in the window
+    private final int[] counts;
+
+    // Hits of the configured channels of the current frame
+    private final FADCHitBatch hits = new FADCHitBatch();
+    // Coincidences of the last find call, as [start, end) ranges of hit indices
+    private int[] start = new int[16];
+    private int[] end = new int[16];
+    private int count;
+
+    /**
+     * @param channels    "crate-slot-channel" names of the channels, at most 64
+     * @param window      longest time span of a coincidence, in ns
+     * @param minChannels minimum number of channels with hits in a coincidence,
+     *                    0 or more than the number of channels for all of them
+     */
+    public CoincidenceFinder(List<String> channels, long window, int minChannels) {
+        for (String name : channels) {
+            this.channels.add(name);
+        }
+        int n = this.channels.size();
+        if (n == 0 || n > Long.SIZE) {
+            throw new IllegalArgumentException("1 to 64 coincidence channels are supported, got " + n);
+        }
+        this.window = window;
+        this.minChannels = minChannels <= 0 || minChannels > n ? n : minChannels;
+        counts = new int[n];
+    }
+
+    /**
+     * @return dense ID of the channel, or -1 if it is not one of the coincidence channels
+     */
+    public int channelId(int crate, int slot, int channel) {
+        return channels.index(crate, slot, channel);
+    }
+
+    /**
+     * Starts a new time frame.
+     */
+    public void reset() {
+        hits.reset();
+        count = 0;
+    }
+
+    /**
+     * Adds the hits of the coincidence channels of a bank to the current frame.
+     */
+    public void addAll(FADCHitBatch batch) {
+        addAll(batch, 0, batch.size());
+    }
+
+    /**
+     * Adds the hits {@code from} (inclusive) to {@code to} (exclusive) of a batch that are
+     * hits of the coincidence channels to the current frame.
+     */
+    public void addAll(FADCHitBatch batch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (channelId(batch.crate(i), batch.slot(i), batch.channel(i)) >= 0) {
+                hits.add(batch.crate(i), batch.slot(i), batch.channel(i), batch.charge(i), batch.time(i));
+            }
+        }
+    }
+
+    /**
+     * Finds the coincidences of the current frame.
+     *
+     * @return number of coincidences, see {@link #start(int)} and {@link #end(int)}
+     */
+    public int find() {
+        count = 0;
+        hits.sortByTime();
+        long[] time = hits.times();
+        int size = hits.size();
+        Arrays.fill(counts, 0);
+        // Bit n is set while channel n has hits in the window
+        long present = 0;
+        int left = 0;
+        for (int right = 0; right < size; right++) {
+            int id = channelId(hits.crate(right), hits.slot(right), hits.channel(right));
+            counts[id]++;
+            present |= 1L << id;
+            // Shrink the window from the left until it spans at most the coincidence window
+            while (time[right] - time[left] > window) {
+                int out = channelId(hits.crate(left), hits.slot(left), hits.channel(left));
+                if (--counts[out] == 0) {
+                    present &= ~(1L << out);
+                }
+                left++;
+            }
+            if (Long.bitCount(present) >= minChannels) {
+                addCoincidence(left, right + 1);
+                // Go on after the coincidence with an empty window
+                Arrays.fill(counts, 0);
+                present = 0;
+                left = right + 1;
+            }
+        }
+        return count;
+    }
+
+    private void addCoincidence(int from, int to) {
+        if (count == start.length) {
+            start = Arrays.copyOf(start, 2 * count);
+            end = Arrays.copyOf(end, 2 * count);
+        }
+        start[count] = from;
+        end[count] = to;
+        count++;
+    }
+
+    /**
+     * @return hits of the coincidence channels of the current frame, sorted by time after
+     * {@link #find()}
+     */
+    public FADCHitBatch getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of coincidences found by the last {@link #find()} call
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @return index of the first hit of coincidence k
+     */
+    public int start(int k) {
+        return start[k];
+    }
+
+    /**
+     * @return index after the last hit of coincidence k
+     */
+    public int end(int k) {
+        return end[k];
+    }
+
+    /**
+     * @return channel names joined by "&amp;", the title of the coincidence histogram
+     */
+    public String getTitle() {
+        StringBuilder title = new StringBuilder(channels.name(0));
+        for (int i = 1; i < channels.size(); i++) {
+            title.append('&').append(channels.name(i));
+        }
+        return title.toString();
+    }
+}
@@ -5,183 +5,302 @@ import org.jlab.ersap.actor.util.IASource;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.IntBuffer;
-import java.nio.file.Files;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Replays evio-4 files (e.g. extracted from pcap captures) as a stream of EtEvents.
+ * <p>
+ * The file is memory mapped, in windows of at most ~2GB, and the magic word scan
+ * runs directly over the mapped region. A block that crosses the end of a window
+ * is decoded from the next window, which starts at the block's magic word.
+ * <p>
+ * With more than one decode thread the scan only indexes block boundaries. Runs of
+ * indexed blocks are decoded in parallel on a fork-join pool, and the resulting
+ * events are put into the output queue in the order of submission, i.e. file order.
+ */
 public class CustomEvioEventParser implements IASource, Runnable {
     private boolean debug;
     private static final int WORD_SIZE = 4;
     private static final int MAGIC_WORD = 0xC0DA0100;
+    // Largest word aligned region a single MappedByteBuffer can address
+    private static final long MAX_WINDOW_BYTES = Integer.MAX_VALUE & ~(WORD_SIZE - 1);
+    // ROC bank length, ROC bank header, SIB length, SIB header, TSS header,
+    // frame number, timestamp low, timestamp high and AIS header
+    private static final int ROC_HEADER_BYTES = 9 * WORD_SIZE;
+    // Number of indexed blocks decoded by a single fork-join task
+    private static final int BLOCKS_PER_TASK = 64;
     // Queue
     private final BlockingQueue<EtEvent> queue;
     private AtomicBoolean running = new AtomicBoolean(true);
-    private ByteBuffer dataBuffer;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final Thread thread;
+    // Parallel decoding, null if blocks are decoded by the reader thread
+    private final ForkJoinPool decodePool;
+    private final int maxPendingTasks;
+    // Reorder stage: decode tasks in file order
+    private final ArrayDeque<ForkJoinTask<List<EtEvent>>> pending = new ArrayDeque<>();
+    private int[] blockStarts = new int[BLOCKS_PER_TASK];
+    private int[] blockEnds = new int[BLOCKS_PER_TASK];
+    private int indexedBlocks;
+    private final FADCWordDecoder wordDecoder = FADCWordDecoder.getInstance();
 
     public CustomEvioEventParser(String fileName, int queueCapacity, boolean debug) {
+        this(fileName, queueCapacity, 1, debug);
+    }
+
+    /**
+     * @param fileName      evio v4.0 file
+     * @param queueCapacity capacity of the output event queue
+     * @param decodeThreads number of threads decoding blocks in parallel.
+     *                      1 decodes on the reader thread.
+     * @param debug         print debug information
+     */
+    public CustomEvioEventParser(String fileName, int queueCapacity, int decodeThreads, boolean debug) {
         this.queue = new LinkedBlockingQueue<>(queueCapacity);
         this.debug = debug;
+        if (decodeThreads > 1) {
+            decodePool = new ForkJoinPool(decodeThreads);
+            maxPendingTasks = 4 * decodeThreads;
+        } else {
+            decodePool = null;
+            maxPendingTasks = 0;
+        }
         try {
-           byte[] fileBytes = Files.readAllBytes(Paths.get(fileName));
-            dataBuffer = ByteBuffer.wrap(fileBytes).order(ByteOrder.BIG_ENDIAN);
-            Thread thread = new Thread(this);
-            thread.start();
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            fileSize = channel.size();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        thread = new Thread(this);
+        thread.start();
     }
 
-    private void startParsing(ByteBuffer buffer) throws IOException, InterruptedException {
-
-
-        while (buffer.remaining() >= WORD_SIZE) {
-            buffer.mark();
-            int word = buffer.getInt();
-
-            if (word == MAGIC_WORD) {
-                EtEvent evt = new EtEvent();
-                // NOTE. here banks will have only one roc time frame bank, since this is evio 4,
-                // and is not coming from the aggregator component that aggregates multiple
-                // ROCs time frame banks into evio 6 event.
-                List<RocTimeFrameBank> banks = new ArrayList<>();
-
-                RocTimeFrameBank timeFrameBank = new RocTimeFrameBank();
-
-                if (debug) System.out.println("DDD Found block header.");
-                if (buffer.remaining() < WORD_SIZE * 6) continue;
-
-//                    buffer.position(buffer.position() + WORD_SIZE * 5);
-
-                // test to see if this is evio v4.0
-                int rocBankLength = buffer.getInt();
-                int rocID = (buffer.getInt() >>> 16) & 0xFFFF;
-                int stringInfoLength =  buffer.getInt();
-                int word2 = (buffer.getInt() >>> 16) & 0xFFFF;
-                if (debug) System.out.println("DDD========> v4.0 identifier = " + Integer.toHexString(word2));
-                buffer.getInt();
-                // end of the test
-
-                int frameNumber = buffer.getInt();
-
-                if (buffer.remaining() < WORD_SIZE * 2) continue;
-                long timeStamp = Integer.toUnsignedLong(buffer.getInt()) | ((long) buffer.getInt() << 32);
-
-                if (debug) System.out.println("DDD frameNumber = " + frameNumber + " timeStamp = " + timeStamp);
-
-                // fill time frame bank
-                timeFrameBank.setRocID(rocID);
-                timeFrameBank.setRocID(frameNumber);
-                timeFrameBank.setTimeStamp(timeStamp);
-
-                if (buffer.remaining() < WORD_SIZE) continue;
-                int nextWord = buffer.getInt();
-                int upperBytes = (nextWord >>> 16) & 0xFFFF;
-
-                if (upperBytes != 0x4185) continue;
-                int eLength = nextWord & 0xFFFF;
-                if (debug) System.out.println("DDD  => 0x" + Integer.toHexString(upperBytes) +
-                        " 0x" + Integer.toHexString(eLength));
-
-                int payloads = 0;
-                for (int i = 0; i < eLength; i++) {
-                    int pp = buffer.getInt();
-                    int p1 = (pp >>> 16) & 0xFFFF;
-                    int p2 = pp & 0xFFFF;
-                    int p1ModuleID = (p1 >>> 8) & 0xF;
-                    if (p1ModuleID != 0) payloads++;
-                    int p1PayloadID = p1 & 0x1F;
-                    int p2ModuleID = (p2 >>> 8) & 0xF;
-                    if (p2ModuleID != 0) payloads++;
-                    int p2PayloadID = p2 & 0x1F;
-                    if (debug) System.out.println("DDD===> payloadModule_" + i + "1 " + p1ModuleID +
-                            " payloadID_" + i + "1 " + p1PayloadID +
-                            " payloadModule_" + i + "2 " + p2ModuleID +
-                            " payloadID_" + i + "2 " + p2PayloadID);
-                    if (debug) System.out.println();
-                }
+    private void startParsing() throws IOException, InterruptedException {
+        long base = 0;
+        while (running.get() && fileSize - base >= WORD_SIZE) {
+            long windowBytes = Math.min(MAX_WINDOW_BYTES, fileSize - base);
+            boolean lastWindow = base + windowBytes == fileSize;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, base, windowBytes);
+            window.order(ByteOrder.BIG_ENDIAN);
+            if (debug) System.out.println("DDD Mapped window at " + base + ", " + windowBytes + " bytes");
+
+            int next = scanWindow(window, lastWindow);
+            // indexed offsets are relative to this window
+            submitIndexed(window);
+            if (lastWindow) break;
+            base += next;
+        }
+        while (!pending.isEmpty()) {
+            enqueueOldest();
+        }
+    }
 
-                for (int i = 0; i < payloads; i++) {
+    /**
+     * Scans a mapped window for block headers and decodes or indexes the found blocks.
+     *
+     * @param buffer     mapped window
+     * @param lastWindow true if the window reaches the end of the file
+     * @return offset in the window where the next window has to start
+     */
+    private int scanWindow(ByteBuffer buffer, boolean lastWindow) throws InterruptedException {
+        int limit = buffer.limit();
+        int pos = 0;
+        while (running.get() && limit - pos >= WORD_SIZE) {
+            if (buffer.getInt(pos) != MAGIC_WORD) {
+                pos += WORD_SIZE;
+                continue;
+            }
+            if (debug) System.out.println("DDD Found block header.");
 
-                    if (buffer.remaining() < WORD_SIZE * 2) continue;
+            // ROC bank follows the magic word, its length tells where the block ends
+            int bankStart = pos + WORD_SIZE;
+            if (limit - bankStart < WORD_SIZE) {
+                return lastWindow ? limit : pos;
+            }
+            long bankEnd = bankStart + (buffer.getInt(bankStart) + 1L) * WORD_SIZE;
+            if (bankEnd > limit && !lastWindow && bankEnd - pos <= MAX_WINDOW_BYTES) {
+                // block crosses the end of the window
+                return pos;
+            }
+            if (bankEnd > limit || !isRocTimeFrame(buffer, bankStart, (int) bankEnd)) {
+                pos += WORD_SIZE;
+                continue;
+            }
 
-                    int payloadPortLength = buffer.getInt();
-                    int payloadHeader = buffer.getInt();
-                    int payloadID = (payloadHeader >>> 16) & 0xFFFF;
+            if (decodePool == null) {
+                enqueue(decodeBlock(buffer, bankStart, (int) bankEnd));
+            } else {
+                blockStarts[indexedBlocks] = bankStart;
+                blockEnds[indexedBlocks] = (int) bankEnd;
+                if (++indexedBlocks == BLOCKS_PER_TASK) {
+                    submitIndexed(buffer);
+                }
+            }
+            pos = (int) bankEnd;
+        }
+        return pos;
+    }
 
-                    if (debug) System.out.println("DDD PayloadID = " + payloadID);
+    /**
+     * Submits the indexed blocks of the window for decoding. If too many tasks are
+     * pending, waits for the oldest one and moves its events to the output queue.
+     */
+    private void submitIndexed(ByteBuffer buffer) throws InterruptedException {
+        if (indexedBlocks == 0) return;
+        int[] starts = blockStarts;
+        int[] ends = blockEnds;
+        int count = indexedBlocks;
+        blockStarts = new int[BLOCKS_PER_TASK];
+        blockEnds = new int[BLOCKS_PER_TASK];
+        indexedBlocks = 0;
+
+        pending.add(decodePool.submit(() -> {
+            List<EtEvent> events = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                events.add(decodeBlock(buffer, starts[i], ends[i]));
+            }
+            return events;
+        }));
+        if (pending.size() >= maxPendingTasks) {
+            enqueueOldest();
+        }
+    }
 
-                    int remainingPayloadWords = payloadPortLength - 1;
-                    if (buffer.remaining() < remainingPayloadWords * WORD_SIZE) continue;
+    private void enqueueOldest() throws InterruptedException {
+        for (EtEvent evt : pending.poll().join()) {
+            enqueue(evt);
+        }
+    }
 
-                    byte[] payloadBytes = new byte[remainingPayloadWords * WORD_SIZE];
-                    buffer.get(payloadBytes);
+    /**
+     * Checks the header words of a ROC bank without decoding it.
+     *
+     * @param buffer  big endian buffer with the block
+     * @param pos     offset of the ROC bank length word
+     * @param bankEnd offset right after the ROC bank
+     * @return true if the bank is a ROC time frame, with AIS within the bank
+     */
+    private static boolean isRocTimeFrame(ByteBuffer buffer, int pos, int bankEnd) {
+        if (bankEnd - pos < ROC_HEADER_BYTES) return false;
+        int nextWord = buffer.getInt(pos + WORD_SIZE * 8);
+        if (((nextWord >>> 16) & 0xFFFF) != 0x4185) return false;
+        return bankEnd - pos - ROC_HEADER_BYTES >= (nextWord & 0xFFFF) * WORD_SIZE;
+    }
 
-                    List<FADCHit> hList = parseFADCPayload(timeStamp, rocID, payloadID, payloadBytes);
-                    // Adding hits in this payload board
-                    timeFrameBank.addHits(hList);
-                    if(debug) {
-                        for (FADCHit h :  hList) {
-                            System.out.println(h);
-                        }
-                    }
-                }
-                banks.add(timeFrameBank);
-                evt.addTimeFrame(banks);
-                enqueue(evt);
-            } else {
-                buffer.reset();
-                buffer.position(buffer.position() + WORD_SIZE);
-            }
+    /**
+     * Decodes the evio v4.0 ROC time frame bank that follows a block header.
+     *
+     * @param buffer  big endian buffer with the block
+     * @param pos     offset of the ROC bank length word
+     * @param bankEnd offset right after the ROC bank
+     * @return the event with a single ROC time frame bank
+     */
+    private EtEvent decodeBlock(ByteBuffer buffer, int pos, int bankEnd) {
+        EtEvent evt = new EtEvent();
+        // NOTE. here banks will have only one roc time frame bank, since this is evio 4,
+        // and is not coming from the aggregator component that aggregates multiple
+        // ROCs time frame banks into evio 6 event.
+        List<RocTimeFrameBank> banks = new ArrayList<>();
+
+        RocTimeFrameBank timeFrameBank = new RocTimeFrameBank();
+
+        // test to see if this is evio v4.0
+        int rocID = (buffer.getInt(pos + WORD_SIZE) >>> 16) & 0xFFFF;
+        int word2 = (buffer.getInt(pos + WORD_SIZE * 3) >>> 16) & 0xFFFF;
+        if (debug) System.out.println("DDD========> v4.0 identifier = " + Integer.toHexString(word2));
+        // end of the test
+
+        int frameNumber = buffer.getInt(pos + WORD_SIZE * 5);
+        long timeStamp = Integer.toUnsignedLong(buffer.getInt(pos + WORD_SIZE * 6))
+                | ((long) buffer.getInt(pos + WORD_SIZE * 7) << 32);
+
+        if (debug) System.out.println("DDD frameNumber = " + frameNumber + " timeStamp = " + timeStamp);
+
+        // fill time frame bank
+        timeFrameBank.setRocID(rocID);
+        timeFrameBank.setFrameNumber(frameNumber);
+        timeFrameBank.setTimeStamp(timeStamp);
+
+        int nextWord = buffer.getInt(pos + WORD_SIZE * 8);
+        int upperBytes = (nextWord >>> 16) & 0xFFFF;
+
+        int eLength = nextWord & 0xFFFF;
+        if (debug) System.out.println("DDD  => 0x" + Integer.toHexString(upperBytes) +
+                " 0x" + Integer.toHexString(eLength));
+
+        pos += ROC_HEADER_BYTES;
+
+        int payloads = 0;
+        for (int i = 0; i < eLength; i++, pos += WORD_SIZE) {
+            int pp = buffer.getInt(pos);
+            int p1 = (pp >>> 16) & 0xFFFF;
+            int p2 = pp & 0xFFFF;
+            int p1ModuleID = (p1 >>> 8) & 0xF;
+            if (p1ModuleID != 0) payloads++;
+            int p1PayloadID = p1 & 0x1F;
+            int p2ModuleID = (p2 >>> 8) & 0xF;
+            if (p2ModuleID != 0) payloads++;
+            int p2PayloadID = p2 & 0x1F;
+            if (debug) System.out.println("DDD===> payloadModule_" + i + "1 " + p1ModuleID +
+                    " payloadID_" + i + "1 " + p1PayloadID +
+                    " payloadModule_" + i + "2 " + p2ModuleID +
+                    " payloadID_" + i + "2 " + p2PayloadID);
+            if (debug) System.out.println();
         }
-    }
 
+        for (int i = 0; i < payloads; i++) {
 
-    private List<FADCHit> parseFADCPayload(Long frame_time_ns, int rocId, int payloadId, byte[] ba) {
-        List<FADCHit> hits = new ArrayList<>();
-        IntBuffer intBuf = ByteBuffer.wrap(ba).order(ByteOrder.BIG_ENDIAN).asIntBuffer();
-        int[] pData = new int[intBuf.remaining()];
-        intBuf.get(pData);
+            if (bankEnd - pos < WORD_SIZE * 2) break;
 
-        for (int word : pData) {
-            int wordType = (word >>> 30) & 0x3;
+            int payloadPortLength = buffer.getInt(pos);
+            int payloadHeader = buffer.getInt(pos + WORD_SIZE);
+            int payloadID = (payloadHeader >>> 16) & 0xFFFF;
 
-            if (wordType == 0b00) {
-                int q = word & 0x1FFF;                   // bits 12:0
-                int channel = (word >>> 13) & 0xF;       // bits 16:13
-                long t_offset = ((word >>> 17) & 0x1FFF) * 4L; // bits 29:17, 4ns units
-                long hit_time = frame_time_ns + t_offset;
+            if (debug) System.out.println("DDD PayloadID = " + payloadID);
 
-                // Filter out invalid or junk values:
-                boolean isPowerOf2 = (q != 0) && ((q & (q - 1)) == 0);
-                boolean looksValid =
-                        q > 0 &&
-                                !isPowerOf2 && // reject pure powers of 2
-                                channel >= 0 && channel < 16 &&
-                                (hit_time > frame_time_ns) &&
-                                (hit_time - frame_time_ns) < 100_000_000; // max 100ms drift
+            int remainingPayloadWords = payloadPortLength - 1;
+            pos += WORD_SIZE * 2;
+            if (remainingPayloadWords < 0 || (bankEnd - pos) / WORD_SIZE < remainingPayloadWords) break;
 
-                if (!looksValid) continue;
+            // Adding hits in this payload board
+            parseFADCPayload(timeStamp, rocID, payloadID, buffer, pos, remainingPayloadWords,
+                    timeFrameBank.getHitBatch());
+            pos += remainingPayloadWords * WORD_SIZE;
+        }
+        banks.add(timeFrameBank);
+        evt.addTimeFrame(banks);
+        return evt;
+    }
 
-                FADCHit hit = new FADCHit(rocId, payloadId, channel, q, hit_time);
-                hits.add(hit);
 
-                if (debug)
-                    System.out.printf("HIT: 0x%08X → ch=%d q=%d t=%d\n", word, channel, q, hit_time);
-            } else {
-                if (debug)
+    private void parseFADCPayload(long frame_time_ns, int rocId, int payloadId,
+                                  ByteBuffer buffer, int offset, int words, FADCHitBatch hits) {
+        int first = hits.size();
+        // charge, channel and 13 bit time offset, dropping non-hit words and junk values
+        wordDecoder.decodeValidPayload(frame_time_ns, rocId, payloadId, buffer, offset, words, hits);
+
+        if (debug) {
+            for (int i = 0; i < words; i++) {
+                int word = buffer.getInt(offset + i * WORD_SIZE);
+                int wordType = (word >>> 30) & 0x3;
+                if (wordType != 0b00)
                     System.out.printf("SKIP: Non-hit word: 0x%08X (type=%d)\n", word, wordType);
             }
+            for (int i = first; i < hits.size(); i++)
+                System.out.println(hits.get(i));
         }
-
-        if (debug)
-            for (FADCHit hit : hits)
-                System.out.println(hit);
-        return hits;
     }
 
     private void enqueue(EtEvent bank) throws InterruptedException {
@@ -194,11 +313,20 @@ public class CustomEvioEventParser implements IASource, Runnable {
 
     @Override
     public void run() {
-        while (running.get()) {
+        try {
+            startParsing();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (decodePool != null) {
+                decodePool.shutdownNow();
+            }
             try {
-                startParsing(dataBuffer);
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException(e);
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Problem closing the evio file: " + e.getMessage());
             }
         }
     }
@@ -225,5 +353,6 @@ public class CustomEvioEventParser implements IASource, Runnable {
     @Override
     public void close() {
         running.set(false);
+        thread.interrupt();
     }
 }
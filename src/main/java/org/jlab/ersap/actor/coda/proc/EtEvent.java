@@ -6,6 +6,20 @@ import java.util.List;
 public class EtEvent {
     private List<List<RocTimeFrameBank>> timeFrames = new ArrayList<>();
 
+    // Pool this event returns to when released, null if the event is not pooled
+    private final TimeFramePool pool;
+    // Emptied time frame lists of a recycled event, reused by newTimeFrame()
+    private final List<List<RocTimeFrameBank>> spareFrames = new ArrayList<>();
+    private boolean pooled;
+
+    public EtEvent() {
+        this(null);
+    }
+
+    EtEvent(TimeFramePool pool) {
+        this.pool = pool;
+    }
+
     public List<List<RocTimeFrameBank>> getTimeFrames() {
         return timeFrames;
     }
@@ -15,4 +29,69 @@ public class EtEvent {
             this.timeFrames.add(timeFrame);
         }
     }
+
+    /**
+     * Adds an empty time frame to this event. A recycled event reuses
+     * the list of one of its previous time frames.
+     *
+     * @return the list to add the ROC time frame banks of the time frame to
+     */
+    public List<RocTimeFrameBank> newTimeFrame() {
+        int spare = spareFrames.size();
+        List<RocTimeFrameBank> timeFrame = spare > 0 ? spareFrames.remove(spare - 1) : new ArrayList<>();
+        timeFrames.add(timeFrame);
+        return timeFrame;
+    }
+
+    /**
+     * Removes a time frame from this event, returning its ROC time frame banks to the pool
+     * if the event is pooled.
+     */
+    public void removeTimeFrame(int index) {
+        List<RocTimeFrameBank> timeFrame = timeFrames.remove(index);
+        if (pool != null) {
+            for (RocTimeFrameBank bank : timeFrame) {
+                pool.release(bank);
+            }
+        }
+        timeFrame.clear();
+        spareFrames.add(timeFrame);
+    }
+
+    /**
+     * @return true if this event came from a {@link TimeFramePool}
+     */
+    public boolean isRecyclable() {
+        return pool != null;
+    }
+
+    /**
+     * Returns this event, together with its ROC time frame banks, to the pool it came from.
+     * Does nothing for events that are not pooled. Neither the event nor its banks or hits
+     * may be used after this call.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+
+    boolean isPooled() {
+        return pooled;
+    }
+
+    void setPooled(boolean pooled) {
+        this.pooled = pooled;
+    }
+
+    void clear(TimeFramePool pool) {
+        for (List<RocTimeFrameBank> timeFrame : timeFrames) {
+            for (RocTimeFrameBank bank : timeFrame) {
+                pool.release(bank);
+            }
+            timeFrame.clear();
+            spareFrames.add(timeFrame);
+        }
+        timeFrames.clear();
+    }
 }
@@ -0,0 +1,534 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Identifies events in consecutive time frames with the {@link Awtbc} sliding window,
+ * stitching the clusters that straddle a frame boundary.
+ * <p>
+ * The hits of the last time window of a frame may still belong to a cluster with hits of
+ * the next frame. They are not clustered with their own frame but carried into the next
+ * one, where they come before its hits in time. A stitched event is reported with the frame
+ * in which it is completed, its hits in the banks of their ROCs in that frame. The carried
+ * tail never spans more than the time window.
+ * <p>
+ * Stitching needs the frames in order. Frames arriving out of order wait in a bounded
+ * reorder buffer, keyed by frame number, for the frames before them. When the buffer is
+ * full, the frames missing at its start are given up. A frame arriving after its turn has
+ * passed is identified on its own, without stitching. A frame number going back by more
+ * than twice the buffer, as after a run restart or a wrap of the 32-bit frame number,
+ * ends the stream and starts over.
+ * <p>
+ * At the end of a stream, {@link #flush()}, the frames waiting in the reorder buffer and the
+ * carried tail are identified with the next processed event, ahead of its own frames.
+ * <p>
+ * With a {@link SoftwareTrigger}, only the identified events accepted by the trigger keep
+ * their hits. The trigger is used under the lock of the stitcher, so its counts are read
+ * through the stitcher.
+ * <p>
+ * The identified events are either kept in the banks of their time frames, or collected
+ * into a compact {@link IdentifiedEvents} container, see {@link #process(EtEvent, IdentifiedEvents)}.
+ * <p>
+ * The time frames are taken out of the processed events, so the stitcher can be shared by
+ * the threads of a service. Each thread sorts and clusters the hits of its own frames; the
+ * clusters after the first gap longer than the time window do not depend on the previous
+ * frame. Only the reorder buffer, the carried tail, the clusters before that gap and the
+ * trigger are handled under the lock, and the banks are refilled after it. A frame completing
+ * the frames waiting before it in the reorder buffer takes them into its own event.
+ */
+public class EventStitcher {
+    private final Awtbc awtbc;
+    private final long timeWindow;
+    // Clusters the frames of each thread outside the lock
+    private final ThreadLocal<Awtbc> threadAwtbc;
+    // Selects the identified events, null to keep all of them
+    private SoftwareTrigger trigger;
+
+    // Frames waiting for the frames before them, indexed by frame number modulo capacity
+    private final List<Frame> pending;
+    private int pendingCount;
+    // Frame number of the next frame to identify, -1 until the first frame arrives
+    private long next = -1;
+    // Set by flush, the waiting frames go out with the next processed event
+    private boolean flushing;
+
+    // Hits carried into the next frame, and the frame they come from
+    private final FADCHitBatch tail = new FADCHitBatch();
+    private int tailFrameNumber;
+    private long tailTimeStamp;
+    // Frames identified by the current process call
+    private final List<Frame> ready = new ArrayList<>();
+    // Frames no longer in use
+    private final ConcurrentLinkedQueue<Frame> freeFrames = new ConcurrentLinkedQueue<>();
+
+    // Statistics
+    private long frames;
+    private long stitchedEvents;
+    private long lateFrames;
+    private long missingFrames;
+    private long restarts;
+
+    /**
+     * @param multiplicity  minimum number of hits of an event
+     * @param timeWindow    time window of an event, in ns
+     * @param reorderFrames number of frames the reorder buffer holds
+     */
+    public EventStitcher(int multiplicity, long timeWindow, int reorderFrames) {
+        this.awtbc = new Awtbc(multiplicity, timeWindow, false);
+        this.timeWindow = timeWindow;
+        this.threadAwtbc = ThreadLocal.withInitial(() -> new Awtbc(multiplicity, timeWindow, false));
+        int capacity = Math.max(reorderFrames, 1);
+        pending = new ArrayList<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            pending.add(null);
+        }
+    }
+
+    /**
+     * @param trigger trigger selecting the identified events, null to keep all of them
+     */
+    public synchronized void setTrigger(SoftwareTrigger trigger) {
+        this.trigger = trigger;
+    }
+
+    /**
+     * Takes the time frames out of the event and puts back the frames that are identified
+     * now, in frame order, each keeping only the hits of its identified events. Frames
+     * without any identified event are dropped.
+     *
+     * @param evt decoded event
+     */
+    public void process(EtEvent evt) {
+        process(evt, null);
+    }
+
+    /**
+     * Takes the time frames out of the event and identifies them. With an events
+     * container, the events identified now are added to it, in frame order, and the
+     * event is left without time frames; otherwise see {@link #process(EtEvent)}.
+     *
+     * @param evt    decoded event
+     * @param events container of the identified events, or null to keep them in the
+     *               time frames of the event
+     */
+    public void process(EtEvent evt, IdentifiedEvents events) {
+        List<List<RocTimeFrameBank>> timeFrames = evt.getTimeFrames();
+        List<Frame> prepared = new ArrayList<>(timeFrames.size());
+        Awtbc clusterer = threadAwtbc.get();
+        for (List<RocTimeFrameBank> timeFrame : timeFrames) {
+            if (!timeFrame.isEmpty()) prepared.add(prepare(timeFrame, clusterer));
+        }
+        timeFrames.clear();
+
+        List<Frame> identified;
+        synchronized (this) {
+            if (flushing) {
+                endStream();
+                flushing = false;
+            }
+            for (Frame frame : prepared) {
+                add(frame);
+            }
+            identified = new ArrayList<>(ready);
+            ready.clear();
+            if (trigger != null) trigger.reportIfDue(System.nanoTime());
+        }
+
+        for (Frame frame : identified) {
+            List<RocTimeFrameBank> timeFrame = fill(frame, events);
+            evt.addTimeFrame(timeFrame);
+            if (isEmpty(timeFrame)) {
+                // releases the banks if the event is pooled
+                evt.removeTimeFrame(timeFrames.size() - 1);
+            }
+            frame.banks = null;
+            freeFrames.add(frame);
+        }
+    }
+
+    /**
+     * Ends the stream: the frames waiting in the reorder buffer and the carried tail are
+     * identified with the next processed event, ahead of its own frames, and the next
+     * frame starts a new stream.
+     */
+    public synchronized void flush() {
+        flushing = true;
+    }
+
+    /**
+     * Sorts the hits of a time frame and finds the clusters that do not depend on the
+     * previous frame: those after the first gap longer than the time window, that start
+     * before the hits carried into the next frame.
+     */
+    private Frame prepare(List<RocTimeFrameBank> timeFrame, Awtbc clusterer) {
+        Frame frame = freeFrames.poll();
+        if (frame == null) frame = new Frame();
+        frame.banks = timeFrame;
+        FADCHitBatch hits = frame.hits;
+        hits.reset();
+        for (RocTimeFrameBank bank : timeFrame) {
+            hits.addAll(bank.getHitBatch());
+        }
+        hits.sortByTime();
+        int size = hits.size();
+
+        // Hits within the time window of the last hit may form events with the next frame
+        int startLimit = size;
+        long last = size > 0 ? hits.time(size - 1) : 0;
+        while (startLimit > 0 && hits.time(startLimit - 1) + timeWindow >= last) {
+            startLimit--;
+        }
+        frame.startLimit = startLimit;
+
+        int split = size;
+        for (int i = 1; i < startLimit; i++) {
+            if (hits.time(i) - hits.time(i - 1) > timeWindow) {
+                split = i;
+                break;
+            }
+        }
+        frame.split = split;
+        frame.body.reset();
+        if (split < size) {
+            frame.body.add(clusterer, clusterer.findClusters(hits, split, startLimit));
+        }
+        return frame;
+    }
+
+    private void add(Frame frame) {
+        long frameNumber = frame.banks.get(0).getFrameNumber() & 0xffffffffL;
+        int capacity = pending.size();
+        if (next >= 0 && frameNumber + 2L * capacity < next) {
+            // run restart or frame number wrap
+            restarts++;
+            endStream();
+        }
+        if (next < 0) next = frameNumber;
+        if (frameNumber < next || (frameNumber < next + capacity
+                && pending.get((int) (frameNumber % capacity)) != null)) {
+            // too late, or a repeated frame number
+            lateFrames++;
+            frames++;
+            identify(frame, false, false);
+            return;
+        }
+        // Make room, giving up the missing frames at the start of the buffer
+        if (frameNumber >= next + capacity && pendingCount == 0) {
+            missingFrames += frameNumber - next;
+            next = frameNumber;
+        }
+        while (frameNumber >= next + capacity) {
+            if (!identifyNext()) missingFrames++;
+            next++;
+        }
+        pending.set((int) (frameNumber % capacity), frame);
+        pendingCount++;
+        while (identifyNext()) {
+            next++;
+        }
+    }
+
+    /**
+     * Identifies the next frame, if it has arrived.
+     *
+     * @return false if the next frame is missing
+     */
+    private boolean identifyNext() {
+        int slot = (int) (next % pending.size());
+        Frame frame = pending.get(slot);
+        if (frame == null) return false;
+        pending.set(slot, null);
+        pendingCount--;
+        frames++;
+        identify(frame, true, true);
+        return true;
+    }
+
+    /**
+     * Identifies the waiting frames in order, giving up the missing ones, then the events of
+     * the tail, which no frame follows.
+     */
+    private void endStream() {
+        while (pendingCount > 0) {
+            if (!identifyNext()) missingFrames++;
+            next++;
+        }
+        if (!tail.isEmpty()) {
+            // the tail goes with the frame it comes from
+            RocTimeFrameBank bank = new RocTimeFrameBank();
+            bank.setRocID(tail.crate(0));
+            bank.setFrameNumber(tailFrameNumber);
+            bank.setTimeStamp(tailTimeStamp);
+            bank.getHitBatch().addAll(tail);
+            tail.reset();
+            List<RocTimeFrameBank> timeFrame = new ArrayList<>();
+            timeFrame.add(bank);
+            identify(prepare(timeFrame, awtbc), false, false);
+        }
+        next = -1;
+    }
+
+    /**
+     * Finds the clusters of the frame that include the carried tail, or all of them if the
+     * frame is not prepared for it, selects the clusters with the trigger and carries the
+     * new tail.
+     *
+     * @param stitch if true, the frame continues the tail of the previous frame
+     * @param carry  if true, the frame leaves its own tail for the next one
+     */
+    private void identify(Frame frame, boolean stitch, boolean carry) {
+        FADCHitBatch hits = frame.hits;
+        FADCHitBatch head = frame.head;
+        int size = hits.size();
+        head.reset();
+        int tailSize = 0;
+        if (stitch) {
+            head.addAll(tail);
+            tailSize = tail.size();
+            tail.reset();
+        }
+        int split = frame.split;
+        if (!carry || tailSize > 0 && split < size && head.time(tailSize - 1) + timeWindow >= hits.time(split)) {
+            // the body clusters assume a carried tail, or the tail reaches into them
+            split = size;
+        }
+        head.addAll(hits, 0, split);
+        if (tailSize > 0 && tailSize < head.size() && head.time(tailSize - 1) > head.time(tailSize)) {
+            // the frames overlap in time
+            head.sortByTime();
+        }
+        int headLimit = head.size();
+        if (carry && split == size) {
+            long last = headLimit > 0 ? head.time(headLimit - 1) : 0;
+            while (headLimit > 0 && head.time(headLimit - 1) + timeWindow >= last) {
+                headLimit--;
+            }
+        }
+        frame.headClusters.add(awtbc, awtbc.findClusters(head, headLimit));
+        if (split == size) frame.body.reset();
+
+        // Select the clusters, in time order
+        Clusters headClusters = frame.headClusters;
+        for (int k = 0; k < headClusters.count; k++) {
+            if (headClusters.start[k] < tailSize) stitchedEvents++;
+            headClusters.accepted[k] = trigger == null
+                    || trigger.accept(head, headClusters.start[k], headClusters.end[k]);
+        }
+        Clusters body = frame.body;
+        for (int k = 0; k < body.count; k++) {
+            body.accepted[k] = trigger == null || trigger.accept(hits, body.start[k], body.end[k]);
+        }
+
+        if (carry) {
+            if (split < size) {
+                int clustered = 0;
+                if (body.count > 0) {
+                    clustered = body.end[body.count - 1];
+                } else if (headClusters.count > 0) {
+                    clustered = headClusters.end[headClusters.count - 1] - tailSize;
+                }
+                tail.addAll(hits, Math.max(clustered, frame.startLimit), size);
+            } else {
+                int clustered = headClusters.count > 0 ? headClusters.end[headClusters.count - 1] : 0;
+                tail.addAll(head, Math.max(clustered, headLimit), head.size());
+            }
+            tailFrameNumber = frame.banks.get(0).getFrameNumber();
+            tailTimeStamp = frame.banks.get(0).getTimeStamp();
+        }
+        ready.add(frame);
+    }
+
+    /**
+     * Keeps only the hits of the accepted clusters of the frame, refilling its banks, where
+     * the crate of a hit is its ROC ID, or leaving them empty and adding the clusters to the
+     * events container.
+     *
+     * @return the banks of the frame
+     */
+    private static List<RocTimeFrameBank> fill(Frame frame, IdentifiedEvents events) {
+        List<RocTimeFrameBank> timeFrame = frame.banks;
+        for (RocTimeFrameBank bank : timeFrame) {
+            bank.getHitBatch().reset();
+        }
+        if (events != null && (frame.headClusters.hasAccepted() || frame.body.hasAccepted())) {
+            RocTimeFrameBank first = timeFrame.get(0);
+            events.addFrame(first.getFrameNumber(), first.getTimeStamp());
+        }
+        fill(timeFrame, frame.head, frame.headClusters, events);
+        fill(timeFrame, frame.hits, frame.body, events);
+        return timeFrame;
+    }
+
+    private static void fill(List<RocTimeFrameBank> timeFrame, FADCHitBatch hits, Clusters clusters,
+                             IdentifiedEvents events) {
+        for (int k = 0; k < clusters.count; k++) {
+            if (!clusters.accepted[k]) continue;
+            int start = clusters.start[k];
+            int end = clusters.end[k];
+            if (events != null) {
+                events.addEvent(hits, start, end);
+                continue;
+            }
+            for (int i = start; i < end; i++) {
+                findBank(timeFrame, hits.crate(i)).addHit(hits.crate(i), hits.slot(i),
+                        hits.channel(i), hits.charge(i), hits.time(i));
+            }
+        }
+    }
+
+    private static RocTimeFrameBank findBank(List<RocTimeFrameBank> timeFrame, int rocID) {
+        for (RocTimeFrameBank bank : timeFrame) {
+            if (bank.getRocID() == rocID) return bank;
+        }
+        // A ROC of a stitched hit that is missing from this frame
+        RocTimeFrameBank first = timeFrame.get(0);
+        RocTimeFrameBank bank = new RocTimeFrameBank();
+        bank.setRocID(rocID);
+        bank.setFrameNumber(first.getFrameNumber());
+        bank.setTimeStamp(first.getTimeStamp());
+        timeFrame.add(bank);
+        return bank;
+    }
+
+    private static boolean isEmpty(List<RocTimeFrameBank> timeFrame) {
+        for (RocTimeFrameBank bank : timeFrame) {
+            if (!bank.getHitBatch().isEmpty()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return number of frames identified
+     */
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of events with hits of two frames
+     */
+    public synchronized long getStitchedEvents() {
+        return stitchedEvents;
+    }
+
+    /**
+     * @return number of frames that arrived after their turn and were not stitched
+     */
+    public synchronized long getLateFrames() {
+        return lateFrames;
+    }
+
+    /**
+     * @return number of frames given up because the reorder buffer was full
+     */
+    public synchronized long getMissingFrames() {
+        return missingFrames;
+    }
+
+    /**
+     * @return number of times the frame numbers went back and the stitcher started over
+     */
+    public synchronized long getRestarts() {
+        return restarts;
+    }
+
+    /**
+     * @return counts of the software trigger, see {@link SoftwareTrigger#toString()}, or
+     * null without a trigger
+     */
+    public synchronized String getTriggerCounts() {
+        return trigger != null ? trigger.toString() : null;
+    }
+
+    /**
+     * @return number of events evaluated by the software trigger, 0 without a trigger
+     */
+    public synchronized long getTriggerEvaluated() {
+        return trigger != null ? trigger.getEvaluated() : 0;
+    }
+
+    /**
+     * @return number of events accepted by the software trigger, 0 without a trigger
+     */
+    public synchronized long getTriggerAccepted() {
+        return trigger != null ? trigger.getAccepted() : 0;
+    }
+
+    /**
+     * @return number of events accepted by each rule of the software trigger, empty
+     * without a trigger
+     */
+    public synchronized long[] getTriggerAcceptedByRule() {
+        return trigger != null ? trigger.getAcceptedByRule() : new long[0];
+    }
+
+    /**
+     * @return number of frames waiting in the reorder buffer
+     */
+    public synchronized int getPendingFrames() {
+        return pendingCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Frames = " + frames + ",  stitched events = " + stitchedEvents
+                + ",  late frames = " + lateFrames + ",  missing frames = " + missingFrames
+                + ",  restarts = " + restarts + ",  pending frames = " + pendingCount;
+    }
+
+    /**
+     * Time frame on its way through the stitcher, with its hits sorted by time and clustered
+     */
+    private static final class Frame {
+        List<RocTimeFrameBank> banks;
+        // Hits of the frame, sorted by time
+        final FADCHitBatch hits = new FADCHitBatch();
+        // Index of the first hit after a gap longer than the time window, size if none
+        int split;
+        // Index of the first hit that may be carried into the next frame
+        int startLimit;
+        // Clusters of the hits from split on, found outside the lock
+        final Clusters body = new Clusters();
+        // Carried tail of the previous frame and the hits before split, and their clusters
+        final FADCHitBatch head = new FADCHitBatch();
+        final Clusters headClusters = new Clusters();
+    }
+
+    /**
+     * Hit index ranges of clusters, and whether the trigger accepted them
+     */
+    private static final class Clusters {
+        int[] start = new int[16];
+        int[] end = new int[16];
+        boolean[] accepted = new boolean[16];
+        int count;
+
+        void reset() {
+            count = 0;
+        }
+
+        void add(Awtbc awtbc, int clusters) {
+            if (clusters > start.length) {
+                start = Arrays.copyOf(start, clusters);
+                end = Arrays.copyOf(end, clusters);
+                accepted = Arrays.copyOf(accepted, clusters);
+            }
+            for (int k = 0; k < clusters; k++) {
+                start[k] = awtbc.clusterStart(k);
+                end[k] = awtbc.clusterEnd(k);
+                accepted[k] = true;
+            }
+            count = clusters;
+        }
+
+        boolean hasAccepted() {
+            for (int k = 0; k < count; k++) {
+                if (accepted[k]) return true;
+            }
+            return false;
+        }
+    }
+}
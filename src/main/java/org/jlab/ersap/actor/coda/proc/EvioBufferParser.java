@@ -0,0 +1,449 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Decodes ET buffers created by the CODA aggregator by walking the evio
+ * structures directly in the ByteBuffer, using absolute offsets.
+ * <p>
+ * Unlike the EvioReader based path of the {@link EvioEventParser} this does not build
+ * the EvioEvent/EvioBank object tree and does not copy payload banks into byte arrays.
+ * The expected layout of an aggregated time frame event is:
+ * <pre>
+ *   event bank (bank of banks)
+ *     stream info bank (bank of segments)
+ *       TSS segment: frame number, timestamp low, timestamp high
+ *       AIS segment
+ *     ROC time frame bank (tag = ROC ID)
+ *       stream info bank (SIB)
+ *       payload bank (tag = payload ID), FADC hit words
+ *       ...
+ *     ROC time frame bank
+ *     ...
+ * </pre>
+ * Events sent by a single streaming ROC, a ROC time frame bank (tag = ROC ID) at the top
+ * level with its own stream info bank and payload banks, are decoded into a time frame
+ * with that ROC only.
+ * Both evio-6 records and evio-4 blocks are supported. Compressed records or anything
+ * else this walker does not understand makes {@link #parseEtEvent(ByteBuffer)} return
+ * null, so that the caller can fall back to the EvioReader.
+ * <p>
+ * A parser can be used by several threads at once. With {@link #setDecodeThreads(int)}
+ * the time frames packed in one buffer are also decoded in parallel.
+ */
+public class EvioBufferParser {
+    private static final int MAGIC_WORD = 0xc0da0100;
+    // Offset of the magic word in both evio-4 block and evio-6 record headers
+    private static final int MAGIC_OFFSET = 7 * 4;
+    private static final int EVIO4_HEADER_BYTES = 8 * 4;
+    private static final int EVIO6_HEADER_BYTES = 14 * 4;
+    // Minimum number of time frames in a slice decoded by a separate task
+    private static final int MIN_SLICE_FRAMES = 2;
+    // Event tags from here on are CODA tags, smaller ones are ROC IDs
+    private static final int ROC_TAG_LIMIT = 0xff00;
+
+    private boolean debug;
+    private final FADCWordDecoder wordDecoder = FADCWordDecoder.getInstance();
+    // Source of recycled events and banks, null to create new ones
+    private TimeFramePool pool;
+    private HitSelection selection = HitSelection.ALL;
+    private int decodeThreads = 1;
+
+    public EvioBufferParser(boolean debug) {
+        this.debug = debug;
+    }
+
+    /**
+     * @param pool pool to take the decoded events and ROC time frame banks from,
+     *             or null to create new objects for every buffer
+     */
+    public void setPool(TimeFramePool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * @param selection ROCs, payloads and hits to decode. Banks that are not selected
+     *                  are skipped using their length words.
+     */
+    public void setSelection(HitSelection selection) {
+        this.selection = selection;
+    }
+
+    /**
+     * @param decodeThreads maximum number of slices the time frames of a single buffer are
+     *                      split into. Slices are decoded concurrently on the common fork-join
+     *                      pool, and the time frames are added to the event in buffer order.
+     *                      1 (default) decodes on the calling thread. Ignored in debug mode.
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = Math.max(decodeThreads, 1);
+    }
+
+    /**
+     * Parses ET event created and sent by the CODA aggregator.
+     * Buffer position and limit are not changed.
+     *
+     * @param buf ET event data buffer
+     * @return decoded event, or null if the buffer layout is not supported by this decoder
+     * @throws Exception if the time frame structure is inconsistent
+     */
+    public EtEvent parseEtEvent(ByteBuffer buf) throws Exception {
+        int start = buf.position();
+        int end = buf.limit();
+        if (end - start < EVIO4_HEADER_BYTES) return null;
+
+        // Figure out the byte order from the magic word of the first header
+        ByteBuffer b = buf.duplicate();
+        int magic = b.getInt(start + MAGIC_OFFSET);
+        if (magic != MAGIC_WORD) {
+            if (Integer.reverseBytes(magic) != MAGIC_WORD) return null;
+            b.order(b.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        }
+        EvioEventParser.evioDataByteOrder = b.order();
+
+        EtEvent evt = pool != null ? pool.acquireEvent() : new EtEvent();
+        // With parallel decoding the time frame events are indexed first
+        TimeFrameIndex index = decodeThreads > 1 && !debug ? new TimeFrameIndex() : null;
+        int pos = start;
+        while (end - pos >= EVIO4_HEADER_BYTES) {
+            if (b.getInt(pos + MAGIC_OFFSET) != MAGIC_WORD) return unsupported(evt);
+
+            int recordBytes = b.getInt(pos) * 4;
+            int headerBytes = b.getInt(pos + 8) * 4;
+            int eventCount = b.getInt(pos + 12);
+            int version = b.getInt(pos + 20) & 0xff;
+            if (recordBytes < headerBytes || pos + recordBytes > end) return unsupported(evt);
+
+            int evtPos;
+            if (version == 4) {
+                evtPos = pos + headerBytes;
+            } else if (version == 6) {
+                if (headerBytes < EVIO6_HEADER_BYTES) return unsupported(evt);
+                // compression type is in the upper 4 bits
+                if ((b.getInt(pos + 36) >>> 28) != 0) return unsupported(evt);
+                int indexBytes = b.getInt(pos + 16);
+                int userHeaderBytes = (b.getInt(pos + 24) + 3) & ~3;
+                evtPos = pos + headerBytes + indexBytes + userHeaderBytes;
+            } else {
+                return unsupported(evt);
+            }
+            int recordEnd = pos + recordBytes;
+
+            if (debug) System.out.println("DDD== EvioBufferParser > version    = " + version
+                    + " eventCount = " + eventCount
+                    + " recordBytes = " + recordBytes);
+
+            for (int i = 0; i < eventCount; i++) {
+                if (evtPos + 8 > recordEnd) {
+                    throw new Exception("Problem: event " + i + " is outside of the record");
+                }
+                int evtEnd = evtPos + (b.getInt(evtPos) + 1) * 4;
+                if (evtEnd > recordEnd) {
+                    throw new Exception("Problem: event " + i + " overruns the record");
+                }
+                if (index == null) {
+                    parseTimeFrame(evt, b, evtPos, evtEnd);
+                } else if (!isControlEvent(b, evtPos)) {
+                    index.add(evtPos, evtEnd);
+                }
+                evtPos = evtEnd;
+            }
+            pos = recordEnd;
+        }
+        if (index != null) {
+            decodeParallel(evt, b, index);
+        }
+        return evt;
+    }
+
+    /**
+     * Finds the frame number of the first time frame in an ET event, without decoding it.
+     * Control events are skipped. Buffer position and limit are not changed.
+     *
+     * @param buf ET event data buffer
+     * @return frame number from the TSS segment of the first time frame,
+     * or -1 if the buffer has no time frame or its layout is not supported
+     */
+    public static long firstFrameNumber(ByteBuffer buf) {
+        int pos = buf.position();
+        int end = buf.limit();
+        if (end - pos < EVIO4_HEADER_BYTES) return -1;
+        ByteBuffer b = buf;
+        int magic = b.getInt(pos + MAGIC_OFFSET);
+        if (magic != MAGIC_WORD) {
+            if (Integer.reverseBytes(magic) != MAGIC_WORD) return -1;
+            b = buf.duplicate().order(buf.order() == ByteOrder.BIG_ENDIAN
+                    ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        }
+        while (end - pos >= EVIO4_HEADER_BYTES && b.getInt(pos + MAGIC_OFFSET) == MAGIC_WORD) {
+            int recordBytes = b.getInt(pos) * 4;
+            int headerBytes = b.getInt(pos + 8) * 4;
+            int eventCount = b.getInt(pos + 12);
+            int version = b.getInt(pos + 20) & 0xff;
+            int recordEnd = pos + recordBytes;
+            if (recordBytes < headerBytes || recordEnd > end) return -1;
+            int evtPos = pos + headerBytes;
+            if (version == 6) {
+                if ((b.getInt(pos + 36) >>> 28) != 0) return -1;
+                evtPos += b.getInt(pos + 16) + ((b.getInt(pos + 24) + 3) & ~3);
+            } else if (version != 4) {
+                return -1;
+            }
+            for (int i = 0; i < eventCount && evtPos + 32 <= recordEnd; i++) {
+                if (!isControlEvent(b, evtPos)) {
+                    // event bank header, stream info bank header, TSS header, frame number
+                    return b.getInt(evtPos + 20) & 0xffffffffL;
+                }
+                evtPos += (b.getInt(evtPos) + 1) * 4;
+            }
+            pos = recordEnd;
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the indexed time frames in slices, one fork-join task per slice.
+     * The calling thread decodes the first slice.
+     */
+    private void decodeParallel(EtEvent evt, ByteBuffer b, TimeFrameIndex index) throws Exception {
+        int n = index.size;
+        // Add the time frames up front, tasks fill them in place
+        List<List<RocTimeFrameBank>> frames = evt.getTimeFrames();
+        int first = frames.size();
+        for (int i = 0; i < n; i++) {
+            evt.newTimeFrame();
+        }
+        int slices = Math.max(1, Math.min(decodeThreads, n / MIN_SLICE_FRAMES));
+        List<ForkJoinTask<Void>> tasks = new ArrayList<>(slices - 1);
+        for (int s = 1; s < slices; s++) {
+            int from = (int) ((long) n * s / slices);
+            int to = (int) ((long) n * (s + 1) / slices);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                decodeSlice(frames, first, b, index, from, to);
+                return null;
+            }));
+        }
+        decodeSlice(frames, first, b, index, 0, n / slices);
+        for (ForkJoinTask<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
+    private void decodeSlice(List<List<RocTimeFrameBank>> frames, int first, ByteBuffer b,
+                             TimeFrameIndex index, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            decodeTimeFrame(frames.get(first + i), b, index.starts[i], index.ends[i]);
+        }
+    }
+
+    private static boolean isControlEvent(ByteBuffer b, int pos) {
+        int evTag = b.getInt(pos + 4) >>> 16;
+        return evTag == 0xffd1 || evTag == 0xffd2 || evTag == 0xffd4;
+    }
+
+    /**
+     * Offsets of the time frame events in a buffer.
+     */
+    private static final class TimeFrameIndex {
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int size;
+
+        void add(int start, int end) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * size);
+                ends = Arrays.copyOf(ends, 2 * size);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+    }
+
+    private static EtEvent unsupported(EtEvent evt) {
+        evt.release();
+        return null;
+    }
+
+    /**
+     * Decodes a single aggregated time frame event and adds
+     * its ROC time frame banks to the ET event. Control events are skipped.
+     *
+     * @param evt    ET event the time frame is added to
+     * @param b      buffer with the proper byte order set
+     * @param pos    offset of the event bank header
+     * @param evtEnd offset right after the last word of the event
+     */
+    private void parseTimeFrame(EtEvent evt, ByteBuffer b, int pos, int evtEnd) throws Exception {
+        int evTag = b.getInt(pos + 4) >>> 16;
+
+        if (evTag == 0xffd1) {
+            if (debug) System.out.println("EvioBufferParser: Skipping PRESTART event (tag=0xffd1)");
+            return;
+        } else if (evTag == 0xffd2) {
+            if (debug) System.out.println("EvioBufferParser: Skipping GO event (tag=0xffd2)");
+            return;
+        } else if (evTag == 0xffd4) {
+            if (debug) System.out.println("EvioBufferParser: Encountered END event (tag=0xffd4), skipping");
+            return;
+        }
+        decodeTimeFrame(evt.newTimeFrame(), b, pos, evtEnd);
+    }
+
+    /**
+     * Decodes the ROC time frame banks of an aggregated time frame event.
+     *
+     * @param banks  list the ROC time frame banks are added to
+     * @param b      buffer with the proper byte order set
+     * @param pos    offset of the event bank header
+     * @param evtEnd offset right after the last word of the event
+     */
+    private void decodeTimeFrame(List<RocTimeFrameBank> banks, ByteBuffer b, int pos, int evtEnd)
+            throws Exception {
+        int evTag = b.getInt(pos + 4) >>> 16;
+        if (evTag < ROC_TAG_LIMIT) {
+            decodeRocTimeFrame(banks, b, pos, evtEnd);
+            return;
+        }
+
+        // First child is the stream info bank, with the Time Slice Segment (TSS) as its first child
+        int sib = pos + 8;
+        int sibEnd = bankEnd(b, sib, evtEnd);
+        int sibType = (b.getInt(sib + 4) >>> 8) & 0x3f;
+        if (sibType != 0x20 && sibType != 0xd) {
+            throw new Exception("Problem: stream info bank is not a bank of segments (type 0x"
+                    + Integer.toHexString(sibType) + ")");
+        }
+        int tss = sib + 8;
+        if (tss + 16 > sibEnd || (b.getInt(tss) & 0xffff) < 3) {
+            throw new Exception("Problem: too short time slice segment");
+        }
+        // get the frame number
+        int frameNumber = b.getInt(tss + 4);
+        // get the time stamp
+        long timestamp = ((((long) b.getInt(tss + 8)) & 0x00000000ffffffffL) +
+                (((long) b.getInt(tss + 12)) << 32));
+
+        if (debug) System.out.println("DDD =====> frameNumber = " + frameNumber + " timeStamp = " + timestamp);
+
+        // ROCs loop
+        if (sibEnd >= evtEnd) {
+            throw new Exception("Problem: too few child for event (1)");
+        }
+        for (int roc = sibEnd; roc < evtEnd; ) {
+            int rocEnd = bankEnd(b, roc, evtEnd);
+            int rocID = b.getInt(roc + 4) >>> 16;
+            if (debug) System.out.println("DDD =====> rocID = " + rocID);
+            if (!selection.acceptsRoc(rocID)) {
+                roc = rocEnd;
+                continue;
+            }
+
+            RocTimeFrameBank rocTimeFrameBank = newBank(frameNumber, timestamp, rocID);
+
+            // Skip over the SIB of the ROC, payload banks follow
+            int payload = bankEnd(b, roc + 8, rocEnd);
+            if (payload >= rocEnd) {
+                throw new Exception("Problem: too few child for TFB of ROC " + rocID);
+            }
+            while (payload < rocEnd) {
+                int payloadEnd = bankEnd(b, payload, rocEnd);
+                int payloadId = b.getInt(payload + 4) >>> 16;
+                int words = b.getInt(payload) - 1;
+                if (debug) System.out.println("DDD =====> payloadID = " + payloadId + " words = " + words);
+                if (!selection.acceptsPayload(payloadId)) {
+                    payload = payloadEnd;
+                    continue;
+                }
+
+                FADCHitBatch hits = rocTimeFrameBank.getHitBatch();
+                int first = hits.size();
+                wordDecoder.decodePayload(timestamp, rocID, payloadId, b, payload + 8, words,
+                        FADCWordDecoder.TIME_MASK, selection, hits);
+                if (debug && hits.size() > first) {
+                    System.out.println("DDD======> Frame = " + frameNumber +
+                            ", TS = " + timestamp +
+                            ", payload ID = " + payloadId);
+                    for (int h = first; h < hits.size(); h++) {
+                        System.out.println(hits.get(h));
+                    }
+                }
+                payload = payloadEnd;
+            }
+            banks.add(rocTimeFrameBank);
+            roc = rocEnd;
+        }
+    }
+
+    /**
+     * Decodes a ROC time frame bank sent by a single streaming ROC, with the frame number
+     * and timestamp of its own stream info bank.
+     *
+     * @param banks  list the ROC time frame bank is added to
+     * @param b      buffer with the proper byte order set
+     * @param roc    offset of the ROC time frame bank header
+     * @param rocEnd offset right after the last word of the bank
+     */
+    private void decodeRocTimeFrame(List<RocTimeFrameBank> banks, ByteBuffer b, int roc, int rocEnd)
+            throws Exception {
+        int rocID = b.getInt(roc + 4) >>> 16;
+        if (!selection.acceptsRoc(rocID)) return;
+        int sib = roc + 8;
+        int sibEnd = bankEnd(b, sib, rocEnd);
+        int tss = sib + 8;
+        if (tss + 16 > sibEnd || (b.getInt(tss) & 0xffff) < 3) {
+            throw new Exception("Problem: too short time slice segment of ROC " + rocID);
+        }
+        int frameNumber = b.getInt(tss + 4);
+        long timestamp = ((((long) b.getInt(tss + 8)) & 0x00000000ffffffffL) +
+                (((long) b.getInt(tss + 12)) << 32));
+        if (debug) System.out.println("DDD =====> rocID = " + rocID + " frameNumber = " + frameNumber
+                + " timeStamp = " + timestamp);
+
+        RocTimeFrameBank rocTimeFrameBank = newBank(frameNumber, timestamp, rocID);
+        FADCHitBatch hits = rocTimeFrameBank.getHitBatch();
+        for (int payload = sibEnd; payload < rocEnd; ) {
+            int payloadEnd = bankEnd(b, payload, rocEnd);
+            int payloadId = b.getInt(payload + 4) >>> 16;
+            if (selection.acceptsPayload(payloadId)) {
+                wordDecoder.decodePayload(timestamp, rocID, payloadId, b, payload + 8,
+                        b.getInt(payload) - 1, FADCWordDecoder.TIME_MASK, selection, hits);
+            }
+            payload = payloadEnd;
+        }
+        banks.add(rocTimeFrameBank);
+    }
+
+    private RocTimeFrameBank newBank(int frameNumber, long timestamp, int rocID) {
+        RocTimeFrameBank bank = pool != null ? pool.acquireBank() : new RocTimeFrameBank();
+        bank.setFrameNumber(frameNumber);
+        bank.setTimeStamp(timestamp);
+        bank.setRocID(rocID);
+        return bank;
+    }
+
+    /**
+     * Returns the offset right after a bank, checking it fits into the parent.
+     */
+    private static int bankEnd(ByteBuffer b, int pos, int parentEnd) throws Exception {
+        if (pos + 8 > parentEnd) {
+            throw new Exception("Problem: bank header at " + pos + " is outside of its parent");
+        }
+        int end = pos + (b.getInt(pos) + 1) * 4;
+        if (end > parentEnd || end < pos + 8) {
+            throw new Exception("Problem: bank at " + pos + " overruns its parent");
+        }
+        return end;
+    }
+}
@@ -8,7 +8,6 @@ import org.jlab.coda.jevio.EvioSegment;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,8 +17,71 @@ public class EvioEventParser {
 
     public static ByteOrder evioDataByteOrder = ByteOrder.BIG_ENDIAN;
 
+    // Zero-copy decoder walking the ET buffer directly
+    private final EvioBufferParser bufferParser;
+    private boolean directDecoding = false;
+    // Source of recycled events and banks, null to create new ones
+    private TimeFramePool pool;
+    private HitSelection selection = HitSelection.ALL;
+    private final FADCWordDecoder wordDecoder = FADCWordDecoder.getInstance();
+
     public EvioEventParser(boolean debug) {
         this.debug = debug;
+        bufferParser = new EvioBufferParser(debug);
+    }
+
+    /**
+     * Selects the decoder used by {@link #parseEtEvent(ByteBuffer)}.
+     *
+     * @param directDecoding if true ET buffers are decoded by the {@link EvioBufferParser},
+     *                       walking the buffer without building the EvioReader object tree.
+     *                       Buffers that decoder does not support are still parsed using the EvioReader.
+     */
+    public void setDirectDecoding(boolean directDecoding) {
+        this.directDecoding = directDecoding;
+    }
+
+    public boolean isDirectDecoding() {
+        return directDecoding;
+    }
+
+    /**
+     * Makes the parser take decoded events and ROC time frame banks from a pool.
+     * Consumers of the events must then {@link EtEvent#release() release} them once done.
+     *
+     * @param pool event pool, or null to create new objects for every event
+     */
+    public void setPool(TimeFramePool pool) {
+        this.pool = pool;
+        bufferParser.setPool(pool);
+    }
+
+    public TimeFramePool getPool() {
+        return pool;
+    }
+
+    /**
+     * Restricts decoding to the selected ROCs, payloads and hits. Not selected banks
+     * are skipped without reading their data, and not selected hits are dropped
+     * before they are added to the ROC time frame bank.
+     *
+     * @param selection decoding selection, {@link HitSelection#ALL} to decode everything
+     */
+    public void setSelection(HitSelection selection) {
+        this.selection = selection;
+        bufferParser.setSelection(selection);
+    }
+
+    public HitSelection getSelection() {
+        return selection;
+    }
+
+    /**
+     * Decodes the time frames packed in one ET buffer concurrently.
+     * Only used by the direct decoder, see {@link EvioBufferParser#setDecodeThreads(int)}.
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        bufferParser.setDecodeThreads(decodeThreads);
     }
 
     @NotNull
@@ -28,23 +90,27 @@ public class EvioEventParser {
      * This is going to be an evio-6 format
      */
     public EtEvent parseEtEvent(ByteBuffer buf) throws Exception {
-        System.out.println("DDD ============================== X ");
-        int count = 0;
-        for (int i=0;i<20;i++) {
-//            while (buf.remaining() >= 4) {
-                int word = buf.getInt();
-                System.out.printf("0x%08X ", word);  // <-- space after each word
-                count++;
-
-                if (count % 4 == 0) {
+        if (debug) {
+            System.out.println("DDD ============================== X ");
+            int words = Math.min(20, buf.remaining() / 4);
+            for (int i = 0; i < words; i++) {
+                System.out.printf("0x%08X ", buf.getInt(buf.position() + 4 * i));
+                if ((i + 1) % 4 == 0) {
                     System.out.println();           // new row after 4 words
                 }
-//            }
+            }
+        }
+
+        if (directDecoding) {
+            EtEvent evt = bufferParser.parseEtEvent(buf);
+            if (evt != null) {
+                return evt;
+            }
+            if (debug) System.out.println("EvioEventParser: buffer is not supported by the direct decoder, using EvioReader");
         }
-        buf.rewind();
 
         EvioReader r = new EvioReader(buf);
-        EtEvent evt = new EtEvent();
+        EtEvent evt = newEvent();
         if (debug) System.out.println("DDD== EvioReader > version    = " + r.getEvioVersion()
                 + " eventCount = " + r.getEventCount()
                 + " blockCount = " + r.getBlockCount());
@@ -53,10 +119,7 @@ public class EvioEventParser {
             EvioEvent event = r.parseNextEvent();
             if(debug) System.out.println(event);
             evioDataByteOrder = r.getByteOrder();
-            List<RocTimeFrameBank> rocBanks = parseTimeFrame(event);
-            if (rocBanks != null) {
-                evt.addTimeFrame(rocBanks);
-            }
+            parseTimeFrame(evt, event);
         }
         return evt;
     }
@@ -64,18 +127,18 @@ public class EvioEventParser {
     @NotNull
     public EtEvent parseFileEvent(EvioEvent event) throws Exception {
 
-        EtEvent evt = new EtEvent();
+        EtEvent evt = newEvent();
         evioDataByteOrder = event.getByteOrder();
 
-        List<RocTimeFrameBank> rocBanks = parseTimeFrame(event);
-        if (rocBanks != null) {
-            evt.addTimeFrame(rocBanks);
-        }
+        parseTimeFrame(evt, event);
         return evt;
     }
 
-    private List<RocTimeFrameBank> parseTimeFrame(EvioEvent ev) throws Exception {
-        List<RocTimeFrameBank> banks = new ArrayList<>();
+    private EtEvent newEvent() {
+        return pool != null ? pool.acquireEvent() : new EtEvent();
+    }
+
+    private void parseTimeFrame(EtEvent evt, EvioEvent ev) throws Exception {
         // Read Aggregated time frame (evio v6.0) bank header and extract event tag
         int evTag = ev.getHeader().getTag();
 
@@ -84,13 +147,13 @@ public class EvioEventParser {
 
         if (evTag == 0xffd1) {
             if (debug) System.out.println("EvioEventParser: Skipping PRESTART event (tag=0xffd1)");
-            return null;
+            return;
         } else if (evTag == 0xffd2) {
             if (debug) System.out.println("EvioEventParser: Skipping GO event (tag=0xffd2)");
-            return null;
+            return;
         } else if (evTag == 0xffd4) {
-            if (debug) System.out.println("EvioEventParser: Encountered END event (tag=0xffd4), returning null");
-            return null;
+            if (debug) System.out.println("EvioEventParser: Encountered END event (tag=0xffd4), skipping");
+            return;
         }
 
         // Get number of children. Child is a bank or a segment
@@ -110,18 +173,20 @@ public class EvioEventParser {
                 (((long) intData[2]) << 32));
 
         if(debug) System.out.println("DDD =====> frameNumber = "+frameNumber+" timeStamp = "+timestamp);
+        List<RocTimeFrameBank> banks = evt.newTimeFrame();
         // Loop through all Aggregation info segments (AIS) which come after TSS.
         // This is ROCs loop
         for (int j = 1; j < childCount; j++) {
-            // Create a rcoTimeFrame instance and assign frame number and timestamp
-            RocTimeFrameBank rocTimeFrameBank = new RocTimeFrameBank();
-            rocTimeFrameBank.setFrameNumber(frameNumber);
-            rocTimeFrameBank.setTimeStamp(timestamp);
-
             EvioBank rocTFB = (EvioBank) ev.getChildAt(j);
             // This must be the ROC ID
             int rocID = rocTFB.getHeader().getTag();
             if(debug) System.out.println("DDD =====> rocID = "+rocID);
+            if (!selection.acceptsRoc(rocID)) continue;
+
+            // Create a rcoTimeFrame instance and assign frame number and timestamp
+            RocTimeFrameBank rocTimeFrameBank = pool != null ? pool.acquireBank() : new RocTimeFrameBank();
+            rocTimeFrameBank.setFrameNumber(frameNumber);
+            rocTimeFrameBank.setTimeStamp(timestamp);
             rocTimeFrameBank.setRocID(rocID);
 
             // Here we get all ROC or streams data (e.g., ROC1, ROC2, etc., aggregated)
@@ -129,7 +194,7 @@ public class EvioEventParser {
             if (kids < 2) {
                 throw new Exception("Problem: too few child for TFB (" + childCount + ")");
             }
-            List<FADCHit> hits;
+            FADCHitBatch hits = rocTimeFrameBank.getHitBatch();
 
             // From here the data is in evio v4.0 format
             // Another level down, each TFB (now evio v4.0) has a Stream Info Bank (SIB) which comes first,
@@ -144,49 +209,47 @@ public class EvioEventParser {
                 // Note that this number is NOT the VXI slot number
                 int payloadId = payloadBank.getHeader().getTag();
                 if(debug) System.out.println("DDD =====> payloadID = "+payloadId);
+                if (!selection.acceptsPayload(payloadId)) continue;
 
                 // @todo check to see why payloadLength always returns 1
                 // int payloadLength = payloadBank.getHeader().getLength();
 
                 // Ignore the data type (currently the improper value of 0xf).
-                // Just get the data as bytes
+                // Just get the data as bytes, in the byte order of the buffer they were read from
                 byte[] byteData = payloadBank.getRawBytes();
                 if(debug) System.out.println("DDD ======> Payload RawBytes length = "+byteData.length);
-                    hits = parseFADCPayload(timestamp, rocID, payloadId, byteData);
-                    if(!hits.isEmpty()) {
-                        if (debug) {
-                            System.out.println("DDD======> Frame = " + frameNumber +
-                                    ", TS = " + timestamp +
-                                    ", payload ID = " + payloadId + " " + hits.isEmpty());
-                            for (FADCHit hit : hits) {
-                                System.out.println(hit);
-                            }
-                        }
-                        rocTimeFrameBank.addHits(hits);
+                int first = hits.size();
+                wordDecoder.decodePayload(timestamp, rocID, payloadId,
+                        ByteBuffer.wrap(byteData).order(payloadBank.getByteOrder()), 0, byteData.length / 4,
+                        FADCWordDecoder.TIME_MASK, selection, hits);
+                if (debug && hits.size() > first) {
+                    System.out.println("DDD======> Frame = " + frameNumber +
+                            ", TS = " + timestamp +
+                            ", payload ID = " + payloadId);
+                    for (int h = first; h < hits.size(); h++) {
+                        System.out.println(hits.get(h));
                     }
+                }
             }
             banks.add(rocTimeFrameBank);
         }
-        return banks;
     }
 
         @NotNull
         public List<FADCHit> parseFADCPayload (Long frame_time_ns, int rocId, int payloadId, byte[] ba){
-            List<FADCHit> hits = new ArrayList<>();
-            IntBuffer intBuf =
-                    ByteBuffer.wrap(ba)
-                            .order(ByteOrder.BIG_ENDIAN)
-                            .asIntBuffer();
-            int[] pData = new int[intBuf.remaining()];
-            intBuf.get(pData);
-            for (int i : pData) {
-                int q = (i) & 0x1FFF;
-                int channel = (i >>> 13) & 0x000F;
-                long v = ((i >>> 17) & 0x3FFF) * 4;
-                long ht = frame_time_ns + v;
-                hits.add(new FADCHit(rocId, payloadId, channel, q, ht));
-            }
-            return hits;
+            FADCHitBatch hits = new FADCHitBatch(ba.length / 4);
+            parseFADCPayload(frame_time_ns, rocId, payloadId, ba, hits);
+            return new ArrayList<>(hits.asList());
+        }
+
+        /**
+         * Decodes FADC hit words of a payload bank, adding hits to the batch
+         * without creating hit objects.
+         */
+        public void parseFADCPayload (long frame_time_ns, int rocId, int payloadId, byte[] ba, FADCHitBatch hits){
+            FADCWordDecoder.getInstance().decodePayload(frame_time_ns, rocId, payloadId,
+                    ByteBuffer.wrap(ba).order(ByteOrder.BIG_ENDIAN), 0, ba.length / 4,
+                    FADCWordDecoder.TIME_MASK, hits);
         }
 
     }
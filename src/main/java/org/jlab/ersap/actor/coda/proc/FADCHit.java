@@ -36,6 +36,13 @@ public class FADCHit implements IStreamItem, Serializable {
 
     @Override
     public int getId() {
+        return id(crate, slot, channel);
+    }
+
+    /**
+     * @return ID of the channel, as returned by {@link #getId()}
+     */
+    public static int id(int crate, int slot, int channel) {
         return (crate * 1000) + (slot * 16) + channel;
     }
 
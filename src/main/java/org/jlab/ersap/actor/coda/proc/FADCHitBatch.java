@@ -0,0 +1,303 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Columnar (structure-of-arrays) container of FADC hits.
+ * <p>
+ * Hits are kept in growable primitive arrays (crate, slot, channel, charge and time),
+ * so decoders can fill it and consumers can read it without creating an object per hit.
+ * Arrays are only reallocated when the capacity is exceeded, and {@link #reset()}
+ * keeps them for reuse. The column arrays returned by the getters are valid
+ * up to {@link #size()}.
+ * <p>
+ * {@link #asList()} provides a {@code List<FADCHit>} view for code that still works with
+ * hit objects. Every {@code get} of the view creates a new FADCHit.
+ */
+public class FADCHitBatch implements Serializable {
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private int[] crate;
+    private int[] slot;
+    private int[] channel;
+    private int[] charge;
+    private long[] time;
+    private int size;
+
+    private transient List<FADCHit> view;
+
+    public FADCHitBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FADCHitBatch(int capacity) {
+        capacity = Math.max(capacity, 1);
+        crate = new int[capacity];
+        slot = new int[capacity];
+        channel = new int[capacity];
+        charge = new int[capacity];
+        time = new long[capacity];
+    }
+
+    public void add(int crate, int slot, int channel, int charge, long time) {
+        if (size == this.time.length) {
+            grow(size + 1);
+        }
+        this.crate[size] = crate;
+        this.slot[size] = slot;
+        this.channel[size] = channel;
+        this.charge[size] = charge;
+        this.time[size] = time;
+        size++;
+    }
+
+    public void add(FADCHit hit) {
+        add(hit.crate(), hit.slot(), hit.channel(), hit.charge(), hit.time());
+    }
+
+    public void addAll(FADCHitBatch other) {
+        addAll(other, 0, other.size);
+    }
+
+    /**
+     * Appends the hits {@code from} (inclusive) to {@code to} (exclusive) of another batch.
+     */
+    public void addAll(FADCHitBatch other, int from, int to) {
+        int n = to - from;
+        ensureCapacity(size + n);
+        System.arraycopy(other.crate, from, crate, size, n);
+        System.arraycopy(other.slot, from, slot, size, n);
+        System.arraycopy(other.channel, from, channel, size, n);
+        System.arraycopy(other.charge, from, charge, size, n);
+        System.arraycopy(other.time, from, time, size, n);
+        size += n;
+    }
+
+    public void addAll(List<FADCHit> hits) {
+        ensureCapacity(size + hits.size());
+        for (FADCHit hit : hits) {
+            add(hit);
+        }
+    }
+
+    /**
+     * Makes sure that at least {@code capacity} hits fit without reallocation.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > time.length) {
+            grow(capacity);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, time.length + (time.length >> 1));
+        crate = Arrays.copyOf(crate, capacity);
+        slot = Arrays.copyOf(slot, capacity);
+        channel = Arrays.copyOf(channel, capacity);
+        charge = Arrays.copyOf(charge, capacity);
+        time = Arrays.copyOf(time, capacity);
+    }
+
+    /**
+     * Removes all hits, keeping the allocated arrays for reuse.
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int crate(int i) {
+        return crate[i];
+    }
+
+    public int slot(int i) {
+        return slot[i];
+    }
+
+    public int channel(int i) {
+        return channel[i];
+    }
+
+    public int charge(int i) {
+        return charge[i];
+    }
+
+    public long time(int i) {
+        return time[i];
+    }
+
+    /**
+     * Sorts the hits by time, in place. Does nothing if they already are, e.g. hits of a
+     * single channel.
+     */
+    public void sortByTime() {
+        sortByTime(0, size);
+    }
+
+    /**
+     * Sorts the hits {@code from} (inclusive) to {@code to} (exclusive) by time, in place.
+     */
+    public void sortByTime(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            if (time[i] < time[i - 1]) {
+                sort(from, to - 1);
+                return;
+            }
+        }
+    }
+
+    // Quicksort of all columns by time, with insertion sort for short ranges
+    private void sort(int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            if (time[mid] < time[lo]) swap(mid, lo);
+            if (time[hi] < time[lo]) swap(hi, lo);
+            if (time[hi] < time[mid]) swap(hi, mid);
+            long pivot = time[mid];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (time[i] < pivot) i++;
+                while (time[j] > pivot) j--;
+                if (i <= j) swap(i++, j--);
+            }
+            // recurse into the smaller part, loop on the larger one
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && time[j] < time[j - 1]; j--) {
+                swap(j, j - 1);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int c = crate[i];
+        crate[i] = crate[j];
+        crate[j] = c;
+        c = slot[i];
+        slot[i] = slot[j];
+        slot[j] = c;
+        c = channel[i];
+        channel[i] = channel[j];
+        channel[j] = c;
+        c = charge[i];
+        charge[i] = charge[j];
+        charge[j] = c;
+        long t = time[i];
+        time[i] = time[j];
+        time[j] = t;
+    }
+
+    public FADCHit get(int i) {
+        if (i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return new FADCHit(crate[i], slot[i], channel[i], charge[i], time[i]);
+    }
+
+    public int[] crates() {
+        return crate;
+    }
+
+    public int[] slots() {
+        return slot;
+    }
+
+    public int[] channels() {
+        return channel;
+    }
+
+    public int[] charges() {
+        return charge;
+    }
+
+    public long[] times() {
+        return time;
+    }
+
+    /**
+     * @return a {@code List<FADCHit>} view of this batch. Adding to the view adds to the batch.
+     */
+    public List<FADCHit> asList() {
+        if (view == null) {
+            view = new HitListView();
+        }
+        return view;
+    }
+
+    // Only the used part of the columns is serialized
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(crate[i]);
+            out.writeInt(slot[i]);
+            out.writeInt(channel[i]);
+            out.writeInt(charge[i]);
+            out.writeLong(time[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        int n = in.readInt();
+        crate = new int[Math.max(n, 1)];
+        slot = new int[crate.length];
+        channel = new int[crate.length];
+        charge = new int[crate.length];
+        time = new long[crate.length];
+        for (int i = 0; i < n; i++) {
+            crate[i] = in.readInt();
+            slot[i] = in.readInt();
+            channel[i] = in.readInt();
+            charge[i] = in.readInt();
+            time[i] = in.readLong();
+        }
+        size = n;
+    }
+
+    private class HitListView extends AbstractList<FADCHit> implements RandomAccess {
+
+        @Override
+        public FADCHit get(int index) {
+            return FADCHitBatch.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void add(int index, FADCHit hit) {
+            if (index != size) {
+                throw new UnsupportedOperationException("Hits can only be appended");
+            }
+            FADCHitBatch.this.add(hit);
+        }
+
+        @Override
+        public void clear() {
+            reset();
+        }
+    }
+}
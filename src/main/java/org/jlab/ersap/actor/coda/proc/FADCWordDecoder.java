@@ -0,0 +1,222 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes FADC hit words into primitive arrays.
+ * <p>
+ * Hit word layout: charge in bits 12:0, channel in bits 16:13 and the time offset,
+ * in 4ns units, starting at bit 17. The aggregated (evio-6) stream uses a 14 bit time
+ * offset, while evio-4 replay files use 13 bits with the word type in bits 31:30.
+ * <p>
+ * This class is the scalar implementation. {@link #getInstance()} returns the
+ * {@link FADCWordVectorDecoder} when it is built ({@code -PvectorApi}) and the
+ * jdk.incubator.vector module is available (the JVM is started with
+ * {@code --add-modules jdk.incubator.vector}), and falls back to the scalar decoder
+ * otherwise. Both give identical results, see {@link FADCWordDecoderBenchmark}.
+ * Decoders are stateless and can be shared between threads.
+ */
+public class FADCWordDecoder {
+    public static final int TIME_MASK = 0x3FFF;
+    public static final int EVIO4_TIME_MASK = 0x1FFF;
+
+    private static final FADCWordDecoder INSTANCE = createInstance();
+
+    // Per-thread decoded columns of the payload decoding
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    protected FADCWordDecoder() {
+    }
+
+    public static FADCWordDecoder getInstance() {
+        return INSTANCE;
+    }
+
+    private static FADCWordDecoder createInstance() {
+        try {
+            return (FADCWordDecoder) Class.forName("org.jlab.ersap.actor.coda.proc.FADCWordVectorDecoder")
+                    .getDeclaredConstructor().newInstance();
+        } catch (Exception | LinkageError e) {
+            return new FADCWordDecoder();
+        }
+    }
+
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Decodes hit words.
+     *
+     * @param words      hit words
+     * @param n          number of words to decode
+     * @param timeMask   mask of the time offset, applied after shifting it down by 17 bits
+     * @param charge     decoded charges
+     * @param channel    decoded channels
+     * @param timeOffset decoded time offsets relative to the frame, in ns
+     */
+    public void decode(int[] words, int n, int timeMask, int[] charge, int[] channel, int[] timeOffset) {
+        decode(words, 0, n, timeMask, charge, channel, timeOffset);
+    }
+
+    /**
+     * Decodes evio-4 hit words and flags the valid ones. A word is valid if it is a hit
+     * word (type 0), the charge is neither 0 nor a pure power of 2, and the time offset
+     * is not 0. The 13 bit time offset is always within the 100ms drift limit.
+     *
+     * @param valid flags of the valid words
+     * @return number of valid words
+     */
+    public int decodeValid(int[] words, int n, int[] charge, int[] channel, int[] timeOffset, boolean[] valid) {
+        return decodeValid(words, 0, n, charge, channel, timeOffset, valid);
+    }
+
+    protected void decode(int[] words, int from, int to, int timeMask,
+                          int[] charge, int[] channel, int[] timeOffset) {
+        for (int i = from; i < to; i++) {
+            int w = words[i];
+            charge[i] = w & 0x1FFF;
+            channel[i] = (w >>> 13) & 0xF;
+            timeOffset[i] = ((w >>> 17) & timeMask) << 2;
+        }
+    }
+
+    protected int decodeValid(int[] words, int from, int to,
+                              int[] charge, int[] channel, int[] timeOffset, boolean[] valid) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int w = words[i];
+            int q = w & 0x1FFF;
+            int t = ((w >>> 17) & EVIO4_TIME_MASK) << 2;
+            charge[i] = q;
+            channel[i] = (w >>> 13) & 0xF;
+            timeOffset[i] = t;
+            boolean ok = (w >>> 30) == 0 && q != 0 && (q & (q - 1)) != 0 && t != 0;
+            valid[i] = ok;
+            if (ok) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Decodes hit words read from a buffer. Word i is read at byte offset + 4 * i and
+     * decoded into element i of the arrays.
+     *
+     * @param b      buffer with the proper byte order set
+     * @param offset offset of word 0
+     */
+    protected void decode(ByteBuffer b, int offset, int from, int to, int timeMask,
+                          int[] charge, int[] channel, int[] timeOffset) {
+        for (int i = from; i < to; i++) {
+            int w = b.getInt(offset + 4 * i);
+            charge[i] = w & 0x1FFF;
+            channel[i] = (w >>> 13) & 0xF;
+            timeOffset[i] = ((w >>> 17) & timeMask) << 2;
+        }
+    }
+
+    /**
+     * Decodes evio-4 hit words read from a buffer and flags the valid ones.
+     *
+     * @return number of valid words
+     * @see #decode(ByteBuffer, int, int, int, int, int[], int[], int[])
+     */
+    protected int decodeValid(ByteBuffer b, int offset, int from, int to,
+                              int[] charge, int[] channel, int[] timeOffset, boolean[] valid) {
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int w = b.getInt(offset + 4 * i);
+            int q = w & 0x1FFF;
+            int t = ((w >>> 17) & EVIO4_TIME_MASK) << 2;
+            charge[i] = q;
+            channel[i] = (w >>> 13) & 0xF;
+            timeOffset[i] = t;
+            boolean ok = (w >>> 30) == 0 && q != 0 && (q & (q - 1)) != 0 && t != 0;
+            valid[i] = ok;
+            if (ok) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Decodes hit words of a payload bank, adding all of them to the batch.
+     *
+     * @param frameTime time frame timestamp in ns
+     * @param rocId     ROC ID, stored as the hit crate
+     * @param payloadId payload ID, stored as the hit slot
+     * @param b         buffer with the proper byte order set
+     * @param offset    offset of the first hit word
+     * @param n         number of hit words
+     * @param timeMask  mask of the time offset
+     * @param hits      batch the decoded hits are added to
+     */
+    public void decodePayload(long frameTime, int rocId, int payloadId,
+                              ByteBuffer b, int offset, int n, int timeMask, FADCHitBatch hits) {
+        Scratch s = SCRATCH.get().ensureCapacity(n);
+        decode(b, offset, 0, n, timeMask, s.charge, s.channel, s.timeOffset);
+        hits.ensureCapacity(hits.size() + n);
+        for (int i = 0; i < n; i++) {
+            hits.add(rocId, payloadId, s.channel[i], s.charge[i], frameTime + s.timeOffset[i]);
+        }
+    }
+
+    /**
+     * Decodes hit words of a payload bank, adding only the hits accepted by the selection.
+     *
+     * @param selection hit channel and charge selection
+     * @return number of added hits
+     * @see #decodePayload(long, int, int, ByteBuffer, int, int, int, FADCHitBatch)
+     */
+    public int decodePayload(long frameTime, int rocId, int payloadId, ByteBuffer b, int offset, int n,
+                             int timeMask, HitSelection selection, FADCHitBatch hits) {
+        if (selection.acceptsAllHits()) {
+            decodePayload(frameTime, rocId, payloadId, b, offset, n, timeMask, hits);
+            return n;
+        }
+        Scratch s = SCRATCH.get().ensureCapacity(n);
+        decode(b, offset, 0, n, timeMask, s.charge, s.channel, s.timeOffset);
+        int first = hits.size();
+        for (int i = 0; i < n; i++) {
+            if (selection.acceptsHit(s.channel[i], s.charge[i])) {
+                hits.add(rocId, payloadId, s.channel[i], s.charge[i], frameTime + s.timeOffset[i]);
+            }
+        }
+        return hits.size() - first;
+    }
+
+    /**
+     * Decodes evio-4 hit words of a payload bank, adding only the valid hits to the batch.
+     *
+     * @return number of added hits
+     * @see #decodeValid(int[], int, int[], int[], int[], boolean[])
+     */
+    public int decodeValidPayload(long frameTime, int rocId, int payloadId,
+                                  ByteBuffer b, int offset, int n, FADCHitBatch hits) {
+        Scratch s = SCRATCH.get().ensureCapacity(n);
+        int count = decodeValid(b, offset, 0, n, s.charge, s.channel, s.timeOffset, s.valid);
+        hits.ensureCapacity(hits.size() + count);
+        for (int i = 0; i < n; i++) {
+            if (s.valid[i]) {
+                hits.add(rocId, payloadId, s.channel[i], s.charge[i], frameTime + s.timeOffset[i]);
+            }
+        }
+        return count;
+    }
+
+    private static final class Scratch {
+        int[] charge = new int[0];
+        int[] channel = new int[0];
+        int[] timeOffset = new int[0];
+        boolean[] valid = new boolean[0];
+
+        Scratch ensureCapacity(int n) {
+            if (charge.length < n) {
+                charge = new int[n];
+                channel = new int[n];
+                timeOffset = new int[n];
+                valid = new boolean[n];
+            }
+            return this;
+        }
+    }
+}
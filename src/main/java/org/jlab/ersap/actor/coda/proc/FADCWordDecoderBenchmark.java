@@ -0,0 +1,119 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that {@link FADCWordDecoder#getInstance()} decodes FADC hit words exactly as the
+ * scalar decoder does, then measures the payload decoding throughput of both. Run with
+ * {@code --add-modules jdk.incubator.vector} to compare the vector decoder; without the
+ * module both are the scalar decoder.
+ */
+public class FADCWordDecoderBenchmark {
+
+    public static void main(String[] args) {
+        int words = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        FADCWordDecoder scalar = new FADCWordDecoder();
+        FADCWordDecoder decoder = FADCWordDecoder.getInstance();
+        System.out.println("Decoder: " + (decoder.isVectorized() ? "vector" : "scalar"));
+
+        String error = checkParity(scalar, decoder, new Random(1));
+        if (error != null) {
+            System.out.println("Parity check failed: " + error);
+            System.exit(1);
+        }
+        System.out.println("Parity check passed");
+
+        ByteBuffer b = randomWords(new Random(2), words, 0, ByteOrder.BIG_ENDIAN);
+        for (FADCWordDecoder d : new FADCWordDecoder[]{scalar, decoder}) {
+            FADCHitBatch hits = new FADCHitBatch(words);
+            long count = 0;
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                for (int k = 0; k < 1000; k++) {
+                    hits.reset();
+                    d.decodePayload(0L, 1, 2, b, 0, words, FADCWordDecoder.TIME_MASK, hits);
+                }
+                count += 1000L * words;
+            }
+            double time = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s: %.1f Mwords/s%n", d.isVectorized() ? "vector" : "scalar", count / time / 1e6);
+        }
+    }
+
+    /**
+     * @return description of the first difference, or null if the decoders agree on all
+     * word counts, byte orders and (unaligned) buffer offsets
+     */
+    static String checkParity(FADCWordDecoder expected, FADCWordDecoder actual, Random random) {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            for (int offset = 0; offset < 4; offset++) {
+                for (int n = 0; n <= 100; n++) {
+                    ByteBuffer b = randomWords(random, n, offset, order);
+                    String where = " (" + order + ", offset " + offset + ", " + n + " words)";
+
+                    FADCHitBatch e = new FADCHitBatch();
+                    FADCHitBatch a = new FADCHitBatch();
+                    expected.decodePayload(1000L, 1, 2, b, offset, n, FADCWordDecoder.TIME_MASK, e);
+                    actual.decodePayload(1000L, 1, 2, b, offset, n, FADCWordDecoder.TIME_MASK, a);
+                    String error = compare(e, a);
+                    if (error != null) return "decodePayload " + error + where;
+
+                    e.reset();
+                    a.reset();
+                    int ce = expected.decodeValidPayload(1000L, 1, 2, b, offset, n, e);
+                    int ca = actual.decodeValidPayload(1000L, 1, 2, b, offset, n, a);
+                    error = ce != ca ? "count " + ce + " != " + ca : compare(e, a);
+                    if (error != null) return "decodeValidPayload " + error + where;
+
+                    int[] w = new int[n];
+                    for (int i = 0; i < n; i++) {
+                        w[i] = b.getInt(offset + 4 * i);
+                    }
+                    int[][] de = {new int[n], new int[n], new int[n]};
+                    int[][] da = {new int[n], new int[n], new int[n]};
+                    expected.decode(w, n, FADCWordDecoder.EVIO4_TIME_MASK, de[0], de[1], de[2]);
+                    actual.decode(w, n, FADCWordDecoder.EVIO4_TIME_MASK, da[0], da[1], da[2]);
+                    for (int c = 0; c < 3; c++) {
+                        if (!Arrays.equals(de[c], da[c])) return "decode column " + c + where;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String compare(FADCHitBatch e, FADCHitBatch a) {
+        if (e.size() != a.size()) {
+            return "size " + e.size() + " != " + a.size();
+        }
+        for (int i = 0; i < e.size(); i++) {
+            if (e.crate(i) != a.crate(i) || e.slot(i) != a.slot(i) || e.channel(i) != a.channel(i)
+                    || e.charge(i) != a.charge(i) || e.time(i) != a.time(i)) {
+                return "hit " + i + ": " + e.get(i) + " != " + a.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer randomWords(Random random, int n, int offset, ByteOrder order) {
+        ByteBuffer b = ByteBuffer.allocate(offset + 4 * n).order(order);
+        for (int i = 0; i < n; i++) {
+            // Mostly hit words, with some zero and power of 2 charges for the validity flags
+            int w = random.nextInt();
+            switch (random.nextInt(8)) {
+                case 0: w &= ~0x1FFF; break;
+                case 1: w = (w & ~0x1FFF) | (1 << random.nextInt(13)); break;
+                case 2: break;
+                default: w &= 0x3FFFFFFF; break;
+            }
+            b.putInt(offset + 4 * i, w);
+        }
+        return b;
+    }
+}
@@ -0,0 +1,109 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FADC hit word decoder using the (incubating) Java Vector API. Decodes 8 or 16 words
+ * at a time, depending on the preferred vector size of the CPU. Words of an event buffer
+ * are first copied into a per-thread array with one bulk get. The remaining words are
+ * decoded by the scalar implementation.
+ * <p>
+ * Requires {@code --add-modules jdk.incubator.vector} at compile and run time (JDK 16 or
+ * later). The build only compiles it with {@code -PvectorApi}.
+ * Use {@link FADCWordDecoder#getInstance()} instead of referring to this class.
+ */
+class FADCWordVectorDecoder extends FADCWordDecoder {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    // Per-thread hit words copied out of the event buffers
+    private static final ThreadLocal<Words> WORDS = ThreadLocal.withInitial(Words::new);
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    protected void decode(int[] words, int from, int to, int timeMask,
+                          int[] charge, int[] channel, int[] timeOffset) {
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            decode(IntVector.fromArray(SPECIES, words, i), i, timeMask, charge, channel, timeOffset);
+        }
+        super.decode(words, i, to, timeMask, charge, channel, timeOffset);
+    }
+
+    @Override
+    protected void decode(ByteBuffer b, int offset, int from, int to, int timeMask,
+                          int[] charge, int[] channel, int[] timeOffset) {
+        decode(words(b, offset, from, to), from, to, timeMask, charge, channel, timeOffset);
+    }
+
+    @Override
+    protected int decodeValid(int[] words, int from, int to,
+                              int[] charge, int[] channel, int[] timeOffset, boolean[] valid) {
+        int count = 0;
+        int i = from;
+        for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+            count += decodeValid(IntVector.fromArray(SPECIES, words, i), i, charge, channel, timeOffset, valid);
+        }
+        return count + super.decodeValid(words, i, to, charge, channel, timeOffset, valid);
+    }
+
+    @Override
+    protected int decodeValid(ByteBuffer b, int offset, int from, int to,
+                              int[] charge, int[] channel, int[] timeOffset, boolean[] valid) {
+        return decodeValid(words(b, offset, from, to), from, to, charge, channel, timeOffset, valid);
+    }
+
+    /**
+     * Copies words from up to to of a buffer into the per-thread word array, at the same
+     * indices.
+     */
+    private static int[] words(ByteBuffer b, int offset, int from, int to) {
+        int[] words = WORDS.get().ensureCapacity(to);
+        b.duplicate().order(b.order()).position(offset).asIntBuffer().get(from, words, from, to - from);
+        return words;
+    }
+
+    private static void decode(IntVector w, int i, int timeMask,
+                               int[] charge, int[] channel, int[] timeOffset) {
+        w.and(0x1FFF).intoArray(charge, i);
+        w.lanewise(VectorOperators.LSHR, 13).and(0xF).intoArray(channel, i);
+        w.lanewise(VectorOperators.LSHR, 17).and(timeMask)
+                .lanewise(VectorOperators.LSHL, 2).intoArray(timeOffset, i);
+    }
+
+    private static int decodeValid(IntVector w, int i,
+                                   int[] charge, int[] channel, int[] timeOffset, boolean[] valid) {
+        IntVector q = w.and(0x1FFF);
+        IntVector t = w.lanewise(VectorOperators.LSHR, 17).and(EVIO4_TIME_MASK)
+                .lanewise(VectorOperators.LSHL, 2);
+        q.intoArray(charge, i);
+        w.lanewise(VectorOperators.LSHR, 13).and(0xF).intoArray(channel, i);
+        t.intoArray(timeOffset, i);
+
+        VectorMask<Integer> ok = w.lanewise(VectorOperators.LSHR, 30).compare(VectorOperators.EQ, 0)
+                .and(q.compare(VectorOperators.NE, 0))
+                .and(q.and(q.sub(1)).compare(VectorOperators.NE, 0))
+                .and(t.compare(VectorOperators.NE, 0));
+        ok.intoArray(valid, i);
+        return ok.trueCount();
+    }
+
+    private static final class Words {
+        int[] words = new int[0];
+
+        int[] ensureCapacity(int n) {
+            if (words.length < n) {
+                words = new int[n];
+            }
+            return words;
+        }
+    }
+}
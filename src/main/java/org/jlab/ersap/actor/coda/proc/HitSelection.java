@@ -0,0 +1,120 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.BitSet;
+
+/**
+ * Selects the part of a time frame to be decoded.
+ * <p>
+ * ROC time frame banks and payload banks are selected by their tags (ROC ID and
+ * payload ID), so the decoders can skip the banks that are not selected using
+ * their length words. Hits are selected by a channel bitmask and a minimum charge,
+ * and are dropped before they are added to the hit batch of the ROC bank.
+ * <p>
+ * Selections are immutable and can be shared between threads.
+ */
+public class HitSelection {
+    public static final String ROC_IDS = "roc_ids";
+    public static final String PAYLOAD_IDS = "payload_ids";
+    public static final String CHANNEL_MASK = "channel_mask";
+    public static final String MIN_CHARGE = "min_charge";
+
+    public static final int ALL_CHANNELS = 0xFFFF;
+
+    /**
+     * Selects everything.
+     */
+    public static final HitSelection ALL = new HitSelection(null, null, ALL_CHANNELS, 0);
+
+    // null selects all IDs
+    private final BitSet rocIds;
+    private final BitSet payloadIds;
+    private final int channelMask;
+    private final int minCharge;
+
+    /**
+     * @param rocIds      selected ROC IDs, null for all ROCs
+     * @param payloadIds  selected payload IDs, null for all payloads
+     * @param channelMask bit n selects channel n
+     * @param minCharge   minimum charge of the selected hits
+     */
+    public HitSelection(int[] rocIds, int[] payloadIds, int channelMask, int minCharge) {
+        this.rocIds = toBitSet(rocIds);
+        this.payloadIds = toBitSet(payloadIds);
+        this.channelMask = channelMask & ALL_CHANNELS;
+        this.minCharge = minCharge;
+    }
+
+    /**
+     * Creates a selection from an engine configuration. Recognized options are
+     * {@code roc_ids} and {@code payload_ids} (arrays of IDs), {@code channel_mask}
+     * and {@code min_charge}. Missing options select everything.
+     */
+    public static HitSelection fromJson(JSONObject data) {
+        if (!data.has(ROC_IDS) && !data.has(PAYLOAD_IDS)
+                && !data.has(CHANNEL_MASK) && !data.has(MIN_CHARGE)) {
+            return ALL;
+        }
+        int[] rocIds = data.has(ROC_IDS) ? toArray(data.getJSONArray(ROC_IDS)) : null;
+        int[] payloadIds = data.has(PAYLOAD_IDS) ? toArray(data.getJSONArray(PAYLOAD_IDS)) : null;
+        int channelMask = data.has(CHANNEL_MASK) ? data.getInt(CHANNEL_MASK) : ALL_CHANNELS;
+        int minCharge = data.has(MIN_CHARGE) ? data.getInt(MIN_CHARGE) : 0;
+        return new HitSelection(rocIds, payloadIds, channelMask, minCharge);
+    }
+
+    private static int[] toArray(JSONArray array) {
+        int[] ids = new int[array.length()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = array.getInt(i);
+        }
+        return ids;
+    }
+
+    private static BitSet toBitSet(int[] ids) {
+        if (ids == null) return null;
+        BitSet set = new BitSet();
+        for (int id : ids) {
+            set.set(id);
+        }
+        return set;
+    }
+
+    public boolean acceptsRoc(int rocId) {
+        return rocIds == null || rocIds.get(rocId);
+    }
+
+    public boolean acceptsPayload(int payloadId) {
+        return payloadIds == null || payloadIds.get(payloadId);
+    }
+
+    public boolean acceptsHit(int channel, int charge) {
+        return ((channelMask >>> channel) & 1) != 0 && charge >= minCharge;
+    }
+
+    /**
+     * @return true if every hit of a selected payload is selected
+     */
+    public boolean acceptsAllHits() {
+        return channelMask == ALL_CHANNELS && minCharge <= 0;
+    }
+
+    public int getChannelMask() {
+        return channelMask;
+    }
+
+    public int getMinCharge() {
+        return minCharge;
+    }
+
+    @Override
+    public String toString() {
+        return "HitSelection{" +
+                "rocIds=" + (rocIds == null ? "all" : rocIds) +
+                ", payloadIds=" + (payloadIds == null ? "all" : payloadIds) +
+                ", channelMask=0x" + Integer.toHexString(channelMask) +
+                ", minCharge=" + minCharge +
+                '}';
+    }
+}
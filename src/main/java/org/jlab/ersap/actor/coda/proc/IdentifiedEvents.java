@@ -0,0 +1,238 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Compact, columnar container of identified events.
+ * <p>
+ * Carries only the hits of the identified events, instead of the whole time frames they
+ * were found in. The hits of all events are kept in one {@link FADCHitBatch}, event after
+ * event and each event sorted by time, and an event is the range {@link #start(int)} to
+ * {@link #end(int)} of it. Every event refers to the time frame it was identified in, by
+ * frame number and time stamp, and the crate of each hit is the ROC ID of its bank.
+ * <p>
+ * Usage: {@link #addFrame(int, long)} for each time frame, then
+ * {@link #addEvent(FADCHitBatch, int, int)} for each of its events. {@link #reset()} keeps
+ * the allocated arrays for reuse.
+ */
+public class IdentifiedEvents implements Serializable {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // Time frames, frameCount entries
+    private int[] frameNumber = new int[DEFAULT_CAPACITY];
+    private long[] frameTime = new long[DEFAULT_CAPACITY];
+    private int frameCount;
+
+    // Events, eventCount entries: time frame index and time of the first hit.
+    // Hits of event k are start[k] to start[k + 1].
+    private int[] frame = new int[DEFAULT_CAPACITY];
+    private long[] time = new long[DEFAULT_CAPACITY];
+    private int[] start = new int[DEFAULT_CAPACITY + 1];
+    private int eventCount;
+
+    private FADCHitBatch hits = new FADCHitBatch();
+
+    /**
+     * Starts a new time frame, the frame of the events added after it.
+     */
+    public void addFrame(int frameNumber, long timeStamp) {
+        if (frameCount == this.frameNumber.length) {
+            this.frameNumber = Arrays.copyOf(this.frameNumber, 2 * frameCount);
+            frameTime = Arrays.copyOf(frameTime, 2 * frameCount);
+        }
+        this.frameNumber[frameCount] = frameNumber;
+        frameTime[frameCount] = timeStamp;
+        frameCount++;
+    }
+
+    /**
+     * Adds an event of the last added time frame.
+     *
+     * @param source hits sorted by time
+     * @param from   index of the first hit of the event
+     * @param to     index after the last hit of the event
+     */
+    public void addEvent(FADCHitBatch source, int from, int to) {
+        if (frameCount == 0) {
+            throw new IllegalStateException("Event added before its time frame");
+        }
+        ensureEventCapacity(eventCount + 1);
+        frame[eventCount] = frameCount - 1;
+        time[eventCount] = source.time(from);
+        hits.addAll(source, from, to);
+        eventCount++;
+        start[eventCount] = hits.size();
+    }
+
+    /**
+     * Adds an event of a time frame that is already in this container, as read from a
+     * serialized form.
+     *
+     * @param frameIndex index of the time frame of the event
+     * @param eventTime  time of the event
+     * @param hitCount   number of hits of the event, added with {@link #getHits()} before
+     *                   this call
+     */
+    public void addEvent(int frameIndex, long eventTime, int hitCount) {
+        if (frameIndex < 0 || frameIndex >= frameCount || start[eventCount] + hitCount != hits.size()) {
+            throw new IllegalArgumentException("Event does not match its time frame or hits");
+        }
+        ensureEventCapacity(eventCount + 1);
+        frame[eventCount] = frameIndex;
+        time[eventCount] = eventTime;
+        eventCount++;
+        start[eventCount] = hits.size();
+    }
+
+    private void ensureEventCapacity(int capacity) {
+        if (capacity > time.length) {
+            int size = Math.max(capacity, 2 * time.length);
+            frame = Arrays.copyOf(frame, size);
+            time = Arrays.copyOf(time, size);
+            start = Arrays.copyOf(start, size + 1);
+        }
+    }
+
+    /**
+     * Removes all events and time frames, keeping the allocated arrays for reuse.
+     */
+    public void reset() {
+        frameCount = 0;
+        eventCount = 0;
+        hits.reset();
+    }
+
+    /**
+     * @return number of events
+     */
+    public int size() {
+        return eventCount;
+    }
+
+    public boolean isEmpty() {
+        return eventCount == 0;
+    }
+
+    /**
+     * @return time of event k, the time of its first hit
+     */
+    public long time(int k) {
+        return time[k];
+    }
+
+    /**
+     * @return number of hits of event k
+     */
+    public int hitCount(int k) {
+        return start[k + 1] - start[k];
+    }
+
+    /**
+     * @return index of the first hit of event k in {@link #getHits()}
+     */
+    public int start(int k) {
+        return start[k];
+    }
+
+    /**
+     * @return index after the last hit of event k in {@link #getHits()}
+     */
+    public int end(int k) {
+        return start[k + 1];
+    }
+
+    /**
+     * @return index of the time frame of event k
+     */
+    public int frame(int k) {
+        return frame[k];
+    }
+
+    /**
+     * @return frame number of the time frame of event k
+     */
+    public int frameNumber(int k) {
+        return frameNumber[frame[k]];
+    }
+
+    /**
+     * @return number of time frames
+     */
+    public int frameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return frame number of time frame f
+     */
+    public int getFrameNumber(int f) {
+        return frameNumber[f];
+    }
+
+    /**
+     * @return time stamp of time frame f
+     */
+    public long getTimeStamp(int f) {
+        return frameTime[f];
+    }
+
+    /**
+     * @return hits of all events, the crate of a hit is the ROC ID of its bank
+     */
+    public FADCHitBatch getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of hits of all events
+     */
+    public int hitCount() {
+        return hits.size();
+    }
+
+    // Only the used part of the columns is serialized
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(frameCount);
+        for (int f = 0; f < frameCount; f++) {
+            out.writeInt(frameNumber[f]);
+            out.writeLong(frameTime[f]);
+        }
+        out.writeInt(eventCount);
+        for (int k = 0; k < eventCount; k++) {
+            out.writeInt(frame[k]);
+            out.writeLong(time[k]);
+            out.writeInt(start[k + 1]);
+        }
+        out.writeObject(hits);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        frameCount = in.readInt();
+        frameNumber = new int[Math.max(frameCount, 1)];
+        frameTime = new long[frameNumber.length];
+        for (int f = 0; f < frameCount; f++) {
+            frameNumber[f] = in.readInt();
+            frameTime[f] = in.readLong();
+        }
+        eventCount = in.readInt();
+        frame = new int[Math.max(eventCount, 1)];
+        time = new long[frame.length];
+        start = new int[frame.length + 1];
+        for (int k = 0; k < eventCount; k++) {
+            frame[k] = in.readInt();
+            time[k] = in.readLong();
+            start[k + 1] = in.readInt();
+        }
+        hits = (FADCHitBatch) in.readObject();
+    }
+
+    @Override
+    public String toString() {
+        return "IdentifiedEvents: frames = " + frameCount + ",  events = " + eventCount
+                + ",  hits = " + hits.size();
+    }
+}
@@ -11,9 +11,11 @@ import twig.widgets.PaveText;
 import javax.swing.*;
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
@@ -29,6 +31,9 @@ import java.util.Map;
 public class LiveHistogram {
 
     private Map<String, H1F> histograms = new HashMap<>();
+    // Histograms of single channels by channel ID, see FADCHit#getId(), sorted by ID
+    private int[] channelIds = new int[0];
+    private H1F[] channelHistograms = new H1F[0];
 //    private Map<String, H1F> histograms2 = new HashMap<>();
     private H1F coincidenceHist;
     private H2F scatter;
@@ -63,6 +68,7 @@ public class LiveHistogram {
             histograms.put(s, hist);
             c.region().draw(hist);
         }
+        indexChannels();
         frame.setVisible(true);
     }
 
@@ -93,6 +99,7 @@ public class LiveHistogram {
             histograms.put(s, hist);
             c.region().draw(hist);
         }
+        indexChannels();
         frame.setVisible(true);
 
 //        if (histTitles2 != null) {
@@ -167,12 +174,62 @@ public class LiveHistogram {
 //            }
         }
     }
+    public void update(String name, int charge) {
+        H1F hist = histograms.get(name);
+        if (hist != null) {
+            hist.fill(charge);
+        }
+    }
+
     public void updateScatter(FADCHit v){
         scatter.fill(v.time(), v.getId());
     }
 
+    /**
+     * Fills the channel histograms with the charges of the hits {@code from} to {@code to},
+     * and the scatter plot with their times relative to the time frame, reading the hit
+     * columns directly.
+     */
+    public void fill(FADCHitBatch hits, int from, int to, long timeStamp) {
+        int[] crates = hits.crates();
+        int[] slots = hits.slots();
+        int[] channels = hits.channels();
+        int[] charges = hits.charges();
+        long[] times = hits.times();
+        for (int i = from; i < to; i++) {
+            int id = FADCHit.id(crates[i], slots[i], channels[i]);
+            int k = Arrays.binarySearch(channelIds, id);
+            if (k >= 0) channelHistograms[k].fill(charges[i]);
+            if (scatter != null) scatter.fill(times[i] - timeStamp, id);
+        }
+    }
+
+    /**
+     * Indexes the histograms named after a channel, "crate-slot-channel", by channel ID.
+     */
+    private void indexChannels() {
+        TreeMap<Integer, H1F> byId = new TreeMap<>();
+        for (Map.Entry<String, H1F> e : histograms.entrySet()) {
+            String[] parts = e.getKey().split("-");
+            if (parts.length != 3) continue;
+            try {
+                byId.put(FADCHit.id(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                        Integer.parseInt(parts[2].trim())), e.getValue());
+            } catch (NumberFormatException ex) {
+                // not a channel, e.g. a coincidence
+            }
+        }
+        channelIds = new int[byId.size()];
+        channelHistograms = new H1F[byId.size()];
+        int i = 0;
+        for (Map.Entry<Integer, H1F> e : byId.entrySet()) {
+            channelIds[i] = e.getKey();
+            channelHistograms[i++] = e.getValue();
+        }
+    }
+
     public void resetScatter() {
-        scatter.reset();
+        if (scatter != null) scatter.reset();
     }
 
     public void writeHist() {
@@ -1,14 +1,13 @@
 package org.jlab.ersap.actor.coda.proc;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 
 public class RocTimeFrameBank implements Serializable {
     private int rocID;
     private int frameNumber;
     private long timeStamp;
-    private List<FADCHit> hits = new ArrayList<>();
+    private final FADCHitBatch hits = new FADCHitBatch();
 
     public int getFrameNumber() {
         return frameNumber;
@@ -26,21 +25,40 @@ public class RocTimeFrameBank implements Serializable {
         this.timeStamp = timeStamp;
     }
 
+    /**
+     * @return hits of this bank as a {@code List<FADCHit>} view of the {@link #getHitBatch() hit batch}
+     */
     public List<FADCHit> getHits() {
+        return hits.asList();
+    }
+
+    /**
+     * @return columnar hit container of this bank, to be filled and read without per-hit objects
+     */
+    public FADCHitBatch getHitBatch() {
         return hits;
     }
 
     public void setHits(List<FADCHit> hits) {
-        this.hits = hits;
+        this.hits.reset();
+        this.hits.addAll(hits);
     }
     public void addHits(List<FADCHit> hits) {
         this.hits.addAll(hits);
     }
 
+    public void addHits(FADCHitBatch hits) {
+        this.hits.addAll(hits);
+    }
+
     public void addHit(FADCHit hit) {
         hits.add(hit);
     }
 
+    public void addHit(int crate, int slot, int channel, int charge, long time) {
+        hits.add(crate, slot, channel, charge, time);
+    }
+
     public int getRocID() {
         return rocID;
     }
@@ -48,4 +66,14 @@ public class RocTimeFrameBank implements Serializable {
     public void setRocID(int rocID) {
         this.rocID = rocID;
     }
+
+    /**
+     * Clears the bank for reuse, keeping the hit arrays.
+     */
+    public void reset() {
+        rocID = 0;
+        frameNumber = 0;
+        timeStamp = 0;
+        hits.reset();
+    }
 }
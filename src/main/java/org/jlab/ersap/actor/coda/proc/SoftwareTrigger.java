@@ -0,0 +1,307 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Software trigger: selects events, given as ranges of time-ordered hits, by a set of
+ * rules. An event is accepted if any rule accepts it, and every rule is evaluated for
+ * every event so that its rates can be followed. A rule passes an event when all of its
+ * conditions hold:
+ * <ul>
+ *     <li>{@code min_hits}: minimum number of hits, of the event or per detector region</li>
+ *     <li>{@code min_charge}: minimum charge sum per detector region</li>
+ *     <li>{@code charge_sum}: minimum charge sum of the event</li>
+ *     <li>{@code require}: channels that must all have hits</li>
+ *     <li>{@code veto}: channels that must not have any hit</li>
+ * </ul>
+ * and accepts every {@code prescale}-th event it passes. Regions are named lists of
+ * "crate-slot-channel" channels.
+ * <p>
+ * The rules are compiled once into flat arrays: the regions of each channel as a bitmask,
+ * the required and vetoed channels of each rule as 64 bit masks, and the thresholds of all
+ * rules and regions side by side. An event is evaluated with a single pass over its hits
+ * that fills the region sums and the mask of channels with hits, followed by comparisons
+ * against the thresholds of each rule.
+ * <p>
+ * A trigger is used by a single thread at a time, and its counts are read by that thread
+ * or under the same lock, see {@link EventStitcher#getTriggerCounts()}.
+ */
+public class SoftwareTrigger {
+    public static final String REGIONS = "regions";
+    public static final String RULES = "rules";
+    public static final String REPORT = "report";
+
+    private static final int MAX_REGIONS = Integer.SIZE;
+    private static final int MAX_MASK_CHANNELS = Long.SIZE;
+
+    private final ChannelMap channels = new ChannelMap();
+    // Regions of each channel, bit r for region r
+    private int[] channelRegions = new int[0];
+    // Bit of each required or vetoed channel, 0 for the others
+    private long[] channelBits = new long[0];
+    private int maskChannels;
+
+    private final String[] regionNames;
+    private final String[] ruleNames;
+    private final int regions;
+    // Thresholds of rule k and region r at k * regions + r
+    private final int[] minRegionHits;
+    private final long[] minRegionCharge;
+    private final int[] minHits;
+    private final long[] chargeSum;
+    private final long[] requireMask;
+    private final long[] vetoMask;
+    private final int[] prescale;
+
+    // Sums of the event being evaluated
+    private final int[] regionHits;
+    private final long[] regionCharge;
+
+    // Counters
+    private long evaluated;
+    private long acceptedEvents;
+    private final long[] passed;
+    private final long[] accepted;
+
+    // Rate report
+    private final long reportNanos;
+    private long lastReport = System.nanoTime();
+    private long lastEvaluated;
+    private final long[] lastAccepted;
+
+    /**
+     * Compiles the trigger from an engine configuration, see the class description.
+     * Recognized options are {@code regions}, an object with the channel list of each
+     * region, {@code rules}, an array of rule objects, each with an optional {@code name},
+     * and {@code report}, the seconds between rate reports (0 for none).
+     *
+     * @return the trigger, or null if no rules are configured
+     */
+    public static SoftwareTrigger fromJson(JSONObject data) {
+        if (!data.has(RULES) || data.getJSONArray(RULES).length() == 0) {
+            return null;
+        }
+        return new SoftwareTrigger(data);
+    }
+
+    private SoftwareTrigger(JSONObject data) {
+        JSONObject regionLists = data.has(REGIONS) ? data.getJSONObject(REGIONS) : new JSONObject();
+        regionNames = regionLists.keySet().toArray(new String[0]);
+        Arrays.sort(regionNames);
+        regions = regionNames.length;
+        if (regions > MAX_REGIONS) {
+            throw new IllegalArgumentException("At most " + MAX_REGIONS + " trigger regions are supported");
+        }
+        for (int r = 0; r < regions; r++) {
+            for (String name : channelList(regionLists, regionNames[r])) {
+                int index = addChannel(name);
+                channelRegions[index] |= 1 << r;
+            }
+        }
+
+        JSONArray rules = data.getJSONArray(RULES);
+        int n = rules.length();
+        ruleNames = new String[n];
+        minRegionHits = new int[n * regions];
+        minRegionCharge = new long[n * regions];
+        minHits = new int[n];
+        chargeSum = new long[n];
+        requireMask = new long[n];
+        vetoMask = new long[n];
+        prescale = new int[n];
+        for (int k = 0; k < n; k++) {
+            JSONObject rule = rules.getJSONObject(k);
+            ruleNames[k] = rule.optString("name", "rule" + k);
+            if (rule.has("min_hits")) {
+                if (rule.get("min_hits") instanceof JSONObject) {
+                    JSONObject perRegion = rule.getJSONObject("min_hits");
+                    for (String region : perRegion.keySet()) {
+                        minRegionHits[k * regions + region(region)] = perRegion.getInt(region);
+                    }
+                } else {
+                    minHits[k] = rule.getInt("min_hits");
+                }
+            }
+            if (rule.has("min_charge")) {
+                JSONObject perRegion = rule.getJSONObject("min_charge");
+                for (String region : perRegion.keySet()) {
+                    minRegionCharge[k * regions + region(region)] = perRegion.getLong(region);
+                }
+            }
+            chargeSum[k] = rule.optLong("charge_sum", 0);
+            for (String name : channelList(rule, "require")) {
+                requireMask[k] |= channelBit(name);
+            }
+            for (String name : channelList(rule, "veto")) {
+                vetoMask[k] |= channelBit(name);
+            }
+            prescale[k] = Math.max(rule.optInt("prescale", 1), 1);
+        }
+
+        regionHits = new int[regions];
+        regionCharge = new long[regions];
+        passed = new long[n];
+        accepted = new long[n];
+        lastAccepted = new long[n];
+        reportNanos = (long) (data.optDouble(REPORT, 10) * 1e9);
+    }
+
+    private static List<String> channelList(JSONObject data, String key) {
+        List<String> names = new ArrayList<>();
+        if (!data.has(key)) return names;
+        Object value = data.get(key);
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            for (int i = 0; i < array.length(); i++) {
+                names.add(array.getString(i).trim());
+            }
+        } else {
+            for (String name : value.toString().split(",")) {
+                if (!name.trim().isEmpty()) names.add(name.trim());
+            }
+        }
+        return names;
+    }
+
+    private int addChannel(String name) {
+        int index = channels.add(name);
+        if (index == channelRegions.length) {
+            channelRegions = Arrays.copyOf(channelRegions, index + 1);
+            channelBits = Arrays.copyOf(channelBits, index + 1);
+        }
+        return index;
+    }
+
+    private long channelBit(String name) {
+        int index = addChannel(name);
+        if (channelBits[index] == 0) {
+            if (maskChannels == MAX_MASK_CHANNELS) {
+                throw new IllegalArgumentException("At most " + MAX_MASK_CHANNELS
+                        + " required or vetoed trigger channels are supported");
+            }
+            channelBits[index] = 1L << maskChannels++;
+        }
+        return channelBits[index];
+    }
+
+    private int region(String name) {
+        int r = Arrays.binarySearch(regionNames, name);
+        if (r < 0) {
+            throw new IllegalArgumentException("Unknown trigger region: " + name);
+        }
+        return r;
+    }
+
+    /**
+     * Evaluates the rules for an event.
+     *
+     * @param hits hits sorted by time
+     * @param from index of the first hit of the event
+     * @param to   index after the last hit of the event
+     * @return true if any rule accepts the event
+     */
+    public boolean accept(FADCHitBatch hits, int from, int to) {
+        evaluated++;
+        Arrays.fill(regionHits, 0);
+        Arrays.fill(regionCharge, 0);
+        long present = 0;
+        long charge = 0;
+        for (int i = from; i < to; i++) {
+            int q = hits.charge(i);
+            charge += q;
+            int index = channels.index(hits.crate(i), hits.slot(i), hits.channel(i));
+            if (index < 0) continue;
+            present |= channelBits[index];
+            for (int m = channelRegions[index]; m != 0; m &= m - 1) {
+                int r = Integer.numberOfTrailingZeros(m);
+                regionHits[r]++;
+                regionCharge[r] += q;
+            }
+        }
+        int size = to - from;
+        boolean accept = false;
+        for (int k = 0; k < prescale.length; k++) {
+            boolean pass = size >= minHits[k] & charge >= chargeSum[k]
+                    & (present & requireMask[k]) == requireMask[k] & (present & vetoMask[k]) == 0;
+            for (int r = 0, t = k * regions; r < regions; r++, t++) {
+                pass &= regionHits[r] >= minRegionHits[t] & regionCharge[r] >= minRegionCharge[t];
+            }
+            if (pass && ++passed[k] % prescale[k] == 0) {
+                accepted[k]++;
+                accept = true;
+            }
+        }
+        if (accept) acceptedEvents++;
+        return accept;
+    }
+
+    /**
+     * Prints the accept rates of the rules since the last report, if the report interval
+     * has passed.
+     */
+    public void reportIfDue(long now) {
+        if (reportNanos <= 0 || now - lastReport < reportNanos) return;
+        double time = (now - lastReport) / 1e9;
+        long events = evaluated - lastEvaluated;
+        StringBuilder sb = new StringBuilder("Software trigger: ")
+                .append(String.format("%.3g", events / time)).append(" Hz evaluated");
+        for (int k = 0; k < accepted.length; k++) {
+            long n = accepted[k] - lastAccepted[k];
+            sb.append(",  ").append(ruleNames[k]).append(" = ")
+                    .append(String.format("%.3g", n / time)).append(" Hz (")
+                    .append(String.format("%.3g", events > 0 ? 100.0 * n / events : 0)).append("%)");
+            lastAccepted[k] = accepted[k];
+        }
+        System.out.println(sb);
+        lastEvaluated = evaluated;
+        lastReport = now;
+    }
+
+    public String[] getRuleNames() {
+        return ruleNames.clone();
+    }
+
+    /**
+     * @return number of events evaluated
+     */
+    public long getEvaluated() {
+        return evaluated;
+    }
+
+    /**
+     * @return number of events accepted by any rule
+     */
+    public long getAccepted() {
+        return acceptedEvents;
+    }
+
+    /**
+     * @return number of events that passed the conditions of each rule, before prescaling
+     */
+    public long[] getPassedByRule() {
+        return passed.clone();
+    }
+
+    /**
+     * @return number of events accepted by each rule
+     */
+    public long[] getAcceptedByRule() {
+        return accepted.clone();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Software trigger: evaluated = ").append(evaluated)
+                .append(",  accepted = ").append(acceptedEvents);
+        for (int k = 0; k < accepted.length; k++) {
+            sb.append(",  ").append(ruleNames[k]).append(" = ").append(accepted[k])
+                    .append("/").append(passed[k]);
+        }
+        return sb.toString();
+    }
+}
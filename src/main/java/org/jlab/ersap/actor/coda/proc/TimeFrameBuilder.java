@@ -0,0 +1,386 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds multi-ROC time frames from the ROC time frame banks of separate ROC streams,
+ * as the CODA aggregator does, matching the banks by frame number.
+ * <p>
+ * Every stream is expected to deliver its frames in order, and to be read only while
+ * {@link #accepts(int)} it. Frames are collected in a
+ * bounded window of consecutive frame numbers and emitted in frame order, each as an
+ * {@link EtEvent} with a single time frame holding the banks of all ROCs, like the events
+ * decoded by the {@link EvioEventParser}. A frame is emitted as soon as every stream has
+ * contributed to it, or, as a partial frame, once each missing stream has delivered a later
+ * frame or is closed, once it is older than the timeout, or when a new frame does not fit into
+ * the window. A frame that no stream has delivered yet is skipped once a later frame is older
+ * than the timeout, so a silent stream does not hold back the others.
+ * <p>
+ * Banks arriving for a frame that is already emitted are counted as late and dropped. A stream
+ * going back more than twice the window from its own last frame, as after a run restart or a
+ * wrap of the 32-bit frame number, enters a new run. Its banks of the new run are held back,
+ * and {@link #accepts(int)} no longer accepts it, while the other streams finish the frames of
+ * the current run. The builder restarts at the held frames once all open streams have entered
+ * the new run, or no bank of the current run has arrived for the timeout. Streams still in
+ * the previous run after that only have their old frames dropped as late, until they go back
+ * too.
+ * <p>
+ * A builder is used by a single thread.
+ */
+public class TimeFrameBuilder {
+    private final int streams;
+    private final int window;
+    private final long timeoutNanos;
+    // Source of the built events, null to create new ones
+    private final TimeFramePool pool;
+
+    // Frames of the window, indexed by frame number modulo window
+    private final Frame[] frames;
+    // Lowest frame number not yet emitted, -1 until the first bank arrives
+    private long base = -1;
+    // Number of frames of the window with banks
+    private int filledFrames;
+    // Highest frame number delivered by each stream in its run
+    private final long[] lastFrame;
+    // Run of each stream, and of the frames in the window
+    private final int[] run;
+    private int currentRun;
+    // Banks of the next run, held back until the builder restarts
+    private final List<List<RocTimeFrameBank>> held;
+    // Arrival of the last bank of the current run
+    private long lastArrival;
+    // Streams that will not deliver any more frames
+    private final boolean[] closed;
+    private final ArrayDeque<EtEvent> built = new ArrayDeque<>();
+
+    // Statistics
+    private long completeFrames;
+    private long partialFrames;
+    private long timedOutFrames;
+    private final long[] missing;
+    private final long[] late;
+    private long timestampMismatches;
+    private long restarts;
+
+    /**
+     * @param streams      number of ROC streams
+     * @param window       number of consecutive frames collected at once
+     * @param timeoutNanos longest time a frame waits for missing streams
+     * @param pool         pool to take the built events from, or null to create new ones
+     */
+    public TimeFrameBuilder(int streams, int window, long timeoutNanos, TimeFramePool pool) {
+        this.streams = streams;
+        this.window = window;
+        this.timeoutNanos = timeoutNanos;
+        this.pool = pool;
+        this.frames = new Frame[window];
+        for (int i = 0; i < window; i++) {
+            frames[i] = new Frame(streams);
+        }
+        this.lastFrame = new long[streams];
+        Arrays.fill(lastFrame, -1);
+        this.closed = new boolean[streams];
+        this.run = new int[streams];
+        this.held = new ArrayList<>(streams);
+        for (int s = 0; s < streams; s++) {
+            held.add(new ArrayList<>());
+        }
+        this.missing = new long[streams];
+        this.late = new long[streams];
+    }
+
+    /**
+     * Adds the banks of a decoded stream event, all time frames of it, and releases it.
+     *
+     * @param stream index of the stream the event came from
+     * @param evt    event decoded from a record of the stream
+     */
+    public void add(int stream, EtEvent evt) {
+        long now = System.nanoTime();
+        for (List<RocTimeFrameBank> timeFrame : evt.getTimeFrames()) {
+            for (RocTimeFrameBank bank : timeFrame) {
+                add(stream, bank, now);
+            }
+            // the banks now belong to the builder
+            timeFrame.clear();
+        }
+        evt.release();
+        emitReady(now);
+    }
+
+    private void add(int stream, RocTimeFrameBank bank, long now) {
+        long frameNumber = bank.getFrameNumber() & 0xffffffffL;
+        closed[stream] = false;
+        if (run[stream] > currentRun) {
+            // rest of the event that started the next run of the stream
+            held.get(stream).add(bank);
+            return;
+        }
+        if (frameNumber + 2L * window < lastFrame[stream]) {
+            // the stream went back, a run restart or frame number wrap
+            lastFrame[stream] = -1;
+            if (run[stream] == currentRun) {
+                run[stream]++;
+                held.get(stream).add(bank);
+                restartIfReady(now);
+                return;
+            }
+            // a stream left behind by a restart, now in the current run too
+            run[stream] = currentRun;
+        }
+        if (run[stream] < currentRun) {
+            // a frame of the previous run, from a stream that has not restarted yet
+            lastFrame[stream] = Math.max(lastFrame[stream], frameNumber);
+            late[stream]++;
+            discard(bank);
+            return;
+        }
+        if (base < 0) base = frameNumber;
+        if (frameNumber < base) {
+            late[stream]++;
+            discard(bank);
+            return;
+        }
+        lastFrame[stream] = Math.max(lastFrame[stream], frameNumber);
+        lastArrival = now;
+        // Make room in the window, emitting the oldest frames as they are
+        if (frameNumber >= base + 2L * window) {
+            // a jump, flush the whole window and skip the empty frames in between
+            for (int i = 0; i < window; i++) {
+                emit(frames[(int) (base % window)]);
+            }
+            base = frameNumber - window + 1;
+        }
+        while (frameNumber >= base + window) {
+            emit(frames[(int) (base % window)]);
+        }
+        Frame frame = frames[(int) (frameNumber % window)];
+        if (frame.banks.isEmpty()) {
+            filledFrames++;
+            frame.firstArrival = now;
+            frame.timestamp = bank.getTimeStamp();
+        } else if (bank.getTimeStamp() != frame.timestamp) {
+            timestampMismatches++;
+        }
+        frame.banks.add(bank);
+        if (!frame.contributed[stream]) {
+            frame.contributed[stream] = true;
+            frame.contributions++;
+        }
+    }
+
+    /**
+     * Restarts the builder at the held frames of the next run, once every open stream has
+     * entered it, or the current run has been silent for the timeout. The frames of the
+     * current run are emitted as they are.
+     */
+    private void restartIfReady(long now) {
+        boolean waiting = false;
+        boolean ready = true;
+        for (int s = 0; s < streams; s++) {
+            if (run[s] > currentRun) {
+                waiting = true;
+            } else if (!closed[s]) {
+                ready = false;
+            }
+        }
+        if (!waiting || !ready && now - lastArrival <= timeoutNanos) return;
+
+        restarts++;
+        while (filledFrames > 0) {
+            emit(frames[(int) (base % window)]);
+        }
+        currentRun++;
+        base = -1;
+        lastArrival = now;
+        for (int s = 0; s < streams; s++) {
+            if (run[s] == currentRun) {
+                for (RocTimeFrameBank bank : held.get(s)) {
+                    long frameNumber = bank.getFrameNumber() & 0xffffffffL;
+                    if (base < 0 || frameNumber < base) base = frameNumber;
+                }
+            }
+        }
+        for (int s = 0; s < streams; s++) {
+            List<RocTimeFrameBank> banks = held.get(s);
+            for (int i = 0; i < banks.size(); i++) {
+                add(s, banks.get(i), now);
+            }
+            banks.clear();
+        }
+    }
+
+    /**
+     * A stream is read only while its next frame fits into the window, so a stream that runs
+     * ahead is held back, by its ROC's flow control, instead of pushing out the frames the
+     * other streams are still delivering. A stream that has entered the next run is held
+     * back until the builder restarts.
+     *
+     * @return true if the next frame of the stream fits into the window
+     */
+    public boolean accepts(int stream) {
+        if (run[stream] != currentRun) return run[stream] < currentRun;
+        return base < 0 || lastFrame[stream] + 1 < base + window;
+    }
+
+    /**
+     * Marks a stream as closed, e.g. when its connection has ended and all its records are
+     * added. Frames no longer wait for it, until it delivers a frame again.
+     */
+    public void close(int stream) {
+        closed[stream] = true;
+    }
+
+    /**
+     * Emits the oldest frames that are complete, can no longer be completed, or timed out.
+     * Called by {@link #add(int, EtEvent)}, and periodically while no records arrive.
+     */
+    public void emitReady(long now) {
+        restartIfReady(now);
+        while (filledFrames > 0) {
+            Frame frame = frames[(int) (base % window)];
+            if (frame.contributions == streams || passed(frame, base)) {
+                emit(frame);
+            } else if (timedOut(frame, now)) {
+                if (!frame.banks.isEmpty()) timedOutFrames++;
+                emit(frame);
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if every stream missing from the frame has delivered a later frame, is
+     * closed or has entered the next run
+     */
+    private boolean passed(Frame frame, long frameNumber) {
+        for (int s = 0; s < streams; s++) {
+            if (frame.contributed[s] || closed[s] || run[s] > currentRun) continue;
+            if (run[s] < currentRun || lastFrame[s] <= frameNumber) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the frame at the base of the window is older than the timeout. A frame
+     * without banks counts from the arrival of the oldest later frame.
+     */
+    private boolean timedOut(Frame frame, long now) {
+        if (!frame.banks.isEmpty()) return now - frame.firstArrival > timeoutNanos;
+        for (int i = 1; i < window; i++) {
+            Frame later = frames[(int) ((base + i) % window)];
+            if (!later.banks.isEmpty() && now - later.firstArrival > timeoutNanos) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Emits the frame at the base of the window, if it has any banks, and moves the base.
+     */
+    private void emit(Frame frame) {
+        if (!frame.banks.isEmpty()) {
+            filledFrames--;
+            if (frame.contributions == streams) {
+                completeFrames++;
+            } else {
+                partialFrames++;
+                for (int s = 0; s < streams; s++) {
+                    if (!frame.contributed[s]) missing[s]++;
+                }
+            }
+            EtEvent evt = pool != null ? pool.acquireEvent() : new EtEvent();
+            evt.newTimeFrame().addAll(frame.banks);
+            built.add(evt);
+        }
+        frame.reset();
+        base++;
+    }
+
+    /**
+     * @return the next built event, or null if none is ready
+     */
+    public EtEvent poll() {
+        return built.poll();
+    }
+
+    private void discard(RocTimeFrameBank bank) {
+        if (pool != null) pool.release(bank);
+    }
+
+    public long getCompleteFrames() {
+        return completeFrames;
+    }
+
+    /**
+     * @return number of frames emitted without the banks of some streams
+     */
+    public long getPartialFrames() {
+        return partialFrames;
+    }
+
+    /**
+     * @return number of partial frames emitted because missing streams were silent too long
+     */
+    public long getTimedOutFrames() {
+        return timedOutFrames;
+    }
+
+    /**
+     * @return number of emitted frames each stream was missing from
+     */
+    public long[] getMissing() {
+        return missing.clone();
+    }
+
+    /**
+     * @return number of banks of each stream that arrived after their frame was emitted
+     */
+    public long[] getLate() {
+        return late.clone();
+    }
+
+    /**
+     * @return number of banks whose timestamp differs from the other banks of their frame
+     */
+    public long getTimestampMismatches() {
+        return timestampMismatches;
+    }
+
+    /**
+     * @return number of times the streams went back and the builder started over at the
+     * frames of the next run
+     */
+    public long getRestarts() {
+        return restarts;
+    }
+
+    @Override
+    public String toString() {
+        return "Frames = " + completeFrames + " complete, " + partialFrames + " partial ("
+                + timedOutFrames + " timed out),  missing = " + Arrays.toString(missing)
+                + ",  late = " + Arrays.toString(late)
+                + ",  timestamp mismatches = " + timestampMismatches + ",  restarts = " + restarts;
+    }
+
+    private static final class Frame {
+        final List<RocTimeFrameBank> banks = new ArrayList<>();
+        final boolean[] contributed;
+        int contributions;
+        long firstArrival;
+        long timestamp;
+
+        Frame(int streams) {
+            contributed = new boolean[streams];
+        }
+
+        void reset() {
+            banks.clear();
+            Arrays.fill(contributed, false);
+            contributions = 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pool of recyclable {@link EtEvent} and {@link RocTimeFrameBank} objects.
+ * <p>
+ * Decoders acquire events and banks from the pool instead of creating them. Once an event
+ * is consumed (e.g. written by a sink) it is returned with {@link EtEvent#release()},
+ * which also returns its ROC time frame banks. Banks keep their hit arrays, and events keep
+ * their time frame lists, so steady state decoding does not allocate.
+ * <p>
+ * The pool never blocks: if it is empty a new object is created, and objects released
+ * into a full pool are left to the garbage collector. Decoders and sinks are separate
+ * engines, so they normally share the {@link #getInstance() shared pool}.
+ */
+public class TimeFramePool {
+    private static final int EVENT_CAPACITY = 1024;
+    private static final int BANK_CAPACITY = 16 * EVENT_CAPACITY;
+
+    private static final TimeFramePool INSTANCE = new TimeFramePool(EVENT_CAPACITY, BANK_CAPACITY);
+
+    private final BlockingQueue<EtEvent> events;
+    private final BlockingQueue<RocTimeFrameBank> banks;
+
+    /**
+     * @param eventCapacity maximum number of idle events kept by the pool
+     * @param bankCapacity  maximum number of idle ROC time frame banks kept by the pool
+     */
+    public TimeFramePool(int eventCapacity, int bankCapacity) {
+        events = new ArrayBlockingQueue<>(eventCapacity);
+        banks = new ArrayBlockingQueue<>(bankCapacity);
+    }
+
+    public static TimeFramePool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return an empty event that returns to this pool when released
+     */
+    public EtEvent acquireEvent() {
+        EtEvent evt = events.poll();
+        if (evt == null) {
+            return new EtEvent(this);
+        }
+        evt.setPooled(false);
+        return evt;
+    }
+
+    /**
+     * @return an empty ROC time frame bank
+     */
+    public RocTimeFrameBank acquireBank() {
+        RocTimeFrameBank bank = banks.poll();
+        return bank != null ? bank : new RocTimeFrameBank();
+    }
+
+    /**
+     * Returns an event and all of its ROC time frame banks to the pool.
+     * The event must not be used after this call.
+     */
+    void release(EtEvent evt) {
+        if (evt.isPooled()) return;
+        evt.setPooled(true);
+        evt.clear(this);
+        events.offer(evt);
+    }
+
+    public void release(RocTimeFrameBank bank) {
+        bank.reset();
+        banks.offer(bank);
+    }
+
+    public int idleEvents() {
+        return events.size();
+    }
+
+    public int idleBanks() {
+        return banks.size();
+    }
+}
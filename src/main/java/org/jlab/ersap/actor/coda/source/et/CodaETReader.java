@@ -1,19 +1,13 @@
 package org.jlab.ersap.actor.coda.source.et;
 
-import org.jlab.coda.et.*;
-import org.jlab.coda.et.enums.Mode;
-import org.jlab.coda.et.enums.Modify;
 import org.jlab.ersap.actor.coda.proc.EvioEventParser;
 import org.jlab.ersap.actor.util.IASource;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static com.lmax.disruptor.RingBuffer.createSingleProducer;
-import static org.jlab.ersap.actor.util.AUtil.copyBytes;
+import static org.jlab.ersap.actor.util.AUtil.waitStrategy;
 
 /**
  * Copyright (c) 2021, Jefferson Science Associates, all rights reserved.
@@ -29,17 +23,34 @@ import static org.jlab.ersap.actor.util.AUtil.copyBytes;
  * <p>
  * Establishes a connection to the ET running on a local host.
  * That is, one ET for each node that is responsible for running the ERSAP program.
+ * <p>
+ * Events are handed to the source engine through a preallocated {@link EtRing} of
+ * {@link EtEventLease} slots. By default each event is copied once, into a new heap buffer
+ * held by its slot, the chunk is put back into the ET right away, and {@link #nextEvent()}
+ * returns that buffer, releasing the slot itself. The events can then be serialized and sent
+ * to services in other containers like any ByteBuffer.
+ * <p>
+ * In leased mode the slots wrap the ET data buffers without copying them, and
+ * {@link #nextEvent()} returns the {@link EtEventLease} itself. A chunk of events is put back
+ * into the ET system only after every lease of the chunk is released, and once all slots
+ * are taken and not released the reader waits. Every lease must therefore be released, e.g.
+ * by decoding it with {@link EtEventLease#parse}, by a service in the same container: a
+ * lease cannot be serialized.
+ * <p>
+ * Several consumer threads, each with its own attachment, can drain the ET in parallel,
+ * either all attached to one station or each attached to one of a group of parallel
+ * round-robin stations. An optional {@link EtFrameMerger} restores the time frame order
+ * of the events they read.
  */
-public class CodaETReader implements IASource, Runnable {
-
-    private EtSystem etSystem;
-    EtAttachment etAttachment;
-    // Number of ET buffers to get from the ET at once.
-    int chunk = 10;
-    // array of events
-    private EtEvent[] etEvents;
-    private int evtCount =0;
-
+public class CodaETReader implements IASource {
+
+    private final EtConnection etSystem;
+    // Consumer threads, one per attachment
+    private EtConsumer[] consumers = new EtConsumer[0];
+    // Restores the frame order of several consumers, null if not used
+    private EtFrameMerger merger;
+    // Longest wait for ET events in microseconds, 0 sleeps until events arrive
+    private final int maxWaitMicros;
     // Variables for statistics
     private long t1 = 0L;
     private long totalT = 0L;
@@ -47,42 +58,111 @@ public class CodaETReader implements IASource, Runnable {
     private long totalCount = 0L;
     private long bytes = 0L;
     private long totalBytes = 0L;
+    private long lastEvents = 0L;
+    private long lastBytes = 0L;
+    // Events of each consumer at the last report
+    private long[] consumerCounts = new long[0];
 
-    // Queue
-    private final BlockingQueue<ByteBuffer> queue;
+    // Handoff to the source engine
+    private final EtRing ring;
 
     private AtomicBoolean running = new AtomicBoolean(true);
 
+    // Leased mode
+    private final boolean leased;
+    private final EtLeaseMetrics leaseMetrics = new EtLeaseMetrics();
+    // Returns the released chunks of all consumers while waiting for ring space
+    private final Runnable returnReleased = () -> {
+        try {
+            for (EtConsumer consumer : consumers) {
+                consumer.returnReleasedChunks();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    };
+
+    /**
+     * @param capacity number of ring slots, rounded up to a power of 2
+     */
     public CodaETReader(String etHost, String etName, int etPort, String etStationName, int capacity) {
-        // Queue staff
-        this.queue = new LinkedBlockingQueue<>(capacity);
+        this(etHost, etName, etPort, etStationName, capacity, false);
+    }
+
+    /**
+     * @param leased hand out {@link EtEventLease}s instead of buffers that may be put back
+     *               into the ET before they are decoded
+     */
+    public CodaETReader(String etHost, String etName, int etPort, String etStationName, int capacity,
+                        boolean leased) {
+        this(etHost, etName, etPort, etStationName, capacity, leased, 10, 10, 0, "blocking");
+    }
+
+    /**
+     * @param minChunk      smallest number of events to get from the ET at once
+     * @param maxChunk      largest number of events to get from the ET at once
+     * @param maxWaitMicros longest wait for ET events before the chunk size is reduced to
+     *                      minChunk and the reader checks whether it was closed,
+     *                      0 sleeps until events arrive
+     * @param waitStrategy  ring wait strategy of the source engine: blocking, sleeping,
+     *                      yielding or busy_spin
+     */
+    public CodaETReader(String etHost, String etName, int etPort, String etStationName, int capacity,
+                        boolean leased, int minChunk, int maxChunk, int maxWaitMicros,
+                        String waitStrategy) {
+        this(etHost, etName, etPort, etStationName, capacity, leased, minChunk, maxChunk, maxWaitMicros,
+                waitStrategy, 1, false, false);
+    }
+
+    /**
+     * @param consumerCount number of attachments, each drained by its own thread
+     * @param roundRobin    if true each attachment is made to its own station of a group of
+     *                      parallel round-robin stations, otherwise all attach to one station
+     * @param merge         if true the events of several consumers are published in time
+     *                      frame order
+     */
+    public CodaETReader(String etHost, String etName, int etPort, String etStationName, int capacity,
+                        boolean leased, int minChunk, int maxChunk, int maxWaitMicros,
+                        String waitStrategy, int consumerCount, boolean roundRobin, boolean merge) {
+        this(new EtSystemConnection(etHost, etName, etPort), etStationName, capacity, leased,
+                minChunk, maxChunk, maxWaitMicros, waitStrategy, consumerCount, roundRobin, merge);
+    }
+
+    /**
+     * Reads from an ET system, or from a {@link LocalEtSystem} stand-in.
+     *
+     * @param connection ET system to open
+     * @see #CodaETReader(String, String, int, String, int, boolean, int, int, int, String, int, boolean, boolean)
+     */
+    public CodaETReader(EtConnection connection, String etStationName, int capacity,
+                        boolean leased, int minChunk, int maxChunk, int maxWaitMicros,
+                        String waitStrategy, int consumerCount, boolean roundRobin, boolean merge) {
+        consumerCount = Math.max(consumerCount, 1);
+        this.etSystem = connection;
+        // Ring staff
+        int ringSize = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.ring = new EtRing(ringSize, waitStrategy(waitStrategy), consumerCount);
+        this.leased = leased;
+        this.maxWaitMicros = maxWaitMicros;
+        // a chunk stays in the merger until all of its events are published
+        if (merge && consumerCount > 1) {
+            merger = new EtFrameMerger(this, consumerCount, 2 * consumerCount * maxChunk);
+        }
 
         // ET staff
-        EtSystemOpenConfig config = new EtSystemOpenConfig();
-        System.out.println("Connecting to local "+etName+" ET system.");
+        System.out.println("Connecting to " + connection + " ET system.");
         try {
-            config.setNetworkContactMethod(EtConstants.direct);
-            if(etHost.equalsIgnoreCase("localhost")) {
-                config.setHost(EtConstants.hostLocal);
-                config.setWaitTime(0);
-            } else {
-                config.setHost(etHost);
-                config.setWaitTime(2000);
-            }
-            config.setTcpPort(etPort); // e.g. 23911
-            config.setEtName(etName);
-            // create ET system object with verbose debugging output
-            etSystem = new EtSystem(config);
             etSystem.open();
             System.out.println("Connected to ET.");
 
-            // Create station after all other stations
-            EtStationConfig statConfig = new EtStationConfig();
-            EtStation station = etSystem.createStation(statConfig, etStationName, EtConstants.end, EtConstants.end);
-
-            // Attach to new station
-            etAttachment = etSystem.attach(station);
-            System.out.println("Created and attached to the "+ station+" station.");
+            // Create stations after all other stations and attach to them
+            etSystem.attach(etStationName, consumerCount, roundRobin);
+            consumers = new EtConsumer[consumerCount];
+            consumerCounts = new long[consumerCount];
+            for (int i = 0; i < consumerCount; i++) {
+                consumers[i] = new EtConsumer(i, this, etSystem, new EtChunkSizer(minChunk, maxChunk));
+                System.out.println("Created and attached to the "+ etSystem.describe(i)+" station.");
+            }
             // keep track of time
             t1 = System.currentTimeMillis();
         } catch (Exception ex) {
@@ -90,87 +170,80 @@ public class CodaETReader implements IASource, Runnable {
             ex.printStackTrace();
         }
 
-        // Starting ET consumer thread
-        Thread thread = new Thread(this);
-        thread.start();
+        // Starting ET consumer threads
+        for (EtConsumer consumer : consumers) {
+            Thread thread = new Thread(consumer, "et-consumer-" + consumer.getId());
+            thread.start();
+        }
     }
 
-    /**
-     * Gets a single event from an ET entry buffer
-     *
-     * @return event as a ByteBuffer
-     */
-    private ByteBuffer getEtEntryBuffer() {
-
-        // Get event's data buffer
-        ByteBuffer buf = etEvents[evtCount].getDataBuffer();
-        // Data length in bytes
-        // Data length from ET in bytes
-        int dataLength = etEvents[evtCount].getLength();
-        bytes += dataLength;
-        totalBytes += dataLength;
-
-        // Increment ET entry buffer event count
-        evtCount++;
+    EtRing getRing() {
+        return ring;
+    }
 
-        return buf;
+    EtFrameMerger getMerger() {
+        return merger;
     }
 
+    int getMaxWaitMicros() {
+        return maxWaitMicros;
+    }
 
-    public byte[] nextEtEvent() {
-        ByteBuffer bufo;
-        try {
-            if ((etEvents == null) || (evtCount == etEvents.length)) {
+    boolean isRunning() {
+        return running.get();
+    }
 
-                // Put events back into ET system if we're done with all chunk of them
-                if (evtCount > 0 && etEvents != null) {
-                    etSystem.putEvents(etAttachment, etEvents);
-                    count += evtCount;
-                }
+    /**
+     * Claims a ring slot, returning released chunks while the ring is full.
+     */
+    long claim() {
+        return ring.claim(returnReleased);
+    }
 
-                // Get chunk more events (ET buffer) from ET system
-                etEvents = etSystem.getEvents(etAttachment, Mode.SLEEP, Modify.ANYTHING, 0, chunk);
-                evtCount = 0;
-            }
+    /**
+     * @return current number of events to get from the ET at once
+     */
+    public int getChunkSize() {
+        return consumers[0].chunkSizer.getChunk();
+    }
 
-            // Get a single event from the ET entry buffer
-            bufo = getEtEntryBuffer();
-            assert bufo != null;
-            return copyBytes(bufo.array());
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            throw new RuntimeException();
-        }
+    /**
+     * @return number of ET attachments drained in parallel
+     */
+    public int getConsumerCount() {
+        return consumers.length;
     }
-   public ByteBuffer nextEtBuffer() {
-        try {
-            if ((etEvents == null) || (evtCount == etEvents.length)) {
 
-                // Put events back into ET system if we're done with all chunk of them
-                if (evtCount > 0 && etEvents != null) {
-                    etSystem.putEvents(etAttachment, etEvents);
-                    count += evtCount;
-                }
-                // Get chunk more events (ET buffer) from ET system
-                etEvents = etSystem.getEvents(etAttachment, Mode.SLEEP, Modify.ANYTHING, 0, chunk);
-                evtCount = 0;
-            }
+    public boolean isLeased() {
+        return leased;
+    }
 
-            // Get a single event from the ET entry buffer
-            return  getEtEntryBuffer();
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
-            throw new RuntimeException();
-        }
+    /**
+     * @return lease and return latencies of the ET chunks in leased mode
+     */
+    public EtLeaseMetrics getLeaseMetrics() {
+        return leaseMetrics;
     }
 
+    /**
+     * @return in leased mode the {@link EtEventLease}, which the caller must release,
+     * otherwise a copy of the event; null once the reader is closed
+     */
     @Override
     public Object nextEvent() {
+        EtEventLease slot;
         try {
-             return dequeue();
+            slot = ring.take();
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        if (slot == null || leased) {
+            return slot;
+        }
+        // the copy made by the consumer thread is not touched once the slot is released
+        ByteBuffer copy = slot.getBuffer();
+        slot.release();
+        return copy;
     }
 
     @Override
@@ -187,13 +260,7 @@ public class CodaETReader implements IASource, Runnable {
     public void close() {
         etSystem.close();
         running.set(false);
-    }
-    public void enqueue(ByteBuffer buffer) throws InterruptedException {
-        queue.put(buffer); // Blocks if the queue is full
-    }
-
-    public ByteBuffer dequeue() throws InterruptedException {
-        return queue.take(); // Blocks if the queue is empty
+        ring.halt();
     }
 
 
@@ -203,6 +270,23 @@ public class CodaETReader implements IASource, Runnable {
         long time = t2 - t1;
 
         if (time > 5000) {
+            // counts since the last report, per consumer and in total
+            long[] counts = new long[consumers.length];
+            long allEvents = 0L;
+            long allBytes = 0L;
+            for (int i = 0; i < consumers.length; i++) {
+                long n = consumers[i].events.sum();
+                counts[i] = n - consumerCounts[i];
+                consumerCounts[i] = n;
+                allEvents += n;
+                allBytes += consumers[i].bytes.sum();
+            }
+            count = allEvents - lastEvents;
+            bytes = allBytes - lastBytes;
+            totalBytes += bytes;
+            lastEvents = allEvents;
+            lastBytes = allBytes;
+
             // reset things if necessary
             if ((totalCount >= (Long.MAX_VALUE - count)) ||
                     (totalT >= (Long.MAX_VALUE - time))) {
@@ -224,20 +308,20 @@ public class CodaETReader implements IASource, Runnable {
             avgRate = ((double) totalBytes) / totalT;
             System.out.println("  Data = " + String.format("%.3g", rate) +
                     " kB/s,  avg = " + String.format("%.3g", avgRate) + "\n");
+            if (consumers.length > 1) {
+                // Per attachment event rates
+                for (int i = 0; i < consumers.length; i++) {
+                    System.out.println("  Attachment " + i + " = " +
+                            String.format("%.3g", 1000.0 * counts[i] / time) + " Hz");
+                }
+                System.out.println();
+            }
+            if (leased) {
+                System.out.println(leaseMetrics + "\n");
+            }
 
             bytes = count = 0L;
             t1 = System.currentTimeMillis();
         }
     }
-
-    @Override
-    public void run() {
-        while (running.get()) {
-            try {
-                enqueue(nextEtBuffer());
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
-    }
 }
@@ -0,0 +1,77 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+/**
+ * Chooses the number of events the {@link CodaETReader} asks for in each {@code getEvents}.
+ * <p>
+ * The size follows the observed arrival rate, so that one call covers about
+ * {@link #BATCH_PERIOD_NANOS} worth of events: large chunks at high rates cut the per-call
+ * overhead, small chunks at low rates keep events from waiting behind each other.
+ * When the reader ring is more than half full the size is scaled down with the free
+ * space of the ring, so that events the pipeline can not take yet stay in the ET.
+ * The size is always kept within the configured bounds.
+ */
+final class EtChunkSizer {
+    // Time covered by one chunk at the observed arrival rate
+    static final long BATCH_PERIOD_NANOS = 1_000_000L;
+    // Weight of the latest rate measurement
+    private static final double RATE_WEIGHT = 0.2;
+
+    private final int min;
+    private final int max;
+    private int chunk;
+    // events per ns
+    private double rate;
+    private long lastTime;
+
+    EtChunkSizer(int min, int max) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("invalid ET chunk bounds: " + min + ", " + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.chunk = min;
+    }
+
+    int getChunk() {
+        return chunk;
+    }
+
+    int getMin() {
+        return min;
+    }
+
+    int getMax() {
+        return max;
+    }
+
+    /**
+     * Updates the chunk size after a {@code getEvents} call.
+     *
+     * @param received      number of events received, 0 if the call timed out, which
+     *                      resets the size to the minimum
+     * @param now           time of the end of the call, in ns
+     * @param queueSize     number of events in the ring, not yet released
+     * @param queueCapacity number of ring slots
+     * @return size of the next chunk
+     */
+    int update(int received, long now, int queueSize, int queueCapacity) {
+        if (min == max) return chunk;
+        if (lastTime != 0 && now > lastTime) {
+            double r = (double) received / (now - lastTime);
+            rate = rate == 0 ? r : rate + RATE_WEIGHT * (r - rate);
+        }
+        lastTime = now;
+        if (received == 0) {
+            // timed out, the beam is off
+            chunk = min;
+            return chunk;
+        }
+
+        double target = rate * BATCH_PERIOD_NANOS;
+        if (queueCapacity > 0 && 2 * queueSize > queueCapacity) {
+            target *= (double) (queueCapacity - queueSize) / queueCapacity;
+        }
+        chunk = (int) Math.max(min, Math.min(max, Math.round(target)));
+        return chunk;
+    }
+}
@@ -0,0 +1,57 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import org.jlab.coda.et.EtEvent;
+
+import java.util.List;
+
+/**
+ * The part of the ET API used by the {@link CodaETReader}.
+ * <p>
+ * {@link EtSystemConnection} connects to a real ET system, {@link LocalEtSystem} is an
+ * in-process stand-in for testing the ET source path without one. Attachments are
+ * numbered from 0 in the order they were made.
+ */
+public interface EtConnection {
+
+    /**
+     * Opens the ET system.
+     */
+    void open() throws Exception;
+
+    /**
+     * Creates the station, or a group of parallel round-robin stations, after all
+     * other stations and attaches to it.
+     *
+     * @param stationName name of the station, or prefix of the round-robin station names
+     * @param count       number of attachments
+     * @param roundRobin  if true each attachment gets its own station of the group
+     */
+    void attach(String stationName, int count, boolean roundRobin) throws Exception;
+
+    /**
+     * Gets events from the ET.
+     *
+     * @param attachment attachment number
+     * @param waitMicros longest wait for events, 0 sleeps until events arrive
+     * @param count      largest number of events to get
+     * @return events, null if the wait timed out
+     */
+    EtEvent[] getEvents(int attachment, int waitMicros, int count) throws Exception;
+
+    /**
+     * Puts events back into the ET.
+     */
+    void putEvents(int attachment, EtEvent[] events) throws Exception;
+
+    /**
+     * Puts events back into the ET.
+     */
+    void putEvents(int attachment, List<EtEvent> events) throws Exception;
+
+    /**
+     * @return description of the station an attachment is made to
+     */
+    String describe(int attachment);
+
+    void close();
+}
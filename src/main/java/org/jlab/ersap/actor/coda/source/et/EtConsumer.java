@@ -0,0 +1,176 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import org.jlab.coda.et.EtEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Consumer thread of the {@link CodaETReader}, draining one ET attachment.
+ * <p>
+ * Events are published to the reader's {@link EtRing}, directly or through the
+ * {@link EtFrameMerger} when the time frame order of several consumers is restored.
+ * Chunks whose events are all released are put back into the ET by this thread,
+ * or by any thread waiting for ring space.
+ */
+final class EtConsumer implements Runnable {
+    // Time to wait for ET events before returning released chunks
+    static final int LEASE_WAIT_MICROS = 10000;
+
+    private final int id;
+    private final CodaETReader reader;
+    private final EtConnection etSystem;
+    // Number of ET buffers to get from the ET at once, adapted to the rate and ring occupancy
+    final EtChunkSizer chunkSizer;
+    // Chunks whose events are all released
+    private final ConcurrentLinkedQueue<EtEventLease.Chunk> released = new ConcurrentLinkedQueue<>();
+    // Events of the released chunks, put back into the ET in a single call
+    private final List<EtEvent> returning = new ArrayList<>();
+
+    // Statistics, read by the reader thread printing them
+    final LongAdder events = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+
+    /**
+     * @param id attachment number of the consumer
+     */
+    EtConsumer(int id, CodaETReader reader, EtConnection etSystem, EtChunkSizer chunkSizer) {
+        this.id = id;
+        this.reader = reader;
+        this.etSystem = etSystem;
+        this.chunkSizer = chunkSizer;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Gets the next chunk of events and adapts the chunk size.
+     *
+     * @param waitMicros longest wait for events, 0 sleeps until events arrive
+     * @return events, null if the wait timed out
+     */
+    EtEvent[] getEtEvents(int waitMicros) throws Exception {
+        EtEvent[] chunk = etSystem.getEvents(id, waitMicros, chunkSizer.getChunk());
+        EtRing ring = reader.getRing();
+        chunkSizer.update(chunk == null ? 0 : chunk.length, System.nanoTime(),
+                ring.occupancy(), ring.size());
+        if (chunk != null) {
+            events.add(chunk.length);
+            for (EtEvent event : chunk) {
+                bytes.add(event.getLength());
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * Gets a chunk of events from the ET and publishes a lease for each of them.
+     * Chunks released in the meantime are put back into the ET first.
+     */
+    private void leaseEtChunk() throws Exception {
+        returnReleasedChunks();
+        EtEvent[] chunk = getEtEvents(waitMicros(true));
+        if (chunk == null) {
+            if (reader.getMerger() != null) reader.getMerger().poll();
+            return;
+        }
+        EtEventLease.Chunk c = new EtEventLease.Chunk(this, chunk);
+        reader.getLeaseMetrics().leased();
+        EtFrameMerger merger = reader.getMerger();
+        for (EtEvent event : chunk) {
+            if (merger != null) {
+                merger.offer(id, c, event);
+            } else {
+                reader.getRing().publishLease(reader.claim(), c, event.getDataBuffer(), event.getLength());
+            }
+        }
+    }
+
+    /**
+     * Gets a chunk of events from the ET and copies them into ring slots. Without a merger
+     * the chunk goes back into the ET right away, otherwise once all its events are merged.
+     */
+    private void copyEtChunk() throws Exception {
+        EtFrameMerger merger = reader.getMerger();
+        if (merger != null) returnReleasedChunks();
+        EtEvent[] chunk = getEtEvents(waitMicros(merger != null));
+        if (chunk == null) {
+            if (merger != null) merger.poll();
+            return;
+        }
+        if (merger != null) {
+            EtEventLease.Chunk c = new EtEventLease.Chunk(this, chunk);
+            for (EtEvent event : chunk) {
+                merger.offer(id, c, event);
+            }
+            return;
+        }
+        for (EtEvent event : chunk) {
+            reader.getRing().publishCopy(reader.claim(), event.getDataBuffer(), event.getLength());
+        }
+        etSystem.putEvents(id, chunk);
+    }
+
+    /**
+     * @param periodic if true the wait is limited, so that released chunks and the
+     *                 merger are looked after while no events arrive
+     */
+    private int waitMicros(boolean periodic) {
+        int maxWait = reader.getMaxWaitMicros();
+        if (!periodic) return maxWait;
+        return maxWait > 0 ? Math.min(maxWait, LEASE_WAIT_MICROS) : LEASE_WAIT_MICROS;
+    }
+
+    void chunkReleased(EtEventLease.Chunk c) {
+        released.add(c);
+    }
+
+    /**
+     * Puts the chunks released since the last call back into the ET, in a single call.
+     * Called by this consumer and by other threads waiting for ring space.
+     */
+    synchronized void returnReleasedChunks() throws Exception {
+        if (released.isEmpty()) return;
+        // Drain a snapshot, chunks released meanwhile go with the next call
+        int n = released.size();
+        EtEventLease.Chunk[] chunks = new EtEventLease.Chunk[n];
+        int k = 0;
+        EtEventLease.Chunk c;
+        while (k < n && (c = released.poll()) != null) {
+            chunks[k++] = c;
+            for (EtEvent event : c.events) {
+                returning.add(event);
+            }
+        }
+        etSystem.putEvents(id, returning);
+        returning.clear();
+        if (!reader.isLeased()) return;
+        long now = System.nanoTime();
+        for (int i = 0; i < k; i++) {
+            reader.getLeaseMetrics().returned(chunks[i].releaseTime - chunks[i].leaseTime,
+                    now - chunks[i].releaseTime);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (reader.isRunning()) {
+            try {
+                if (reader.isLeased()) {
+                    leaseEtChunk();
+                } else {
+                    copyEtChunk();
+                }
+                // the rates of all attachments are reported by the first consumer
+                if (id == 0) reader.printStatistics();
+            } catch (Exception e) {
+                System.out.println(e.getMessage());
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
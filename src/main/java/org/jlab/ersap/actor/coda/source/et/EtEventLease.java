@@ -0,0 +1,143 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import org.jlab.ersap.actor.coda.proc.EtEvent;
+import org.jlab.ersap.actor.coda.proc.EvioEventParser;
+import org.jlab.ersap.actor.util.IALease;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Slot of the {@link EtRing} through which the {@link CodaETReader} hands out ET events.
+ * <p>
+ * The slot either holds a copy of the event in a new heap buffer, which the reader hands
+ * out and which stays valid after the slot is released, or, in leased mode, the ET
+ * system's own data buffer, which stays valid until {@link #release()} is called, after
+ * which the slot is reused. In leased mode
+ * the events of a chunk go back to the ET system with a single {@code putEvents} once every
+ * event of the chunk is released. A consumer must release every slot it takes, and must
+ * not touch the buffer afterwards.
+ */
+public final class EtEventLease implements IALease {
+    private final EtRing ring;
+    private final AtomicBoolean released = new AtomicBoolean(true);
+    private long sequence;
+    private ByteBuffer buffer;
+    // Leased ET events, null if the slot holds a copy
+    private Chunk chunk;
+
+    EtEventLease(EtRing ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * Decodes an ET or socket source event, releasing it if it is leased.
+     *
+     * @param data   event read from the source, either a ByteBuffer or a lease, or an event
+     *               already decoded by the source, e.g. built from several ROC streams
+     * @param parser parser used to decode the event
+     * @return decoded event
+     */
+    public static EtEvent parse(EvioEventParser parser, Object data) throws Exception {
+        if (data instanceof EtEvent) {
+            return (EtEvent) data;
+        }
+        if (data instanceof IALease) {
+            IALease lease = (IALease) data;
+            try {
+                return parser.parseEtEvent(lease.getBuffer());
+            } finally {
+                lease.release();
+            }
+        }
+        return parser.parseEtEvent((ByteBuffer) data);
+    }
+
+    /**
+     * Leases the data buffer of an ET event. The lease gets a view of the ET buffer
+     * limited to the event data, the ET buffer itself is not changed.
+     */
+    void lease(long sequence, Chunk chunk, ByteBuffer etBuffer, int length) {
+        ByteBuffer view = etBuffer.duplicate().order(etBuffer.order());
+        view.clear().limit(length);
+        this.sequence = sequence;
+        this.chunk = chunk;
+        this.buffer = view;
+        released.set(false);
+    }
+
+    /**
+     * Copies an ET event into a new heap buffer. The copy is the only one made of the event:
+     * the reader hands the buffer out as it is.
+     */
+    void copy(long sequence, ByteBuffer etBuffer, int length) {
+        ByteBuffer copy = ByteBuffer.allocate(length).order(etBuffer.order());
+        if (etBuffer.hasArray()) {
+            copy.put(etBuffer.array(), etBuffer.arrayOffset(), length);
+        } else {
+            ByteBuffer src = etBuffer.duplicate();
+            src.clear().limit(length);
+            copy.put(src);
+        }
+        copy.flip();
+        this.sequence = sequence;
+        this.chunk = null;
+        this.buffer = copy;
+        released.set(false);
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Ends the lease. Calling it more than once has no effect.
+     */
+    @Override
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            Chunk c = chunk;
+            chunk = null;
+            if (c != null) {
+                c.releaseOne();
+            }
+            ring.released();
+        }
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    /**
+     * Events of one {@code getEvents} call, returned together once all leases end,
+     * or, when they are copied, once all of them are copied.
+     */
+    static final class Chunk {
+        final org.jlab.coda.et.EtEvent[] events;
+        final long leaseTime;
+        long releaseTime;
+        private final AtomicInteger outstanding;
+        private final EtConsumer consumer;
+
+        Chunk(EtConsumer consumer, org.jlab.coda.et.EtEvent[] events) {
+            this.consumer = consumer;
+            this.events = events;
+            this.outstanding = new AtomicInteger(events.length);
+            this.leaseTime = System.nanoTime();
+        }
+
+        void releaseOne() {
+            if (outstanding.decrementAndGet() == 0) {
+                releaseTime = System.nanoTime();
+                consumer.chunkReleased(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import org.jlab.coda.et.EtEvent;
+import org.jlab.ersap.actor.coda.proc.EvioBufferParser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Restores the time frame order of ET events read by several {@link EtConsumer}s.
+ * <p>
+ * Each consumer gets its events in frame order, so the merger keeps a queue per consumer
+ * and publishes the event with the lowest frame number, taken from the TSS segment of its
+ * first time frame, once every consumer has an event waiting. A consumer that is ahead
+ * of the others waits once it has its share of the window waiting, and stops taking events
+ * from the ET. When a consumer falls behind, events are published anyway after
+ * {@link #MAX_LAG_NANOS}. Control events keep the frame number of the event before them,
+ * so they stay in place within their consumer's stream.
+ * <p>
+ * Events are merged under the merger's lock but published to the ring outside of it, by
+ * one consumer at a time, so that a consumer waiting for ring space does not hold up the
+ * others.
+ */
+final class EtFrameMerger {
+    // Longest time an event waits for the other consumers
+    static final long MAX_LAG_NANOS = 50_000_000L;
+
+    private final CodaETReader reader;
+    private final List<ArrayDeque<Pending>> queues;
+    // Merged events, in order, waiting to be published
+    private final ArrayDeque<Pending> merged = new ArrayDeque<>();
+    private final ReentrantLock publishing = new ReentrantLock();
+    private final long[] lastFrame;
+    // Events a consumer may have waiting before it waits itself
+    private final int share;
+    private int pending;
+
+    /**
+     * @param consumers number of consumers
+     * @param window    largest number of waiting events
+     */
+    EtFrameMerger(CodaETReader reader, int consumers, int window) {
+        this.reader = reader;
+        this.queues = new ArrayList<>(consumers);
+        for (int i = 0; i < consumers; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+        this.lastFrame = new long[consumers];
+        Arrays.fill(lastFrame, -1);
+        this.share = Math.max(window / consumers, 1);
+    }
+
+    /**
+     * Adds an event of a consumer and publishes the events that are in order.
+     * Waits while the consumer has its share of the window waiting.
+     */
+    void offer(int consumer, EtEventLease.Chunk chunk, EtEvent event) {
+        long frame = EvioBufferParser.firstFrameNumber(event.getDataBuffer());
+        synchronized (this) {
+            if (frame < 0) {
+                frame = lastFrame[consumer];
+            } else {
+                lastFrame[consumer] = frame;
+            }
+            ArrayDeque<Pending> queue = queues.get(consumer);
+            queue.add(new Pending(frame, chunk, event));
+            pending++;
+            drain();
+            while (queue.size() > share && reader.isRunning()) {
+                long lag = MAX_LAG_NANOS - (System.nanoTime() - queue.peek().time);
+                if (lag > 0) {
+                    try {
+                        wait(lag / 1_000_000L, (int) (lag % 1_000_000L));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                drain();
+            }
+        }
+        publishMerged();
+    }
+
+    /**
+     * Publishes the events that waited too long. Called by idle consumers.
+     */
+    void poll() {
+        synchronized (this) {
+            drain();
+        }
+        publishMerged();
+    }
+
+    private void drain() {
+        while (pending > 0) {
+            int next = -1;
+            boolean all = true;
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < queues.size(); i++) {
+                Pending p = queues.get(i).peek();
+                if (p == null) {
+                    all = false;
+                    continue;
+                }
+                oldest = Math.min(oldest, p.time);
+                if (next < 0 || p.frame < queues.get(next).peek().frame) {
+                    next = i;
+                }
+            }
+            if (!all && System.nanoTime() - oldest < MAX_LAG_NANOS) return;
+            merged.add(queues.get(next).poll());
+            pending--;
+            notifyAll();
+        }
+    }
+
+    private synchronized Pending nextMerged() {
+        return merged.poll();
+    }
+
+    private synchronized boolean hasMerged() {
+        return !merged.isEmpty();
+    }
+
+    /**
+     * Publishes the merged events in order. Claiming ring space may wait, so this is done
+     * without the merger's lock, by one thread at a time; the others leave the events to it.
+     */
+    private void publishMerged() {
+        while (hasMerged() && publishing.tryLock()) {
+            try {
+                Pending p;
+                while ((p = nextMerged()) != null) {
+                    publish(p);
+                }
+            } finally {
+                publishing.unlock();
+            }
+        }
+    }
+
+    private void publish(Pending p) {
+        EtRing ring = reader.getRing();
+        if (reader.isLeased()) {
+            ring.publishLease(reader.claim(), p.chunk, p.event.getDataBuffer(), p.event.getLength());
+        } else {
+            ring.publishCopy(reader.claim(), p.event.getDataBuffer(), p.event.getLength());
+            p.chunk.releaseOne();
+        }
+    }
+
+    private static final class Pending {
+        final long frame;
+        final long time = System.nanoTime();
+        final EtEventLease.Chunk chunk;
+        final EtEvent event;
+
+        Pending(long frame, EtEventLease.Chunk chunk, EtEvent event) {
+            this.frame = frame;
+            this.chunk = chunk;
+            this.event = event;
+        }
+    }
+}
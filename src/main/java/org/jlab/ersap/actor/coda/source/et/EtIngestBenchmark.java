@@ -0,0 +1,89 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import org.jlab.ersap.actor.coda.proc.EtEvent;
+import org.jlab.ersap.actor.coda.proc.EvioEventParser;
+import org.jlab.ersap.actor.coda.proc.RocTimeFrameBank;
+import org.jlab.ersap.actor.coda.source.sim.TimeFrameGenerator;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the throughput of the ET ingest and decode path, {@link CodaETReader} followed by
+ * the direct {@link EvioEventParser}, fed by a {@link LocalEtSystem}, with no ET system,
+ * DAQ or network. The reader is drained by one thread, as by the source engine, and the
+ * events are decoded by a pool of threads, as by the ERSAP service threads.
+ */
+public class EtIngestBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java EtIngestBenchmark <seconds> [evio file, or - for synthetic]"
+                    + " [ET events per second, 0 for no limit] [ET consumers] [lease yes/no]"
+                    + " [decoding threads]");
+            return;
+        }
+        int seconds = Integer.parseInt(args[0]);
+        String fileName = args.length > 1 ? args[1] : "-";
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        int consumers = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        boolean leased = args.length > 4 && args[4].equalsIgnoreCase("yes");
+        int decoders = args.length > 5 ? Integer.parseInt(args[5]) : 4;
+
+        LocalEtSystem et;
+        if (fileName.equals("-")) {
+            TimeFrameGenerator generator = new TimeFrameGenerator(4, 8, 100_000, 1);
+            generator.setFramesPerBuffer(4);
+            et = new LocalEtSystem(generator.nextBuffers(1000), rate);
+        } else {
+            et = LocalEtSystem.fromFile(fileName, rate);
+        }
+
+        CodaETReader reader = new CodaETReader(et, "ersap", 1024, leased, 1, 100, 0,
+                "blocking", consumers, consumers > 1, false);
+        EvioEventParser parser = new EvioEventParser(false);
+        parser.setDirectDecoding(true);
+
+        AtomicLong events = new AtomicLong();
+        AtomicLong frames = new AtomicLong();
+        AtomicLong hits = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(decoders);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < end) {
+            Object item = reader.nextEvent();
+            if (item == null) break;
+            pool.execute(() -> {
+                try {
+                    EtEvent evt = EtEventLease.parse(parser, item);
+                    if (evt == null) return;
+                    for (List<RocTimeFrameBank> frame : evt.getTimeFrames()) {
+                        frames.incrementAndGet();
+                        for (RocTimeFrameBank bank : frame) {
+                            hits.addAndGet(bank.getHitBatch().size());
+                        }
+                    }
+                    events.incrementAndGet();
+                } catch (Exception e) {
+                    System.out.println(e.getMessage());
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        double time = (System.nanoTime() - start) / 1e9;
+        reader.close();
+
+        System.out.println("ET events = " + String.format("%.3g", events.get() / time) + " Hz" +
+                ",  time frames = " + String.format("%.3g", frames.get() / time) + " Hz" +
+                ",  hits = " + String.format("%.3g", hits.get() / time) + " Hz");
+        if (leased) {
+            System.out.println(reader.getLeaseMetrics());
+        }
+        System.exit(0);
+    }
+}
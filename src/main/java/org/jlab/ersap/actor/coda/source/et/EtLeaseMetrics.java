@@ -0,0 +1,75 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies of the ET chunks leased by the {@link CodaETReader}.
+ * <p>
+ * The lease latency of a chunk is the time from {@code getEvents} until its last event is
+ * released by the consumers. The return latency is the time from that last release until
+ * {@code putEvents} has given the chunk back to the ET system.
+ */
+public final class EtLeaseMetrics {
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder leaseNanos = new LongAdder();
+    private final LongAccumulator maxLeaseNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder returnNanos = new LongAdder();
+    private final LongAccumulator maxReturnNanos = new LongAccumulator(Math::max, 0);
+    private final AtomicLong outstanding = new AtomicLong();
+
+    void leased() {
+        outstanding.incrementAndGet();
+    }
+
+    void returned(long leaseNs, long returnNs) {
+        outstanding.decrementAndGet();
+        chunks.increment();
+        leaseNanos.add(leaseNs);
+        maxLeaseNanos.accumulate(leaseNs);
+        returnNanos.add(returnNs);
+        maxReturnNanos.accumulate(returnNs);
+    }
+
+    /**
+     * @return number of chunks returned to the ET system
+     */
+    public long getReturnedChunks() {
+        return chunks.sum();
+    }
+
+    /**
+     * @return number of chunks taken from the ET system and not yet returned
+     */
+    public long getOutstandingChunks() {
+        return outstanding.get();
+    }
+
+    public double getMeanLeaseMicros() {
+        long n = chunks.sum();
+        return n == 0 ? 0 : leaseNanos.sum() / 1000.0 / n;
+    }
+
+    public double getMaxLeaseMicros() {
+        return maxLeaseNanos.get() / 1000.0;
+    }
+
+    public double getMeanReturnMicros() {
+        long n = chunks.sum();
+        return n == 0 ? 0 : returnNanos.sum() / 1000.0 / n;
+    }
+
+    public double getMaxReturnMicros() {
+        return maxReturnNanos.get() / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "  Lease = " + String.format("%.3g", getMeanLeaseMicros()) +
+                " us,  max = " + String.format("%.3g", getMaxLeaseMicros()) +
+                " us,  return = " + String.format("%.3g", getMeanReturnMicros()) +
+                " us,  max = " + String.format("%.3g", getMaxReturnMicros()) +
+                " us,  outstanding chunks = " + getOutstandingChunks();
+    }
+}
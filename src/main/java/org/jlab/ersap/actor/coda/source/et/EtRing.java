@@ -0,0 +1,129 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import com.lmax.disruptor.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.lmax.disruptor.RingBuffer.createMultiProducer;
+import static com.lmax.disruptor.RingBuffer.createSingleProducer;
+
+/**
+ * Preallocated ring of {@link EtEventLease} slots between the ET reader threads and the
+ * source engine. The ring is single producer unless several ET consumers publish to it.
+ * <p>
+ * The consumer takes slots in order, but the decoding engines may release them in any
+ * order. A slot is only reused once it and every slot before it are released, so the
+ * number of events in flight, and the memory they use, is bounded by the ring size.
+ */
+final class EtRing {
+    // Pause of the producer while the ring is full
+    private static final long FULL_PARK_NANOS = 10_000L;
+
+    private final RingBuffer<EtEventLease> ring;
+    private final SequenceBarrier barrier;
+    // Last slot taken by the consumer
+    private final Sequence consumed = new Sequence(RingBuffer.INITIAL_CURSOR_VALUE);
+    // Last slot that is released together with all slots before it, gates the producer
+    private final Sequence releasedUpTo = new Sequence(RingBuffer.INITIAL_CURSOR_VALUE);
+
+    /**
+     * @param size         number of slots, a power of 2
+     * @param waitStrategy consumer wait strategy
+     * @param producers    number of threads publishing to the ring
+     */
+    EtRing(int size, WaitStrategy waitStrategy, int producers) {
+        ring = producers > 1
+                ? createMultiProducer(() -> new EtEventLease(this), size, waitStrategy)
+                : createSingleProducer(() -> new EtEventLease(this), size, waitStrategy);
+        ring.addGatingSequences(releasedUpTo);
+        barrier = ring.newBarrier();
+    }
+
+    /**
+     * Claims the next slot, waiting while the ring is full.
+     *
+     * @param whileFull called while waiting, e.g. to return released ET chunks
+     * @return sequence of the claimed slot
+     */
+    long claim(Runnable whileFull) {
+        while (true) {
+            try {
+                return ring.tryNext();
+            } catch (InsufficientCapacityException e) {
+                whileFull.run();
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Publishes a copy of an ET event.
+     */
+    void publishCopy(long sequence, ByteBuffer etBuffer, int length) {
+        ring.get(sequence).copy(sequence, etBuffer, length);
+        ring.publish(sequence);
+    }
+
+    /**
+     * Publishes a leased ET event.
+     */
+    void publishLease(long sequence, EtEventLease.Chunk chunk, ByteBuffer etBuffer, int length) {
+        ring.get(sequence).lease(sequence, chunk, etBuffer, length);
+        ring.publish(sequence);
+    }
+
+    /**
+     * Takes the next published slot, waiting for it with the ring's wait strategy.
+     * Single consumer.
+     *
+     * @return the slot, null if the wait was stopped by {@link #halt()}
+     */
+    EtEventLease take() throws InterruptedException {
+        long next = consumed.get() + 1;
+        try {
+            // With several producers a slot can be claimed, moving the cursor, before it is
+            // published, and the barrier then returns the last published sequence
+            while (barrier.waitFor(next) < next) {
+                Thread.onSpinWait();
+            }
+        } catch (AlertException | TimeoutException e) {
+            return null;
+        }
+        EtEventLease slot = ring.get(next);
+        consumed.set(next);
+        return slot;
+    }
+
+    /**
+     * Moves the released mark over the consecutive released slots.
+     */
+    synchronized void released() {
+        long next = releasedUpTo.get() + 1;
+        long last = consumed.get();
+        while (next <= last) {
+            EtEventLease slot = ring.get(next);
+            if (slot.getSequence() != next || !slot.isReleased()) break;
+            next++;
+        }
+        releasedUpTo.set(next - 1);
+    }
+
+    /**
+     * @return number of slots published and not yet released
+     */
+    int occupancy() {
+        return (int) (ring.getBufferSize() - ring.remainingCapacity());
+    }
+
+    int size() {
+        return ring.getBufferSize();
+    }
+
+    /**
+     * Wakes up and stops a waiting consumer.
+     */
+    void halt() {
+        barrier.alert();
+    }
+}
@@ -0,0 +1,110 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import org.jlab.coda.et.*;
+import org.jlab.coda.et.enums.Mode;
+import org.jlab.coda.et.enums.Modify;
+import org.jlab.coda.et.exception.EtTimeoutException;
+
+import java.util.List;
+
+/**
+ * Connection to an ET system, local or on a remote host.
+ */
+public class EtSystemConnection implements EtConnection {
+    private final String etHost;
+    private final String etName;
+    private final int etPort;
+    private EtSystem etSystem;
+    private EtAttachment[] attachments = new EtAttachment[0];
+
+    public EtSystemConnection(String etHost, String etName, int etPort) {
+        this.etHost = etHost;
+        this.etName = etName;
+        this.etPort = etPort;
+    }
+
+    @Override
+    public void open() throws Exception {
+        EtSystemOpenConfig config = new EtSystemOpenConfig();
+        config.setNetworkContactMethod(EtConstants.direct);
+        if(etHost.equalsIgnoreCase("localhost")) {
+            config.setHost(EtConstants.hostLocal);
+            config.setWaitTime(0);
+        } else {
+            config.setHost(etHost);
+            config.setWaitTime(2000);
+        }
+        config.setTcpPort(etPort); // e.g. 23911
+        config.setEtName(etName);
+        // create ET system object with verbose debugging output
+        etSystem = new EtSystem(config);
+        etSystem.open();
+    }
+
+    @Override
+    public void attach(String stationName, int count, boolean roundRobin) throws Exception {
+        EtStation[] stations = new EtStation[count];
+        if (roundRobin && count > 1) {
+            // Group of parallel stations after all other stations, sharing events round robin
+            EtStationConfig statConfig = new EtStationConfig();
+            statConfig.setFlowMode(EtConstants.stationParallel);
+            statConfig.setSelectMode(EtConstants.stationSelectRRobin);
+            stations[0] = etSystem.createStation(statConfig, stationName + "_0",
+                    EtConstants.end, EtConstants.end);
+            int position = etSystem.getStationPosition(stations[0]);
+            for (int i = 1; i < count; i++) {
+                stations[i] = etSystem.createStation(statConfig, stationName + "_" + i,
+                        position, EtConstants.end);
+            }
+        } else {
+            // Create station after all other stations
+            EtStationConfig statConfig = new EtStationConfig();
+            EtStation station = etSystem.createStation(statConfig, stationName, EtConstants.end, EtConstants.end);
+            for (int i = 0; i < count; i++) {
+                stations[i] = station;
+            }
+        }
+        attachments = new EtAttachment[count];
+        for (int i = 0; i < count; i++) {
+            attachments[i] = etSystem.attach(stations[i]);
+        }
+    }
+
+    @Override
+    public EtEvent[] getEvents(int attachment, int waitMicros, int count) throws Exception {
+        try {
+            if (waitMicros > 0) {
+                return etSystem.getEvents(attachments[attachment], Mode.TIMED, Modify.ANYTHING,
+                        waitMicros, count);
+            }
+            return etSystem.getEvents(attachments[attachment], Mode.SLEEP, Modify.ANYTHING, 0, count);
+        } catch (EtTimeoutException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void putEvents(int attachment, EtEvent[] events) throws Exception {
+        etSystem.putEvents(attachments[attachment], events);
+    }
+
+    @Override
+    public void putEvents(int attachment, List<EtEvent> events) throws Exception {
+        etSystem.putEvents(attachments[attachment], events);
+    }
+
+    @Override
+    public String describe(int attachment) {
+        return String.valueOf(attachments[attachment].getStation());
+    }
+
+    @Override
+    public void close() {
+        if (etSystem != null) etSystem.close();
+    }
+
+    @Override
+    public String toString() {
+        return etName;
+    }
+}
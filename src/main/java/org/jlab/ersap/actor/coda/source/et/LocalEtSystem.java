@@ -0,0 +1,222 @@
+package org.jlab.ersap.actor.coda.source.et;
+
+import org.jlab.coda.et.EtEvent;
+import org.jlab.coda.et.EtEventImpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process stand-in for an ET system, for testing and benchmarking the ET source path
+ * without a DAQ, an ET system or a network.
+ * <p>
+ * Like a real ET system it has a fixed number of events. A producer thread fills the
+ * free events with the given evio buffers, replayed in a loop, at a given rate, and hands
+ * them to the station. The consumers get them with {@link #getEvents} and give them back
+ * with {@link #putEvents}, after which they are free again. When all events are taken the
+ * producer waits, as the CODA event builder does when the consumers fall behind.
+ * <p>
+ * The buffers can be made by the {@code TimeFrameGenerator}, or read from an evio file
+ * with {@link #fromFile(String, double)}, one ET event per record.
+ */
+public class LocalEtSystem implements EtConnection {
+    private static final int MAGIC_WORD = 0xc0da0100;
+
+    private final List<ByteBuffer> buffers;
+    // ET events per second, 0 for no limit
+    private final double rate;
+    private int eventCount = 1000;
+    // Number of ET events to produce, 0 to replay the buffers forever
+    private long limit;
+
+    private BlockingQueue<EtEvent> free;
+    // One input list per station
+    private List<BlockingQueue<EtEvent>> stations;
+    private int[] attachmentStation = new int[0];
+    private String stationName;
+    private Thread producer;
+    private volatile boolean running;
+    private final AtomicLong produced = new AtomicLong();
+
+    /**
+     * @param buffers evio buffers, each the content of one ET event
+     * @param rate    ET events per second, 0 for as fast as the consumers take them
+     */
+    public LocalEtSystem(List<ByteBuffer> buffers, double rate) {
+        if (buffers.isEmpty()) {
+            throw new IllegalArgumentException("no buffers to replay");
+        }
+        this.buffers = buffers;
+        this.rate = rate;
+    }
+
+    /**
+     * Replays the records of an evio-6 or evio-4 file, one ET event per record.
+     * Records without events are skipped.
+     */
+    public static LocalEtSystem fromFile(String fileName, double rate) throws IOException {
+        return new LocalEtSystem(readRecords(fileName), rate);
+    }
+
+    static List<ByteBuffer> readRecords(String fileName) throws IOException {
+        ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(Paths.get(fileName)));
+        if (file.remaining() < 32) throw new IOException("not an evio file: " + fileName);
+        if (file.getInt(28) != MAGIC_WORD) {
+            if (Integer.reverseBytes(file.getInt(28)) != MAGIC_WORD) {
+                throw new IOException("not an evio file: " + fileName);
+            }
+            file.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        int pos = 0;
+        if ((file.getInt(20) & 0xff) == 6) {
+            // skip the file header, its index array and user header
+            pos = file.getInt(8) * 4 + file.getInt(16) + ((file.getInt(24) + 3) & ~3);
+        }
+        List<ByteBuffer> records = new ArrayList<>();
+        while (file.limit() - pos >= 32 && file.getInt(pos + 28) == MAGIC_WORD) {
+            int recordBytes = file.getInt(pos) * 4;
+            if (recordBytes <= 0 || pos + recordBytes > file.limit()) break;
+            if (file.getInt(pos + 12) > 0) {
+                ByteBuffer record = ByteBuffer.allocate(recordBytes).order(file.order());
+                record.put(file.array(), pos, recordBytes).flip();
+                records.add(record);
+            }
+            pos += recordBytes;
+        }
+        if (records.isEmpty()) throw new IOException("no records in " + fileName);
+        return records;
+    }
+
+    /**
+     * @param eventCount number of ET events, 1000 by default
+     */
+    public void setEventCount(int eventCount) {
+        this.eventCount = eventCount;
+    }
+
+    /**
+     * @param limit number of ET events to produce, 0 (default) to replay the buffers forever
+     */
+    public void setLimit(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * @return number of ET events produced so far
+     */
+    public long getProducedEvents() {
+        return produced.get();
+    }
+
+    @Override
+    public void open() {
+        int size = 0;
+        for (ByteBuffer b : buffers) {
+            size = Math.max(size, b.remaining());
+        }
+        free = new ArrayBlockingQueue<>(eventCount);
+        for (int i = 0; i < eventCount; i++) {
+            EtEventImpl event = new EtEventImpl(size);
+            event.setId(i);
+            free.add(event);
+        }
+    }
+
+    @Override
+    public void attach(String stationName, int count, boolean roundRobin) {
+        this.stationName = stationName;
+        int n = roundRobin && count > 1 ? count : 1;
+        stations = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            stations.add(new ArrayBlockingQueue<>(eventCount));
+        }
+        attachmentStation = new int[count];
+        for (int i = 0; i < count; i++) {
+            attachmentStation[i] = n > 1 ? i : 0;
+        }
+        running = true;
+        producer = new Thread(this::produce, "local-et-producer");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private void produce() {
+        long period = rate > 0 ? (long) (1e9 / rate) : 0;
+        long next = System.nanoTime();
+        int station = 0;
+        try {
+            for (long i = 0; running && (limit == 0 || i < limit); i++) {
+                EtEvent event = free.take();
+                ByteBuffer src = buffers.get((int) (i % buffers.size()));
+                int length = src.remaining();
+                ByteBuffer data = event.getDataBuffer();
+                data.clear();
+                data.put(src.duplicate());
+                data.clear();
+                event.setLength(length);
+                event.setByteOrder(src.order());
+                if (period > 0) {
+                    next += period;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                }
+                stations.get(station).put(event);
+                station = (station + 1) % stations.size();
+                produced.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.out.println("LocalEtSystem: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public EtEvent[] getEvents(int attachment, int waitMicros, int count) throws Exception {
+        BlockingQueue<EtEvent> input = stations.get(attachmentStation[attachment]);
+        EtEvent first = waitMicros > 0 ? input.poll(waitMicros, TimeUnit.MICROSECONDS) : input.take();
+        if (first == null) return null;
+        List<EtEvent> events = new ArrayList<>(count);
+        events.add(first);
+        input.drainTo(events, count - 1);
+        return events.toArray(new EtEvent[0]);
+    }
+
+    @Override
+    public void putEvents(int attachment, EtEvent[] events) {
+        for (EtEvent event : events) {
+            free.add(event);
+        }
+    }
+
+    @Override
+    public void putEvents(int attachment, List<EtEvent> events) {
+        free.addAll(events);
+    }
+
+    @Override
+    public String describe(int attachment) {
+        return stations.size() > 1 ? stationName + "_" + attachmentStation[attachment] : stationName;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (producer != null) producer.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        return "local";
+    }
+}
@@ -0,0 +1,438 @@
+package org.jlab.ersap.actor.coda.source.sim;
+
+import org.jlab.coda.jevio.EventWriter;
+import org.jlab.coda.jevio.EvioException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic evio-6 aggregated time frames, as created by the CODA aggregator,
+ * for load and regression testing of the decoders without a DAQ and an ET system.
+ * <p>
+ * Every time frame event has the layout expected by the {@code EvioEventParser}:
+ * <pre>
+ *   event bank (tag 0xff60, num = ROC count)
+ *     stream info bank (tag 0xff30, bank of segments)
+ *       TSS segment: frame number, timestamp low, timestamp high
+ *       AIS segment: ROC IDs
+ *     ROC time frame bank (tag = ROC ID), for ROC IDs 1..rocCount
+ *       stream info bank (tag 0xff31): TSS and AIS segments
+ *       payload bank (tag = payload ID), for payload IDs 1..payloadsPerRoc, FADC hit words
+ * </pre>
+ * Hits of every channel are Poisson distributed in time. Coincidences, i.e. hits in several
+ * randomly chosen channels within a short time spread, can be injected at a given rate.
+ * Hit words within a payload bank are time ordered.
+ * <p>
+ * {@link #nextBuffer()} returns ET buffer like evio-6 records holding
+ * {@link #setFramesPerBuffer(int) several} time frames each, {@link #writeFile(String, int)}
+ * writes an evio file framed by PRESTART, GO and END control events, and
+ * {@link #nextRocBuffers()} returns the same time frames split into per-ROC streams.
+ */
+public class TimeFrameGenerator {
+    public static final int PRESTART = 0xffd1;
+    public static final int GO = 0xffd2;
+    public static final int END = 0xffd4;
+
+    private static final int MAGIC_WORD = 0xc0da0100;
+    private static final int RECORD_HEADER_WORDS = 14;
+    // evio-6 record bit info: last record bit, version 6
+    private static final int RECORD_BIT_INFO = (1 << 9) | 6;
+    private static final int TIME_FRAME_TAG = 0xff60;
+    private static final int CHANNELS = 16;
+    // Largest time offset of a hit word, 14 bits of 4ns ticks
+    private static final int MAX_FRAME_NS = 0x3FFF * 4;
+
+    private final int rocCount;
+    private final int payloadsPerRoc;
+    private final double[] channelRates = new double[CHANNELS];
+    private final Random random;
+
+    private int frameNs = MAX_FRAME_NS;
+    private int framesPerBuffer = 1;
+    private double coincidenceRate;
+    private int coincidenceMultiplicity = 2;
+    private int coincidenceSpreadNs = 8;
+    private int minCharge = 1;
+    private int maxCharge = 0x1FFF;
+    private ByteOrder order = ByteOrder.BIG_ENDIAN;
+
+    private int frameNumber;
+    private long timeStamp;
+    private int recordNumber = 1;
+
+    // Hit words of every payload bank of the frame being generated, [roc][payload]
+    private final int[][][] words;
+    private final int[][] wordCounts;
+
+    /**
+     * @param rocCount       number of ROC time frame banks in a time frame
+     * @param payloadsPerRoc number of payload banks in a ROC time frame bank
+     * @param hitRate        Poisson hit rate of every channel in Hz
+     * @param seed           random generator seed, the same seed generates the same data
+     */
+    public TimeFrameGenerator(int rocCount, int payloadsPerRoc, double hitRate, long seed) {
+        if (rocCount < 1 || payloadsPerRoc < 1) {
+            throw new IllegalArgumentException("At least one ROC and one payload are required");
+        }
+        this.rocCount = rocCount;
+        this.payloadsPerRoc = payloadsPerRoc;
+        Arrays.fill(channelRates, hitRate);
+        random = new Random(seed);
+        words = new int[rocCount][payloadsPerRoc][64];
+        wordCounts = new int[rocCount][payloadsPerRoc];
+    }
+
+    /**
+     * @param rates Poisson hit rate in Hz of each of the 16 channels
+     */
+    public void setChannelRates(double[] rates) {
+        if (rates.length != CHANNELS) {
+            throw new IllegalArgumentException("Expected " + CHANNELS + " channel rates, got " + rates.length);
+        }
+        System.arraycopy(rates, 0, channelRates, 0, CHANNELS);
+    }
+
+    /**
+     * @param frameNs time frame length in ns, at most 65532 ns (14 bit hit time offset)
+     */
+    public void setFrameLength(int frameNs) {
+        if (frameNs < 4 || frameNs > MAX_FRAME_NS) {
+            throw new IllegalArgumentException("Time frame length must be within 4.." + MAX_FRAME_NS + " ns");
+        }
+        this.frameNs = frameNs;
+    }
+
+    /**
+     * @param framesPerBuffer number of time frame events packed in a single buffer
+     */
+    public void setFramesPerBuffer(int framesPerBuffer) {
+        this.framesPerBuffer = Math.max(framesPerBuffer, 1);
+    }
+
+    /**
+     * Injects coincidences: hits in {@code multiplicity} different channels, randomly
+     * chosen over all ROCs and payloads, within {@code spreadNs} of each other.
+     *
+     * @param rate         Poisson rate of coincidences in Hz, 0 to disable
+     * @param multiplicity number of channels hit by a coincidence
+     * @param spreadNs     maximum time difference of the hits of a coincidence
+     */
+    public void setCoincidences(double rate, int multiplicity, int spreadNs) {
+        if (multiplicity > rocCount * payloadsPerRoc * CHANNELS) {
+            throw new IllegalArgumentException("Coincidence multiplicity exceeds the number of channels");
+        }
+        this.coincidenceRate = rate;
+        this.coincidenceMultiplicity = multiplicity;
+        this.coincidenceSpreadNs = Math.max(spreadNs, 0);
+    }
+
+    /**
+     * Charges are uniformly distributed within [minCharge, maxCharge].
+     */
+    public void setChargeRange(int minCharge, int maxCharge) {
+        if (minCharge < 0 || maxCharge > 0x1FFF || minCharge > maxCharge) {
+            throw new IllegalArgumentException("Charge range must be within 0..8191");
+        }
+        this.minCharge = minCharge;
+        this.maxCharge = maxCharge;
+    }
+
+    public void setByteOrder(ByteOrder order) {
+        this.order = order;
+    }
+
+    /**
+     * @return number of the next time frame
+     */
+    public int getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return an evio-6 record with the next time frames, ready to be read
+     */
+    public ByteBuffer nextBuffer() {
+        ByteBuffer[] events = new ByteBuffer[framesPerBuffer];
+        for (int i = 0; i < framesPerBuffer; i++) {
+            events[i] = nextTimeFrame();
+        }
+        return record(events);
+    }
+
+    /**
+     * @return {@code count} buffers, see {@link #nextBuffer()}
+     */
+    public List<ByteBuffer> nextBuffers(int count) {
+        List<ByteBuffer> buffers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            buffers.add(nextBuffer());
+        }
+        return buffers;
+    }
+
+    /**
+     * Generates the next time frames as sent by the streaming ROCs before aggregation:
+     * one evio-6 record per ROC, holding the ROC time frame bank of each time frame
+     * at the top level.
+     *
+     * @return records indexed by ROC, ROC ID = index + 1
+     */
+    public ByteBuffer[] nextRocBuffers() {
+        ByteBuffer[][] events = new ByteBuffer[rocCount][framesPerBuffer];
+        for (int i = 0; i < framesPerBuffer; i++) {
+            ByteBuffer frame = nextTimeFrame();
+            // skip the event header and the stream info bank of the aggregator
+            int roc = 8 + (frame.getInt(8) + 1) * 4;
+            for (int r = 0; r < rocCount; r++) {
+                int rocBytes = (frame.getInt(roc) + 1) * 4;
+                ByteBuffer rocBank = frame.duplicate().order(order);
+                rocBank.position(roc).limit(roc + rocBytes);
+                events[r][i] = rocBank.slice().order(order);
+                roc += rocBytes;
+            }
+        }
+        ByteBuffer[] records = new ByteBuffer[rocCount];
+        for (int r = 0; r < rocCount; r++) {
+            records[r] = record(events[r]);
+        }
+        return records;
+    }
+
+    /**
+     * @param tag {@link #PRESTART}, {@link #GO} or {@link #END}
+     * @return an evio-6 record with the control event
+     */
+    public ByteBuffer controlBuffer(int tag) {
+        return record(controlEvent(tag));
+    }
+
+    /**
+     * Writes PRESTART and GO, then {@code buffers} events with
+     * {@link #setFramesPerBuffer(int) framesPerBuffer} time frames each, then END.
+     * Time frames of a buffer are written as consecutive evio events.
+     *
+     * @param fileName output evio file
+     * @param buffers  number of buffers
+     */
+    public void writeFile(String fileName, int buffers) throws EvioException, IOException {
+        EventWriter writer = new EventWriter(fileName, false, order);
+        try {
+            writer.writeEvent(controlEvent(PRESTART));
+            writer.writeEvent(controlEvent(GO));
+            for (int i = 0; i < buffers; i++) {
+                for (int j = 0; j < framesPerBuffer; j++) {
+                    writer.writeEvent(nextTimeFrame());
+                }
+            }
+            writer.writeEvent(controlEvent(END));
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the next aggregated time frame event bank
+     */
+    public ByteBuffer nextTimeFrame() {
+        generateHits();
+
+        int hitWords = 0;
+        for (int[] counts : wordCounts) {
+            for (int n : counts) {
+                hitWords += n;
+            }
+        }
+        // event header, SIB with TSS and AIS, ROC banks with SIB and payload banks
+        int eventWords = 2 + 2 + 4 + 1 + rocCount
+                + rocCount * (2 + 2 + 4 + 1 + payloadsPerRoc + 2 * payloadsPerRoc) + hitWords;
+        ByteBuffer b = ByteBuffer.allocate(eventWords * 4).order(order);
+
+        b.putInt(eventWords - 1);
+        b.putInt(bankHeader(TIME_FRAME_TAG, 0x10, rocCount));
+        // stream info bank
+        b.putInt(1 + 4 + 1 + rocCount);
+        b.putInt(bankHeader(0xff30, 0x20, rocCount));
+        putTimeSliceSegment(b);
+        b.putInt(segmentHeader(0x41, 0x01, rocCount));
+        for (int r = 0; r < rocCount; r++) {
+            b.putInt(r + 1);
+        }
+
+        for (int r = 0; r < rocCount; r++) {
+            int rocStart = b.position();
+            b.putInt(0);
+            b.putInt(bankHeader(r + 1, 0x10, payloadsPerRoc));
+            b.putInt(1 + 4 + 1 + payloadsPerRoc);
+            b.putInt(bankHeader(0xff31, 0x20, payloadsPerRoc));
+            putTimeSliceSegment(b);
+            b.putInt(segmentHeader(0x41, 0x01, payloadsPerRoc));
+            for (int p = 0; p < payloadsPerRoc; p++) {
+                b.putInt(p + 1);
+            }
+            for (int p = 0; p < payloadsPerRoc; p++) {
+                int n = wordCounts[r][p];
+                int[] w = words[r][p];
+                Arrays.sort(w, 0, n);
+                b.putInt(n + 1);
+                b.putInt(bankHeader(p + 1, 0x01, 0));
+                for (int i = 0; i < n; i++) {
+                    b.putInt(w[i]);
+                }
+            }
+            b.putInt(rocStart, (b.position() - rocStart) / 4 - 1);
+        }
+        b.flip();
+
+        frameNumber++;
+        timeStamp += frameNs;
+        return b;
+    }
+
+    private void generateHits() {
+        for (int[] counts : wordCounts) {
+            Arrays.fill(counts, 0);
+        }
+        for (int r = 0; r < rocCount; r++) {
+            for (int p = 0; p < payloadsPerRoc; p++) {
+                for (int ch = 0; ch < CHANNELS; ch++) {
+                    double rate = channelRates[ch];
+                    if (rate <= 0) continue;
+                    for (double t = nextArrival(rate); t < frameNs; t += nextArrival(rate)) {
+                        addHit(r, p, ch, (int) t);
+                    }
+                }
+            }
+        }
+        if (coincidenceRate > 0) {
+            int channels = rocCount * payloadsPerRoc * CHANNELS;
+            int[] hit = new int[coincidenceMultiplicity];
+            for (double t = nextArrival(coincidenceRate); t < frameNs; t += nextArrival(coincidenceRate)) {
+                // distinct channels over all ROCs and payloads
+                for (int i = 0; i < coincidenceMultiplicity; i++) {
+                    int c;
+                    boolean taken;
+                    do {
+                        c = random.nextInt(channels);
+                        taken = false;
+                        for (int j = 0; j < i; j++) {
+                            taken |= hit[j] == c;
+                        }
+                    } while (taken);
+                    hit[i] = c;
+                    int time = (int) t + (coincidenceSpreadNs > 0 ? random.nextInt(coincidenceSpreadNs + 1) : 0);
+                    addHit(c / (payloadsPerRoc * CHANNELS), (c / CHANNELS) % payloadsPerRoc, c % CHANNELS,
+                            Math.min(time, frameNs - 1));
+                }
+            }
+        }
+    }
+
+    // Exponentially distributed time to the next hit in ns
+    private double nextArrival(double rateHz) {
+        return -Math.log(1.0 - random.nextDouble()) * 1e9 / rateHz;
+    }
+
+    private void addHit(int roc, int payload, int channel, int timeNs) {
+        int q = minCharge + random.nextInt(maxCharge - minCharge + 1);
+        int word = ((timeNs >>> 2) << 17) | (channel << 13) | q;
+        int n = wordCounts[roc][payload];
+        if (n == words[roc][payload].length) {
+            words[roc][payload] = Arrays.copyOf(words[roc][payload], 2 * n);
+        }
+        words[roc][payload][n] = word;
+        wordCounts[roc][payload] = n + 1;
+    }
+
+    private void putTimeSliceSegment(ByteBuffer b) {
+        b.putInt(segmentHeader(0x31, 0x01, 3));
+        b.putInt(frameNumber);
+        b.putInt((int) timeStamp);
+        b.putInt((int) (timeStamp >>> 32));
+    }
+
+    private ByteBuffer controlEvent(int tag) {
+        ByteBuffer b = ByteBuffer.allocate(5 * 4).order(order);
+        b.putInt(4);
+        b.putInt(bankHeader(tag, 0x01, 0xcc));
+        b.putInt((int) (System.currentTimeMillis() / 1000));
+        if (tag == PRESTART) {
+            // run number, run type
+            b.putInt(1);
+            b.putInt(0);
+        } else {
+            // reserved, number of events
+            b.putInt(0);
+            b.putInt(frameNumber);
+        }
+        b.flip();
+        return b;
+    }
+
+    private ByteBuffer record(ByteBuffer... events) {
+        int dataBytes = 0;
+        for (ByteBuffer e : events) {
+            dataBytes += e.remaining();
+        }
+        int indexBytes = 4 * events.length;
+        int recordBytes = 4 * RECORD_HEADER_WORDS + indexBytes + dataBytes;
+        ByteBuffer b = ByteBuffer.allocate(recordBytes).order(order);
+        b.putInt(recordBytes / 4);
+        b.putInt(recordNumber++);
+        b.putInt(RECORD_HEADER_WORDS);
+        b.putInt(events.length);
+        b.putInt(indexBytes);
+        b.putInt(RECORD_BIT_INFO);
+        b.putInt(0);                       // user header bytes
+        b.putInt(MAGIC_WORD);
+        b.putInt(indexBytes + dataBytes);  // uncompressed data bytes
+        b.putInt(0);                       // not compressed
+        b.putLong(0);                      // user registers
+        b.putLong(0);
+        for (ByteBuffer e : events) {
+            b.putInt(e.remaining());
+        }
+        for (ByteBuffer e : events) {
+            b.put(e.duplicate());
+        }
+        b.flip();
+        return b;
+    }
+
+    private static int bankHeader(int tag, int type, int num) {
+        return (tag << 16) | (type << 8) | (num & 0xff);
+    }
+
+    private static int segmentHeader(int tag, int type, int length) {
+        return (tag << 24) | (type << 16) | length;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java TimeFrameGenerator <output.evio> <time frames>"
+                    + " [ROCs] [payloads per ROC] [hit rate per channel, Hz]"
+                    + " [coincidence rate, Hz] [coincidence multiplicity] [seed]");
+            return;
+        }
+        String fileName = args[0];
+        int frames = Integer.parseInt(args[1]);
+        int rocs = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int payloads = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        double hitRate = args.length > 4 ? Double.parseDouble(args[4]) : 100_000;
+        double coincidenceRate = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+        int multiplicity = args.length > 6 ? Integer.parseInt(args[6]) : 2;
+        long seed = args.length > 7 ? Long.parseLong(args[7]) : 1;
+
+        TimeFrameGenerator generator = new TimeFrameGenerator(rocs, payloads, hitRate, seed);
+        generator.setCoincidences(coincidenceRate, multiplicity, 8);
+        long t = System.currentTimeMillis();
+        generator.writeFile(fileName, frames);
+        System.out.println("Wrote " + frames + " time frames of " + rocs + " ROCs to " + fileName
+                + " in " + (System.currentTimeMillis() - t) + " ms");
+    }
+}
@@ -8,12 +8,17 @@ import java.nio.ByteOrder;
  * Abstract class representing a connection handler for a resource or source.
  * Subclasses must implement the specific details for establishing connections
  * and handling data. This class uses the LMAX Disruptor library to process events.
+ * <p>
+ * The events are taken in order but may be released in any order. A slot is only
+ * reused once it and every slot before it are released.
  */
 public abstract class AbstractConnectionHandler {
 
     protected final RingBuffer<Event> disruptorRingBuffer;
     private final Sequence sequence; // Tracks the consumer's progress
+    private final Sequence releasedUpTo; // Last slot released with all slots before it
     private final SequenceBarrier barrier; // Ensures thread-safe access to the RingBuffer
+    private volatile Runnable publishListener; // Called after each publish, may be null
 
     /**
      * Constructor to initialize the disruptor ring buffer.
@@ -24,11 +29,13 @@ public abstract class AbstractConnectionHandler {
         this.disruptorRingBuffer = disruptorRingBuffer;
         this.barrier = disruptorRingBuffer.newBarrier(); // Create a SequenceBarrier for safe access
         this.sequence = new Sequence(RingBuffer.INITIAL_CURSOR_VALUE); // Initialize consumer sequence
-        disruptorRingBuffer.addGatingSequences(sequence); // Register this sequence for gating
+        this.releasedUpTo = new Sequence(RingBuffer.INITIAL_CURSOR_VALUE);
+        disruptorRingBuffer.addGatingSequences(releasedUpTo); // Slots are reused once released
     }
 
     /**
      * Retrieves the next event from the RingBuffer in a thread-safe manner.
+     * The event must be released once its data is used.
      *
      * @return the next Event object or null if no event is available.
      */
@@ -61,6 +68,89 @@ public abstract class AbstractConnectionHandler {
         return null; // No event available or an error occurred
     }
 
+    /**
+     * Retrieves the next event from the RingBuffer if it is already published.
+     * The event must be released once its data is used. Single producer rings only.
+     *
+     * @return the next Event object or null if no event is available.
+     */
+    public Event pollNextEvent() {
+        long nextSequence = sequence.get() + 1;
+        // The cursor of a single producer ring is the last published sequence
+        if (disruptorRingBuffer.getCursor() < nextSequence) {
+            return null;
+        }
+        Event event = disruptorRingBuffer.get(nextSequence);
+        sequence.set(nextSequence);
+        return event;
+    }
+
+    /**
+     * @return true if a published event has not been taken yet
+     */
+    public boolean hasNextEvent() {
+        return disruptorRingBuffer.getCursor() > sequence.get();
+    }
+
+    /**
+     * Moves the released mark over the consecutive released slots.
+     */
+    synchronized void released() {
+        long next = releasedUpTo.get() + 1;
+        long last = sequence.get();
+        while (next <= last) {
+            Event event = disruptorRingBuffer.get(next);
+            if (event.getSequence() != next || !event.isReleased()) break;
+            next++;
+        }
+        releasedUpTo.set(next - 1);
+    }
+
+    /**
+     * @param publishListener called by the receiving thread after each published event,
+     *                        e.g. to wake up a consumer waiting for several streams
+     */
+    public void setPublishListener(Runnable publishListener) {
+        this.publishListener = publishListener;
+    }
+
+    /**
+     * Publishes a filled slot.
+     */
+    protected void publish(long sequence) {
+        disruptorRingBuffer.publish(sequence);
+        Runnable listener = publishListener;
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Claims the next slot and prepares its event to be filled with {@code length} bytes.
+     * The slot must be published once it is filled.
+     *
+     * @return sequence of the claimed slot
+     */
+    protected long claim(int length, ByteOrder order) {
+        long next = disruptorRingBuffer.next();
+        disruptorRingBuffer.get(next).fill(this, next, length, order);
+        return next;
+    }
+
+    /**
+     * Claims the next slot, like {@link #claim(int, ByteOrder)}, if the ring is not full.
+     *
+     * @return sequence of the claimed slot, -1 if the ring is full
+     */
+    protected long tryClaim(int length, ByteOrder order) {
+        long next;
+        try {
+            next = disruptorRingBuffer.tryNext();
+        } catch (InsufficientCapacityException e) {
+            return -1;
+        }
+        disruptorRingBuffer.get(next).fill(this, next, length, order);
+        return next;
+    }
+
     /**
      * Abstract methods to be implemented by subclasses.
      */
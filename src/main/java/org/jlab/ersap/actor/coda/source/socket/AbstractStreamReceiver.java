@@ -0,0 +1,157 @@
+package org.jlab.ersap.actor.coda.source.socket;
+
+import org.jlab.ersap.actor.util.IASource;
+
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntPredicate;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Source of framed EVIO records received from several ROC streams, each with its own
+ * {@link SocketConnectionHandler} and ring. {@link #nextEvent()} hands out the next record
+ * of whichever stream has one ready, taking the streams in turn. Subclasses decide which
+ * threads receive the streams.
+ * <p>
+ * By default {@link #nextEvent()} returns a ByteBuffer copy of each record and releases
+ * its slot right away, so the records can go to any service. Leased receivers hand out
+ * the ring events themselves; the services must then release them, and a stream stops
+ * being read once its ring is full of unreleased events.
+ */
+public abstract class AbstractStreamReceiver implements IASource {
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+
+    protected final SocketConnectionHandler[] handlers;
+    protected final Socket[] connections;
+    protected volatile boolean running = true;
+    private boolean leased;
+    // Thread waiting in nextEvent for any stream, woken up by the receiving threads
+    private volatile Thread waiting;
+    // Stream to look at first by the next nextEvent call
+    private int next;
+    private int lastStream;
+
+    protected AbstractStreamReceiver(int streams) {
+        handlers = new SocketConnectionHandler[streams];
+        connections = new Socket[streams];
+    }
+
+    /**
+     * @param leased if true, {@link #nextEvent()} hands out the ring events instead of copies
+     */
+    public void setLeased(boolean leased) {
+        this.leased = leased;
+    }
+
+    /**
+     * @return if leased, the next {@link Event} of any stream, to be released once its data
+     * is used, otherwise a ByteBuffer copy of its data; null once the receiver is closed
+     */
+    @Override
+    public Object nextEvent() {
+        while (running) {
+            Event event = poll(IDLE_PARK_NANOS);
+            if (event == null) continue;
+            if (leased) return event;
+            ByteBuffer data = event.copyData();
+            event.release();
+            return data;
+        }
+        return null;
+    }
+
+    /**
+     * Takes the next record of any stream, waiting for one at most {@code timeoutNanos}.
+     *
+     * @return the next {@link Event}, to be released once its data is used, or null
+     */
+    public Event poll(long timeoutNanos) {
+        return poll(timeoutNanos, null);
+    }
+
+    /**
+     * Takes the next record of the accepted streams, waiting for one at most
+     * {@code timeoutNanos}. The records of the other streams stay in their rings.
+     *
+     * @param accept selects the streams by index, or null for all streams
+     * @return the next {@link Event}, to be released once its data is used, or null
+     */
+    public Event poll(long timeoutNanos, IntPredicate accept) {
+        Event event = pollStreams(accept);
+        if (event != null || timeoutNanos <= 0) return event;
+        waiting = Thread.currentThread();
+        // Look again, a record may have arrived before we were seen waiting
+        event = pollStreams(accept);
+        if (event == null) {
+            LockSupport.parkNanos(timeoutNanos);
+            event = pollStreams(accept);
+        }
+        waiting = null;
+        return event;
+    }
+
+    /**
+     * @return index of the stream of the last event handed out
+     */
+    public int getLastStream() {
+        return lastStream;
+    }
+
+    /**
+     * @return true if the connection of the stream has ended, or was never established,
+     * and all its records are taken
+     */
+    public boolean isClosed(int stream) {
+        // the records are published before the connection is closed
+        return (connections[stream] == null || connections[stream].isClosed())
+                && (handlers[stream] == null || !handlers[stream].hasNextEvent());
+    }
+
+    /**
+     * @return number of streams
+     */
+    public int getStreamCount() {
+        return handlers.length;
+    }
+
+    private Event pollStreams(IntPredicate accept) {
+        for (int k = 0; k < handlers.length; k++) {
+            int i = next;
+            next = next + 1 == handlers.length ? 0 : next + 1;
+            if (handlers[i] == null || (accept != null && !accept.test(i))) continue;
+            Event event = handlers[i].pollNextEvent();
+            if (event != null) {
+                lastStream = i;
+                return event;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Wakes up the consumer if it waits for records. Called by the receiving threads.
+     */
+    protected void wakeUp() {
+        Thread t = waiting;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    @Override
+    public int getEventCount() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public ByteOrder getByteOrder() {
+        return ByteOrder.BIG_ENDIAN;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (int i = 0; i < connections.length; i++) {
+            if (connections[i] != null) handlers[i].closeConnection(connections[i]);
+        }
+    }
+}
@@ -1,19 +1,82 @@
 package org.jlab.ersap.actor.coda.source.socket;
 
+import org.jlab.ersap.actor.util.IALease;
+
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Event class for use with LMAX Disruptor RingBuffer.
+ * <p>
+ * Each event owns a direct buffer, grown to the largest record it has held, that the
+ * receiver fills in place, so no memory is allocated per record once the ring is warm.
+ * The data stays valid until {@link #release()} is called, after which the slot is reused.
  */
-public class Event {
-    private byte[] data;
+public class Event implements IALease {
+    private final AtomicBoolean released = new AtomicBoolean(true);
+    private AbstractConnectionHandler handler;
+    private long sequence;
+    private int length;
+    private ByteBuffer storage;
+
+    /**
+     * Prepares the event to be filled by the receiver, growing its buffer if needed.
+     *
+     * @return buffer to put the data into, with room for exactly {@code length} bytes
+     */
+    ByteBuffer fill(AbstractConnectionHandler handler, long sequence, int length, ByteOrder order) {
+        if (storage == null || storage.capacity() < length) {
+            storage = ByteBuffer.allocateDirect(Math.max(Integer.highestOneBit(Math.max(length, 1) - 1) << 1, 1024));
+        }
+        this.handler = handler;
+        this.sequence = sequence;
+        this.length = length;
+        storage.clear().limit(length);
+        storage.order(order);
+        released.set(false);
+        return storage;
+    }
 
+    /**
+     * @return the data, from position 0 to the limit. The same buffer is returned on
+     * every call.
+     */
     public ByteBuffer getData() {
+        storage.limit(length).position(0);
+        return storage;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return getData();
+    }
+
+    /**
+     * @return a heap copy of the data, which stays valid after the event is released
+     */
+    public ByteBuffer copyData() {
+        ByteBuffer data = getData();
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining()).order(data.order());
+        copy.put(data).flip();
+        return copy;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
 
-        return ByteBuffer.wrap(data);
+    /**
+     * Ends the lease. Calling it more than once has no effect.
+     */
+    @Override
+    public void release() {
+        if (released.compareAndSet(false, true)) {
+            handler.released();
+        }
     }
 
-    public void setData(byte[] data) {
-        this.data = data;
+    public boolean isReleased() {
+        return released.get();
     }
-}
\ No newline at end of file
+}
@@ -1,32 +1,87 @@
 package org.jlab.ersap.actor.coda.source.socket;
 
+import org.jlab.ersap.actor.coda.proc.EtEvent;
+import org.jlab.ersap.actor.coda.proc.EvioBufferParser;
+import org.jlab.ersap.actor.coda.proc.TimeFrameBuilder;
+import org.jlab.ersap.actor.coda.proc.TimeFramePool;
 import org.jlab.ersap.actor.util.IASource;
 
 import java.nio.ByteOrder;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Receives the streams of several ROCs and builds time frames from them in software.
+ * <p>
+ * The records of each stream are decoded as they arrive, and their ROC time frame banks
+ * are matched by frame number in a {@link TimeFrameBuilder}. {@link #nextEvent()} returns
+ * the built {@link EtEvent}s, one multi-ROC time frame each, in frame order. A ROC that
+ * drops or delays a frame only makes that frame partial. A ROC that runs ahead of the
+ * frame window is not read until the window catches up. Frames no longer wait for a ROC
+ * whose connection has ended.
+ */
 public class MultiSocketStreamReceiver implements IASource {
-    private int numStreamReceivers;
-    private List<SingleSocketStreamReceiver> streamReceivers;
+    private static final int DEFAULT_WINDOW = 64;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 100;
+    // Wait for records before looking for timed out frames
+    private static final long POLL_NANOS = 1_000_000L;
+
+    private final AbstractStreamReceiver receiver;
+    private final TimeFrameBuilder builder;
+    private final EvioBufferParser parser = new EvioBufferParser(false);
 
     public MultiSocketStreamReceiver(StreamParameters[] ps) {
-        numStreamReceivers = ps.length;
-        streamReceivers = new ArrayList<>();
-        for (int i = 0; i < numStreamReceivers; i++) {
-            SingleSocketStreamReceiver streamReceiver = new SingleSocketStreamReceiver(ps[i]);
-            streamReceivers.add(streamReceiver);
-        }
+        this(ps[0].isVirtualThreads() ? new ThreadedSocketStreamReceiver(ps, true)
+                        : new SelectorSocketStreamReceiver(ps, 2),
+                DEFAULT_WINDOW, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param receiver      receiver of the ROC streams, one ROC per stream
+     * @param window        number of consecutive frames collected at once
+     * @param timeoutMillis longest time a frame waits for missing ROCs
+     */
+    public MultiSocketStreamReceiver(AbstractStreamReceiver receiver, int window, long timeoutMillis) {
+        this.receiver = receiver;
+        this.builder = new TimeFrameBuilder(receiver.getStreamCount(), window,
+                TimeUnit.MILLISECONDS.toNanos(timeoutMillis), TimeFramePool.getInstance());
+        parser.setPool(TimeFramePool.getInstance());
     }
 
+    /**
+     * @return the next built time frame, or null once the receiver is closed
+     */
     @Override
     public Object nextEvent() {
-        Object[] res = new Object[numStreamReceivers];
-        // Simple object aggregation
-        for (int i = 0; i < numStreamReceivers; i++) {
-            res[i] = streamReceivers.get(i).nextEvent();
+        while (true) {
+            EtEvent evt = builder.poll();
+            if (evt != null) return evt;
+            Event record = receiver.poll(POLL_NANOS, builder::accepts);
+            if (record == null) {
+                if (!receiver.running) return null;
+                for (int s = 0; s < receiver.getStreamCount(); s++) {
+                    if (receiver.isClosed(s)) builder.close(s);
+                }
+                builder.emitReady(System.nanoTime());
+                continue;
+            }
+            int stream = receiver.getLastStream();
+            try {
+                EtEvent decoded = parser.parseEtEvent(record.getData());
+                if (decoded != null) {
+                    builder.add(stream, decoded);
+                } else {
+                    System.err.println("Stream " + stream + ": record is not supported by the decoder");
+                }
+            } catch (Exception e) {
+                System.err.println("Stream " + stream + ": " + e.getMessage());
+            } finally {
+                record.release();
+            }
         }
-        return res;
+    }
+
+    public TimeFrameBuilder getBuilder() {
+        return builder;
     }
 
     @Override
@@ -36,11 +91,12 @@ public class MultiSocketStreamReceiver implements IASource {
 
     @Override
     public ByteOrder getByteOrder() {
-        return null;
+        return receiver.getByteOrder();
     }
 
     @Override
     public void close() {
-
+        receiver.close();
+        System.out.println(builder);
     }
-}
\ No newline at end of file
+}
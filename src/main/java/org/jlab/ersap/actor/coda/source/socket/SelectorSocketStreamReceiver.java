@@ -0,0 +1,149 @@
+package org.jlab.ersap.actor.coda.source.socket;
+
+import com.lmax.disruptor.RingBuffer;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.jlab.ersap.actor.util.AUtil.waitStrategy;
+
+/**
+ * Receives framed EVIO streams from many ROCs with a small, fixed number of threads.
+ * <p>
+ * Every stream has its own {@link SocketConnectionHandler} and ring, filled in place with
+ * complete records. The non-blocking connections are shared among a few {@link Selector}
+ * threads. A stream whose ring is full is no longer read, so its ROC is throttled by TCP,
+ * while the other streams go on.
+ */
+public class SelectorSocketStreamReceiver extends AbstractStreamReceiver {
+
+    private static final Logger LOGGER = Logger.getLogger(SelectorSocketStreamReceiver.class.getName());
+    // Selector wait while a stream waits for ring space
+    private static final long STALLED_SELECT_MILLIS = 1;
+    private static final long IDLE_SELECT_MILLIS = 100;
+
+    private final SelectorLoop[] loops;
+
+    /**
+     * @param ps              parameters of each stream, the framed flag is ignored
+     * @param selectorThreads number of selector threads
+     */
+    public SelectorSocketStreamReceiver(StreamParameters[] ps, int selectorThreads) {
+        super(ps.length);
+        int threads = Math.max(1, Math.min(selectorThreads, ps.length));
+        loops = new SelectorLoop[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                loops[i] = new SelectorLoop(Selector.open());
+            }
+            for (int i = 0; i < ps.length; i++) {
+                StreamParameters p = ps[i];
+                RingBuffer<Event> ringBuffer = RingBuffer.createSingleProducer(Event::new,
+                        p.getRingBufferSize(), waitStrategy(p.getWaitStrategy()));
+                handlers[i] = new SocketConnectionHandler(ringBuffer, p.getHost(), p.getPort(),
+                        ByteOrder.BIG_ENDIAN, p.getConnectionTimeout(), p.getReadTimeout(), true);
+                connections[i] = handlers[i].establishConnection();
+                SocketChannel channel = connections[i].getChannel();
+                channel.configureBlocking(false);
+                channel.register(loops[i % threads].selector, SelectionKey.OP_READ, handlers[i]);
+            }
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Failed to establish connection: " + e.getMessage());
+        }
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(loops[i], "socket-selector-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (SelectorLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * Reads the streams registered with one selector.
+     */
+    private final class SelectorLoop implements Runnable {
+        private final Selector selector;
+        // Streams with records waiting for ring space, not selected for reading
+        private final List<SelectionKey> stalled = new ArrayList<>();
+
+        SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(stalled.isEmpty() ? IDLE_SELECT_MILLIS : STALLED_SELECT_MILLIS);
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        read(key);
+                    }
+                    for (int i = stalled.size() - 1; i >= 0; i--) {
+                        read(stalled.get(i));
+                    }
+                    wakeUp();
+                }
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Selector failed: {0}", e.getMessage());
+            }
+        }
+
+        private void read(SelectionKey key) {
+            if (!key.isValid()) {
+                stalled.remove(key);
+                return;
+            }
+            SocketConnectionHandler handler = (SocketConnectionHandler) key.attachment();
+            SocketChannel channel = (SocketChannel) key.channel();
+            try {
+                if (handler.receiveRecords(channel, false) < 0) {
+                    LOGGER.warning("End of stream reached. Closing connection.");
+                    close(key);
+                    return;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Error while reading data from socket: {0}", e.getMessage());
+                close(key);
+                return;
+            }
+            if (handler.hasPendingRecords()) {
+                if (key.interestOps() != 0) {
+                    key.interestOps(0);
+                    stalled.add(key);
+                }
+            } else if (key.interestOps() == 0) {
+                key.interestOps(SelectionKey.OP_READ);
+                stalled.remove(key);
+            }
+        }
+
+        private void close(SelectionKey key) {
+            stalled.remove(key);
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to close socket: {0}", e.getMessage());
+            }
+        }
+    }
+}
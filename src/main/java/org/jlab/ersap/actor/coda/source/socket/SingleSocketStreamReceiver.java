@@ -1,29 +1,39 @@
 package org.jlab.ersap.actor.coda.source.socket;
 
-import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.RingBuffer;
 import org.jlab.ersap.actor.util.IASource;
 
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.concurrent.Callable;
 
+import static org.jlab.ersap.actor.util.AUtil.threadFactory;
+import static org.jlab.ersap.actor.util.AUtil.waitStrategy;
+
 public class SingleSocketStreamReceiver implements IASource, Callable<String> {
 
     private SocketConnectionHandler handler;
     private Socket connection;
+    private final boolean leased;
 
     public SingleSocketStreamReceiver (StreamParameters p) {
-        Disruptor<Event> disruptor = new Disruptor<>(Event::new, p.getRingBufferSize(), Runnable::run);
-        disruptor.start();
+        leased = p.isLeased();
+        // Preallocated events, filled in place by the single receiver thread
+        RingBuffer<Event> ringBuffer = RingBuffer.createSingleProducer(Event::new,
+                p.getRingBufferSize(), waitStrategy(p.getWaitStrategy()));
 
         handler = new SocketConnectionHandler(
-                disruptor.getRingBuffer(),
+                ringBuffer,
                 p.getHost(), p.getPort(),
                 ByteOrder.BIG_ENDIAN,
                 p.getConnectionTimeout(),
-                p.getReadTimeout()
+                p.getReadTimeout(),
+                p.isFramed()
         );
 
+        handler.setThreadFactory(threadFactory(p.isVirtualThreads()));
+
         try {
             connection = handler.establishConnection();
             handler.listenAndPublish(connection);
@@ -33,11 +43,19 @@ public class SingleSocketStreamReceiver implements IASource, Callable<String> {
     }
 
 
+    /**
+     * @return if leased, the next {@link Event}, to be released once its data is used,
+     * otherwise a ByteBuffer copy of its data
+     */
     @Override
     public Object nextEvent() {
         // This section is designated for the implementation of
         // a potential supplementary singles-finding algorithm.
-        return  handler.getNextEvent().getData();
+        Event event = handler.getNextEvent();
+        if (leased) return event;
+        ByteBuffer data = event.copyData();
+        event.release();
+        return data;
     }
 
     @Override
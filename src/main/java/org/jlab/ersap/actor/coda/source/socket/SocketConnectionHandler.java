@@ -4,15 +4,25 @@ import com.lmax.disruptor.RingBuffer;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A specific implementation of AbstractConnectionHandler for managing
  * socket connections and publishing data to a Disruptor RingBuffer.
+ * <p>
+ * In stream mode every read is published as it arrives. In framed mode the socket is read
+ * through a {@link SocketChannel} into a reusable direct buffer, the EVIO records are
+ * reassembled using the length in their block header, and each complete record is
+ * published to its own ring slot.
  */
 public class SocketConnectionHandler extends AbstractConnectionHandler {
 
@@ -23,6 +33,23 @@ public class SocketConnectionHandler extends AbstractConnectionHandler {
     private final ByteOrder byteOrder;
     private final int connectionTimeout; // Connection timeout in milliseconds.
     private final int readTimeout;      // Read timeout in milliseconds.
+    private final boolean framed;       // Publish whole EVIO records.
+    private ThreadFactory threadFactory = Thread::new; // Creates the receiving thread.
+
+    private static final int MAGIC_WORD = 0xc0da0100;
+    private static final int HEADER_BYTES = 32;
+    private static final int SOCKET_BUFFER_SIZE = 1024 * 1024;
+    // Initial size of the reassembly buffer, grown for larger records
+    private static final int RECORD_BUFFER_SIZE = 256 * 1024;
+
+    // Framed mode reassembly buffer, in write mode between reads
+    private ByteBuffer records;
+    // Complete records are waiting in the buffer for ring space
+    private boolean pending;
+
+    // Stream mode input, opened once per connection
+    private DataInputStream inputStream;
+    private final byte[] readBuffer = new byte[64 * 1024];
 
     /**
      * Constructor for SocketConnectionHandler.
@@ -32,7 +59,8 @@ public class SocketConnectionHandler extends AbstractConnectionHandler {
      * @param port                the port number of the socket server.
      * @param byteOrder           the ByteOrder used for reading data.
      * @param connectionTimeout   the timeout for establishing the connection in milliseconds.
-     * @param readTimeout         the timeout for reading data in milliseconds.
+     * @param readTimeout         the timeout for reading data in milliseconds, unframed
+     *                            streams only.
      */
     public SocketConnectionHandler(
             RingBuffer<Event> disruptorRingBuffer,
@@ -41,20 +69,56 @@ public class SocketConnectionHandler extends AbstractConnectionHandler {
             ByteOrder byteOrder,
             int connectionTimeout,
             int readTimeout) {
+        this(disruptorRingBuffer, host, port, byteOrder, connectionTimeout, readTimeout, false);
+    }
+
+    /**
+     * Constructor for SocketConnectionHandler.
+     *
+     * @param framed if true, each published event is one complete EVIO record.
+     * @see #SocketConnectionHandler(RingBuffer, String, int, ByteOrder, int, int)
+     */
+    public SocketConnectionHandler(
+            RingBuffer<Event> disruptorRingBuffer,
+            String host,
+            int port,
+            ByteOrder byteOrder,
+            int connectionTimeout,
+            int readTimeout,
+            boolean framed) {
         super(disruptorRingBuffer); // Initialize the superclass
         this.host = host;
         this.port = port;
         this.byteOrder = byteOrder;
         this.connectionTimeout = connectionTimeout;
         this.readTimeout = readTimeout;
+        this.framed = framed;
+    }
+
+    /**
+     * @param threadFactory creates the receiving thread, e.g. a virtual thread factory
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
     }
 
     @Override
     public Socket establishConnection() {
         try {
-            Socket socket = new Socket();
-            socket.connect(new java.net.InetSocketAddress(host, port), connectionTimeout);
-            socket.setSoTimeout(readTimeout); // Set timeout for reading data.
+            Socket socket;
+            if (framed) {
+                // Blocking channel, the read timeout does not apply to channel reads:
+                // a framed stream waits for data until the connection is closed
+                SocketChannel channel = SocketChannel.open();
+                socket = channel.socket();
+                socket.connect(new InetSocketAddress(host, port), connectionTimeout);
+                socket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+            } else {
+                socket = new Socket();
+                socket.connect(new InetSocketAddress(host, port), connectionTimeout);
+                socket.setSoTimeout(readTimeout); // Set timeout for reading data.
+                inputStream = new DataInputStream(socket.getInputStream());
+            }
             LOGGER.info("Socket connection established.");
             return socket;
         } catch (IOException e) {
@@ -71,12 +135,16 @@ public class SocketConnectionHandler extends AbstractConnectionHandler {
 
         Socket socket = (Socket) connection;
 
-        new Thread(() -> {
+        threadFactory.newThread(() -> {
             try {
+                if (socket.getChannel() != null) {
+                    receiveRecords(socket.getChannel());
+                    return;
+                }
                 while (!Thread.currentThread().isInterrupted() && !socket.isClosed()) {
-                    byte[] data = receiveData(socket);
-                    if (data != null) {
-                        publishEvent(data);
+                    int bytesRead = readStream(socket);
+                    if (bytesRead > 0) {
+                        publishEvent(readBuffer, bytesRead);
                     }
                 }
             } finally {
@@ -110,40 +178,174 @@ public class SocketConnectionHandler extends AbstractConnectionHandler {
             throw new IllegalArgumentException("Connection must be a Socket instance.");
         }
 
-        Socket socket = (Socket) connection;
+        int bytesRead = readStream((Socket) connection);
+        if (bytesRead > 0) {
+            byte[] data = new byte[bytesRead];
+            System.arraycopy(readBuffer, 0, data, 0, bytesRead);
+            return data;
+        }
+        return null;
+    }
 
-        try (DataInputStream inputStream = new DataInputStream(socket.getInputStream())) {
-            byte[] buffer = new byte[1024];
-            int bytesRead = inputStream.read(buffer);
+    /**
+     * Reads the available bytes into the read buffer.
+     *
+     * @return number of bytes read, 0 if the read timed out or failed.
+     */
+    private int readStream(Socket socket) {
+        try {
+            if (inputStream == null) {
+                inputStream = new DataInputStream(socket.getInputStream());
+            }
+            int bytesRead = inputStream.read(readBuffer);
             if (bytesRead > 0) {
-                byte[] data = new byte[bytesRead];
-                System.arraycopy(buffer, 0, data, 0, bytesRead);
-                return data;
+                return bytesRead;
             } else if (bytesRead == -1) {
                 LOGGER.warning("End of stream reached. Closing connection.");
-                return null;
+                socket.close();
             }
         } catch (SocketTimeoutException e) {
             LOGGER.warning("Read operation timed out.");
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error while reading data from socket: {0}", e.getMessage());
         }
+        return 0;
+    }
 
-        return null;
+    /**
+     * Reads EVIO records from the channel until the end of the stream, and publishes each
+     * complete record.
+     *
+     * @param channel blocking socket channel.
+     */
+    private void receiveRecords(SocketChannel channel) {
+        try {
+            while (!Thread.currentThread().isInterrupted() && channel.isOpen()) {
+                if (receiveRecords(channel, true) < 0) {
+                    LOGGER.warning("End of stream reached. Closing connection.");
+                    return;
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // closed by closeConnection
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error while reading data from socket: {0}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads from the channel once and publishes the complete records. Records are
+     * reassembled in a direct buffer that is reused, and grown when a record does not fit.
+     * If the ring is full and {@code wait} is false, the remaining records stay in the
+     * buffer, and nothing more is read until they are published by a later call.
+     *
+     * @param channel socket channel, blocking or not.
+     * @param wait    if true, wait for ring space.
+     * @return number of bytes read, -1 at the end of the stream.
+     */
+    int receiveRecords(SocketChannel channel, boolean wait) throws IOException {
+        if (records == null) {
+            records = ByteBuffer.allocateDirect(RECORD_BUFFER_SIZE);
+        }
+        int bytesRead = 0;
+        if (!pending && records.hasRemaining()) {
+            bytesRead = channel.read(records);
+        }
+        records.flip();
+        int recordBytes = 0;
+        pending = false;
+        try {
+            while ((recordBytes = recordLength(records)) > 0 && records.remaining() >= recordBytes) {
+                if (!publishRecord(records, recordBytes, wait)) {
+                    pending = true;
+                    break;
+                }
+            }
+        } finally {
+            records.compact();
+        }
+        if (recordBytes > records.capacity()) {
+            records = grow(records, recordBytes);
+        }
+        // The end of the stream is reported once the waiting records are published
+        return pending ? Math.max(bytesRead, 0) : bytesRead;
+    }
+
+    /**
+     * @return true if the last {@link #receiveRecords(SocketChannel, boolean)} left complete
+     * records in the buffer because the ring was full.
+     */
+    boolean hasPendingRecords() {
+        return pending;
+    }
+
+    /**
+     * @return length in bytes of the record at the buffer position, 0 if its header is not
+     * complete yet.
+     * @throws IOException if there is no EVIO block header at the buffer position.
+     */
+    private static int recordLength(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_BYTES) return 0;
+        int pos = buffer.position();
+        int magic = buffer.getInt(pos + 28);
+        int words;
+        if (magic == MAGIC_WORD) {
+            words = buffer.getInt(pos);
+        } else if (magic == Integer.reverseBytes(MAGIC_WORD)) {
+            words = Integer.reverseBytes(buffer.getInt(pos));
+        } else {
+            throw new IOException("stream out of sync, no EVIO block header, magic = 0x"
+                    + Integer.toHexString(magic));
+        }
+        if (words < HEADER_BYTES / 4) {
+            throw new IOException("invalid EVIO block length " + words);
+        }
+        return words * 4;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int size) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(Integer.highestOneBit(size - 1) << 1);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /**
+     * Copies the record at the buffer position into the next ring slot, publishes it, and
+     * moves the position past it.
+     *
+     * @param wait if true, wait for ring space.
+     * @return false if the ring is full and {@code wait} is false.
+     */
+    private boolean publishRecord(ByteBuffer buffer, int recordBytes, boolean wait) {
+        int pos = buffer.position();
+        int limit = buffer.limit();
+        ByteOrder order = buffer.getInt(pos + 28) == MAGIC_WORD ? buffer.order()
+                : buffer.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        long sequence = wait ? claim(recordBytes, order) : tryClaim(recordBytes, order);
+        if (sequence < 0) return false;
+        try {
+            buffer.limit(pos + recordBytes);
+            disruptorRingBuffer.get(sequence).getData().put(buffer);
+        } finally {
+            buffer.limit(limit);
+            publish(sequence);
+        }
+        return true;
     }
 
     /**
-     * Publishes the received data to the RingBuffer.
+     * Copies the received data into the next ring slot and publishes it.
      *
-     * @param data the received data to be published.
+     * @param data   the received data to be published.
+     * @param length number of bytes received.
      */
-    private void publishEvent(byte[] data) {
-        long sequence = super.disruptorRingBuffer.next(); // Reserve next slot
+    private void publishEvent(byte[] data, int length) {
+        long sequence = claim(length, byteOrder); // Reserve next slot
         try {
-            Event event = super.disruptorRingBuffer.get(sequence); // Get entry for sequence
-            event.setData(data); // Set data in event
+            disruptorRingBuffer.get(sequence).getData().put(data, 0, length);
         } finally {
-            super.disruptorRingBuffer.publish(sequence); // Publish event
+            publish(sequence); // Publish event
         }
     }
-}
\ No newline at end of file
+}
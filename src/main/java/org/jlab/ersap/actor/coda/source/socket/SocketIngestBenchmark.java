@@ -0,0 +1,146 @@
+package org.jlab.ersap.actor.coda.source.socket;
+
+import org.jlab.ersap.actor.coda.source.sim.TimeFrameGenerator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the ingest throughput and latency of the multi-stream socket receivers on
+ * loopback, with one blocking thread per stream (platform or virtual threads) or with
+ * selector threads. Each stream is sent by a local ROC emulator replaying synthetic time
+ * frames, which stamps the send time into the first user register of every record header.
+ * The latency is the time from that stamp until the record is handed out by the receiver.
+ */
+public class SocketIngestBenchmark {
+    // Byte offset of the first user register in the evio-6 record header
+    private static final int STAMP_OFFSET = 40;
+    private static final int MAX_LATENCY_SAMPLES = 10_000_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: java SocketIngestBenchmark <streams> <seconds>"
+                    + " [platform, virtual or selector] [records per second per stream, 0 for no limit]"
+                    + " [ring size per stream]");
+            return;
+        }
+        int streams = Integer.parseInt(args[0]);
+        int seconds = Integer.parseInt(args[1]);
+        String mode = args.length > 2 ? args[2] : "virtual";
+        double rate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        int ringSize = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+        TimeFrameGenerator generator = new TimeFrameGenerator(2, 4, 100_000, 1);
+        List<ByteBuffer> records = generator.nextBuffers(64);
+
+        StreamParameters[] ps = new StreamParameters[streams];
+        for (int i = 0; i < streams; i++) {
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress("localhost", 0));
+            String name = "roc-" + i;
+            Thread roc = new Thread(() -> sendRecords(server, records, rate), name);
+            roc.setDaemon(true);
+            roc.start();
+            ps[i] = new StreamParameters();
+            ps[i].setHost("localhost");
+            ps[i].setPort(server.socket().getLocalPort());
+            ps[i].setRingBufferSize(ringSize);
+        }
+
+        int threadsBefore = Thread.activeCount();
+        AbstractStreamReceiver receiver;
+        switch (mode) {
+            case "selector":
+                receiver = new SelectorSocketStreamReceiver(ps, 2);
+                break;
+            case "platform":
+                receiver = new ThreadedSocketStreamReceiver(ps, false);
+                break;
+            default:
+                receiver = new ThreadedSocketStreamReceiver(ps, true);
+        }
+        receiver.setLeased(true);
+        int receiverThreads = Thread.activeCount() - threadsBefore;
+
+        long[] latencies = new long[MAX_LATENCY_SAMPLES];
+        int samples = 0;
+        long count = 0;
+        long bytes = 0;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        while (System.nanoTime() < end) {
+            Event event = (Event) receiver.nextEvent();
+            if (event == null) break;
+            ByteBuffer data = event.getData();
+            long latency = System.nanoTime() - data.getLong(STAMP_OFFSET);
+            if (samples < latencies.length) latencies[samples++] = latency;
+            bytes += data.remaining();
+            count++;
+            event.release();
+        }
+        double time = (System.nanoTime() - start) / 1e9;
+        receiver.close();
+
+        Arrays.sort(latencies, 0, samples);
+        System.out.println(mode + ", " + streams + " streams, platform threads started by the receiver = "
+                + receiverThreads);
+        System.out.println("Records = " + String.format("%.3g", count / time) + " Hz"
+                + ",  data = " + String.format("%.3g", bytes / time / 1e6) + " MB/s");
+        if (samples > 0) {
+            System.out.println("Latency = " + String.format("%.3g", mean(latencies, samples) / 1e3) + " us"
+                    + ",  p50 = " + String.format("%.3g", latencies[samples / 2] / 1e3) + " us"
+                    + ",  p99 = " + String.format("%.3g", latencies[(int) (samples * 0.99)] / 1e3) + " us"
+                    + ",  max = " + String.format("%.3g", latencies[samples - 1] / 1e3) + " us");
+        }
+        System.exit(0);
+    }
+
+    private static double mean(long[] values, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += values[i];
+        }
+        return sum / n;
+    }
+
+    /**
+     * ROC emulator: sends the records in a loop, stamped with the send time.
+     */
+    private static void sendRecords(ServerSocketChannel server, List<ByteBuffer> records, double rate) {
+        long period = rate > 0 ? (long) (1e9 / rate) : 0;
+        // Own copies, the stamp is written into them
+        List<ByteBuffer> copies = new ArrayList<>();
+        for (ByteBuffer r : records) {
+            ByteBuffer copy = ByteBuffer.allocateDirect(r.remaining()).order(r.order());
+            copy.put(r.duplicate()).flip();
+            copies.add(copy);
+        }
+        try (SocketChannel channel = server.accept()) {
+            server.close();
+            long next = System.nanoTime();
+            for (long i = 0; ; i++) {
+                if (period > 0) {
+                    next += period;
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) LockSupport.parkNanos(wait);
+                }
+                ByteBuffer record = copies.get((int) (i % copies.size()));
+                record.clear();
+                record.putLong(STAMP_OFFSET, System.nanoTime());
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+        } catch (IOException e) {
+            // receiver closed
+        }
+    }
+}
@@ -9,8 +9,12 @@ public class StreamParameters {
     private int port = 7777;
     private ByteOrder byteOrder;
     private int connectionTimeout = 5000; // Connection timeout in milliseconds.
-    private int readTimeout = 2000;      // Read timeout in milliseconds.
+    private int readTimeout = 2000;      // Read timeout in milliseconds, unframed streams only.
     private int ringBufferSize = 1024;
+    private boolean framed = false;     // Publish whole EVIO records.
+    private String waitStrategy = "blocking"; // blocking, sleeping, yielding or busy_spin
+    private boolean virtualThreads = false; // Read on a virtual thread.
+    private boolean leased = false;     // Hand out ring events instead of copies.
 
     public String getHost() {
         return host;
@@ -59,4 +63,36 @@ public class StreamParameters {
     public void setRingBufferSize(int ringBufferSize) {
         this.ringBufferSize = ringBufferSize;
     }
+
+    public boolean isFramed() {
+        return framed;
+    }
+
+    public void setFramed(boolean framed) {
+        this.framed = framed;
+    }
+
+    public String getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(String waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isLeased() {
+        return leased;
+    }
+
+    public void setLeased(boolean leased) {
+        this.leased = leased;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package org.jlab.ersap.actor.coda.source.socket;
+
+import com.lmax.disruptor.RingBuffer;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.ThreadFactory;
+
+import static org.jlab.ersap.actor.util.AUtil.threadFactory;
+import static org.jlab.ersap.actor.util.AUtil.waitStrategy;
+
+/**
+ * Receives framed EVIO streams from many ROCs with a blocking read loop per stream.
+ * <p>
+ * With virtual threads, when the JVM supports them, a stream costs a few kilobytes of
+ * stack instead of a platform thread, so hundreds of streams can be read with plain
+ * blocking code. Every stream has its own {@link SocketConnectionHandler} and ring, and a
+ * stream whose ring is full blocks only its own thread.
+ */
+public class ThreadedSocketStreamReceiver extends AbstractStreamReceiver {
+
+    /**
+     * @param ps             parameters of each stream, the framed flag is ignored
+     * @param virtualThreads if true, read the streams on virtual threads
+     */
+    public ThreadedSocketStreamReceiver(StreamParameters[] ps, boolean virtualThreads) {
+        super(ps.length);
+        ThreadFactory factory = threadFactory(virtualThreads);
+        try {
+            for (int i = 0; i < ps.length; i++) {
+                StreamParameters p = ps[i];
+                RingBuffer<Event> ringBuffer = RingBuffer.createSingleProducer(Event::new,
+                        p.getRingBufferSize(), waitStrategy(p.getWaitStrategy()));
+                handlers[i] = new SocketConnectionHandler(ringBuffer, p.getHost(), p.getPort(),
+                        ByteOrder.BIG_ENDIAN, p.getConnectionTimeout(), p.getReadTimeout(), true);
+                handlers[i].setThreadFactory(factory);
+                handlers[i].setPublishListener(this::wakeUp);
+                connections[i] = handlers[i].establishConnection();
+                handlers[i].listenAndPublish(connections[i]);
+            }
+        } catch (IllegalStateException e) {
+            System.err.println("Failed to establish connection: " + e.getMessage());
+        }
+    }
+}
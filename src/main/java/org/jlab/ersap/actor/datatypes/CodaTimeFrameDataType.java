@@ -6,7 +6,7 @@ import org.jlab.epsci.ersap.base.error.ErsapException;
 import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.engine.ErsapSerializer;
 import org.jlab.ersap.actor.coda.proc.EtEvent;
-import org.jlab.ersap.actor.coda.proc.FADCHit;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
 import org.jlab.ersap.actor.coda.proc.RocTimeFrameBank;
 
 import java.nio.ByteBuffer;
@@ -109,53 +109,38 @@ public class CodaTimeFrameDataType {
                             .build());
 
                     // Hits data
-                    List<FADCHit> hits = rocBank.getHits();
+                    FADCHitBatch hits = rocBank.getHitBatch();
+                    int hitCount = hits.size();
                     payloadBuilder.addItem(xMsgPayload.Item.newBuilder()
                             .setName(rocPrefix + "_hit_count")
-                            .setData(xMsgData.newBuilder().setVLSINT32(hits.size()).build())
+                            .setData(xMsgData.newBuilder().setVLSINT32(hitCount).build())
                             .build());
 
-                    if (!hits.isEmpty()) {
-                        // Pack all hit data into arrays for efficiency
-                        int[] crates = new int[hits.size()];
-                        int[] slots = new int[hits.size()];
-                        int[] channels = new int[hits.size()];
-                        int[] charges = new int[hits.size()];
-                        long[] times = new long[hits.size()];
-
-                        for (int i = 0; i < hits.size(); i++) {
-                            FADCHit hit = hits.get(i);
-                            crates[i] = hit.crate();
-                            slots[i] = hit.slot();
-                            channels[i] = hit.channel();
-                            charges[i] = hit.charge();
-                            times[i] = hit.time();
-                        }
-
-                        // Add hit arrays
+                    if (hitCount > 0) {
+                        // Hit data is already packed in arrays
                         payloadBuilder.addItem(xMsgPayload.Item.newBuilder()
                                 .setName(rocPrefix + "_crates")
-                                .setData(createIntArray(crates))
+                                .setData(createIntArray(hits.crates(), hitCount))
                                 .build());
 
                         payloadBuilder.addItem(xMsgPayload.Item.newBuilder()
                                 .setName(rocPrefix + "_slots")
-                                .setData(createIntArray(slots))
+                                .setData(createIntArray(hits.slots(), hitCount))
                                 .build());
 
                         payloadBuilder.addItem(xMsgPayload.Item.newBuilder()
                                 .setName(rocPrefix + "_channels")
-                                .setData(createIntArray(channels))
+                                .setData(createIntArray(hits.channels(), hitCount))
                                 .build());
 
                         payloadBuilder.addItem(xMsgPayload.Item.newBuilder()
                                 .setName(rocPrefix + "_charges")
-                                .setData(createIntArray(charges))
+                                .setData(createIntArray(hits.charges(), hitCount))
                                 .build());
 
                         payloadBuilder.addItem(xMsgPayload.Item.newBuilder()
                                 .setName(rocPrefix + "_times")
-                                .setData(createLongArray(times))
+                                .setData(createLongArray(hits.times(), hitCount))
                                 .build());
                     }
                 }
@@ -253,11 +238,12 @@ public class CodaTimeFrameDataType {
                     }
                 }
 
-                // Create FADCHit objects
+                // Fill the hit columns
                 if (crates != null && slots != null && channels != null && charges != null && times != null) {
+                    FADCHitBatch hits = rocBank.getHitBatch();
+                    hits.ensureCapacity(hitCount);
                     for (int i = 0; i < hitCount; i++) {
-                        FADCHit hit = new FADCHit(crates[i], slots[i], channels[i], charges[i], times[i]);
-                        rocBank.addHit(hit);
+                        hits.add(crates[i], slots[i], channels[i], charges[i], times[i]);
                     }
                 }
             }
@@ -266,18 +252,18 @@ public class CodaTimeFrameDataType {
         }
 
         // Helper methods for array serialization
-        private xMsgData createIntArray(int[] array) {
+        private xMsgData createIntArray(int[] array, int length) {
             xMsgData.Builder builder = xMsgData.newBuilder();
-            for (int value : array) {
-                builder.addVLSINT32A(value);
+            for (int i = 0; i < length; i++) {
+                builder.addVLSINT32A(array[i]);
             }
             return builder.build();
         }
 
-        private xMsgData createLongArray(long[] array) {
+        private xMsgData createLongArray(long[] array, int length) {
             xMsgData.Builder builder = xMsgData.newBuilder();
-            for (long value : array) {
-                builder.addVLSINT64A(value);
+            for (int i = 0; i < length; i++) {
+                builder.addVLSINT64A(array[i]);
             }
             return builder.build();
         }
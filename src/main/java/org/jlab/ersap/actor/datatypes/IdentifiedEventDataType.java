@@ -0,0 +1,187 @@
+package org.jlab.ersap.actor.datatypes;
+
+import org.jlab.epsci.ersap.base.error.ErsapException;
+import org.jlab.epsci.ersap.engine.EngineDataType;
+import org.jlab.epsci.ersap.engine.ErsapSerializer;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
+import org.jlab.ersap.actor.coda.proc.IdentifiedEvents;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A ERSAP engine data-type for {@link IdentifiedEvents}, the compact output of event
+ * identification. It has a MIME type of its own, so that services of time frames never
+ * receive identified events.
+ * <p>
+ * The binary format is big endian: magic, frame, event and hit counts, then the frame
+ * number and time stamp of each frame, the frame index, time and hit count of each event,
+ * and the hit columns: crate (ROC ID) as an unsigned short, slot and channel as unsigned
+ * bytes, charge, and the hit time relative to its event as an int. That is 12 bytes per
+ * hit, half of the time frame format.
+ */
+public final class IdentifiedEventDataType extends EngineDataType {
+
+    private static final String MIME_TYPE = "binary/identified-events";
+
+    public static final IdentifiedEventDataType INSTANCE = new IdentifiedEventDataType();
+
+    /**
+     * First word of the binary format
+     */
+    public static final int MAGIC = 0xE7E0_0001;
+
+    // magic, frame count, event count, hit count
+    private static final int HEADER_BYTES = 4 * 4;
+    // frame number, time stamp
+    private static final int FRAME_BYTES = 4 + 8;
+    // frame index, time, hit count
+    private static final int EVENT_BYTES = 4 + 8 + 4;
+    // crate, slot, channel, charge, relative time
+    private static final int HIT_BYTES = 2 + 1 + 1 + 4 + 4;
+
+    private IdentifiedEventDataType() {
+        super(MIME_TYPE, new ErsapSerializer() {
+
+            @Override
+            public ByteBuffer write(Object data) throws ErsapException {
+                if (!(data instanceof IdentifiedEvents)) {
+                    throw new ErsapException("Expected IdentifiedEvents object, got: " + data.getClass().getName());
+                }
+                return writeBinary((IdentifiedEvents) data);
+            }
+
+            @Override
+            public Object read(ByteBuffer buffer) throws ErsapException {
+                return readBinary(buffer);
+            }
+        });
+    }
+
+    /**
+     * Writes identified events in the binary format.
+     */
+    public static ByteBuffer writeBinary(IdentifiedEvents events) throws ErsapException {
+        int frames = events.frameCount();
+        int count = events.size();
+        FADCHitBatch hits = events.getHits();
+        int hitCount = hits.size();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + frames * FRAME_BYTES
+                + count * EVENT_BYTES + hitCount * HIT_BYTES);
+        buffer.putInt(MAGIC);
+        buffer.putInt(frames);
+        buffer.putInt(count);
+        buffer.putInt(hitCount);
+        for (int f = 0; f < frames; f++) {
+            buffer.putInt(events.getFrameNumber(f));
+            buffer.putLong(events.getTimeStamp(f));
+        }
+        for (int k = 0; k < count; k++) {
+            buffer.putInt(events.frame(k));
+            buffer.putLong(events.time(k));
+            buffer.putInt(events.hitCount(k));
+        }
+
+        // Hit columns
+        int[] crates = hits.crates();
+        int[] slots = hits.slots();
+        int[] channels = hits.channels();
+        for (int i = 0; i < hitCount; i++) {
+            if ((crates[i] & ~0xffff) != 0 || (slots[i] & ~0xff) != 0 || (channels[i] & ~0xff) != 0) {
+                throw new ErsapException("Hit out of range of the identified event format: "
+                        + crates[i] + "-" + slots[i] + "-" + channels[i]);
+            }
+            buffer.putShort((short) crates[i]);
+        }
+        for (int i = 0; i < hitCount; i++) {
+            buffer.put((byte) slots[i]);
+        }
+        for (int i = 0; i < hitCount; i++) {
+            buffer.put((byte) channels[i]);
+        }
+        int[] charges = hits.charges();
+        for (int i = 0; i < hitCount; i++) {
+            buffer.putInt(charges[i]);
+        }
+        long[] times = hits.times();
+        for (int k = 0; k < count; k++) {
+            long eventTime = events.time(k);
+            for (int i = events.start(k); i < events.end(k); i++) {
+                long time = times[i] - eventTime;
+                if (time != (int) time) {
+                    throw new ErsapException("Event too long for the identified event format: " + time + " ns");
+                }
+                buffer.putInt((int) time);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads identified events in the binary format.
+     */
+    public static IdentifiedEvents readBinary(ByteBuffer buffer) throws ErsapException {
+        try {
+            ByteBuffer in = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+            if (in.getInt() != MAGIC) {
+                throw new ErsapException("Not identified events");
+            }
+            int frames = in.getInt();
+            int count = in.getInt();
+            int hitCount = in.getInt();
+            // checked before anything is allocated
+            if (frames < 0 || count < 0 || hitCount < 0
+                    || (long) frames * FRAME_BYTES + (long) count * EVENT_BYTES
+                    + (long) hitCount * HIT_BYTES > in.remaining()) {
+                throw new ErsapException("Invalid identified events: " + frames + " frames, "
+                        + count + " events, " + hitCount + " hits in " + in.remaining() + " bytes");
+            }
+            IdentifiedEvents events = new IdentifiedEvents();
+            for (int f = 0; f < frames; f++) {
+                events.addFrame(in.getInt(), in.getLong());
+            }
+            int[] frame = new int[count];
+            long[] time = new long[count];
+            int[] size = new int[count];
+            long hitTotal = 0;
+            for (int k = 0; k < count; k++) {
+                frame[k] = in.getInt();
+                time[k] = in.getLong();
+                size[k] = in.getInt();
+                if (frame[k] < 0 || frame[k] >= frames || size[k] < 0) {
+                    throw new ErsapException("Invalid identified event " + k + ": frame "
+                            + frame[k] + ", " + size[k] + " hits");
+                }
+                hitTotal += size[k];
+            }
+            if (hitTotal != hitCount) {
+                throw new ErsapException("Identified events hold " + hitTotal + " hits, not " + hitCount);
+            }
+
+            // Hit columns
+            int crates = in.position();
+            int slots = crates + 2 * hitCount;
+            int channels = slots + hitCount;
+            int charges = channels + hitCount;
+            int times = charges + 4 * hitCount;
+            FADCHitBatch hits = events.getHits();
+            hits.ensureCapacity(hitCount);
+            for (int k = 0, i = 0; k < count; k++) {
+                for (int end = i + size[k]; i < end; i++) {
+                    hits.add(in.getShort(crates + 2 * i) & 0xffff,
+                            in.get(slots + i) & 0xff,
+                            in.get(channels + i) & 0xff,
+                            in.getInt(charges + 4 * i),
+                            time[k] + in.getInt(times + 4 * i));
+                }
+                events.addEvent(frame[k], time[k], size[k]);
+            }
+            return events;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            throw new ErsapException("Failed to deserialize identified events", e);
+        }
+    }
+}
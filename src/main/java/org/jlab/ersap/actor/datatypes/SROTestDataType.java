@@ -5,9 +5,9 @@ import org.jlab.epsci.ersap.engine.EngineDataType;
 import org.jlab.epsci.ersap.engine.ErsapSerializer;
 import org.jlab.ersap.actor.coda.proc.RocTimeFrameBank;
 import org.jlab.ersap.actor.coda.proc.EtEvent;
-import org.jlab.ersap.actor.coda.proc.FADCHit;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
 
-import java.io.*;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.List;
@@ -22,6 +22,11 @@ public final class SROTestDataType extends EngineDataType {
 
     public static final SROTestDataType INSTANCE = new SROTestDataType();
 
+    // rocID, frameNumber, timeStamp, hit count
+    private static final int FRAME_HEADER_BYTES = 4 + 4 + 8 + 4;
+    // crate, slot, channel, charge, time
+    private static final int HIT_BYTES = 4 * 4 + 8;
+
 
     private SROTestDataType() {
         super(MIME_TYPE, new ErsapSerializer() {
@@ -36,95 +41,94 @@ public final class SROTestDataType extends EngineDataType {
                 } else {
                     sroData = (List<List<RocTimeFrameBank>>) data;
                 }
-                
-                try {
-                    // Use the same binary format as C++ for compatibility
-                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                    DataOutputStream out = new DataOutputStream(bos);
-                    
-                    // Write outer list size
-                    out.writeInt(sroData.size());
-                    
-                    for (List<RocTimeFrameBank> sublist : sroData) {
-                        // Write inner list size
-                        out.writeInt(sublist.size());
-                        
-                        for (RocTimeFrameBank frame : sublist) {
-                            // Write frame data
-                            out.writeInt(frame.getRocID());
-                            out.writeInt(frame.getFrameNumber());
-                            out.writeLong(frame.getTimeStamp());
-                            
-                            // Write hits
-                            List<FADCHit> hits = frame.getHits();
-                            out.writeInt(hits.size());
-                            
-                            for (FADCHit hit : hits) {
-                                out.writeInt(hit.crate());
-                                out.writeInt(hit.slot());
-                                out.writeInt(hit.channel());
-                                out.writeInt(hit.charge());
-                                out.writeLong(hit.time());
-                            }
+
+                // Use the same binary format as C++ for compatibility.
+                // Size the buffer up front and write the hit columns directly.
+                int bytes = 4;
+                for (List<RocTimeFrameBank> sublist : sroData) {
+                    bytes += 4;
+                    for (RocTimeFrameBank frame : sublist) {
+                        bytes += FRAME_HEADER_BYTES + frame.getHitBatch().size() * HIT_BYTES;
+                    }
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(bytes);
+
+                // Write outer list size
+                buffer.putInt(sroData.size());
+
+                for (List<RocTimeFrameBank> sublist : sroData) {
+                    // Write inner list size
+                    buffer.putInt(sublist.size());
+
+                    for (RocTimeFrameBank frame : sublist) {
+                        // Write frame data
+                        buffer.putInt(frame.getRocID());
+                        buffer.putInt(frame.getFrameNumber());
+                        buffer.putLong(frame.getTimeStamp());
+
+                        // Write hits
+                        FADCHitBatch hits = frame.getHitBatch();
+                        int[] crates = hits.crates();
+                        int[] slots = hits.slots();
+                        int[] channels = hits.channels();
+                        int[] charges = hits.charges();
+                        long[] times = hits.times();
+                        int hitCount = hits.size();
+                        buffer.putInt(hitCount);
+
+                        for (int h = 0; h < hitCount; h++) {
+                            buffer.putInt(crates[h]);
+                            buffer.putInt(slots[h]);
+                            buffer.putInt(channels[h]);
+                            buffer.putInt(charges[h]);
+                            buffer.putLong(times[h]);
                         }
                     }
-                    
-                    out.flush();
-                    byte[] bytes = bos.toByteArray();
-                    ByteBuffer buffer = ByteBuffer.allocate(bytes.length);
-                    buffer.put(bytes);
-                    buffer.flip();
-                    return buffer;
-                } catch (IOException e) {
-                    throw new ErsapException("Failed to serialize SRO data", e);
                 }
+
+                buffer.flip();
+                return buffer;
             }
 
             @Override
             public Object read(ByteBuffer buffer) throws ErsapException {
                 try {
-                    byte[] bytes = new byte[buffer.remaining()];
-                    buffer.get(bytes);
-                    ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-                    DataInputStream in = new DataInputStream(bis);
-                    
+                    ByteBuffer in = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+
                     // Read outer list size
-                    int outerSize = in.readInt();
-                    List<List<RocTimeFrameBank>> timeFrames = new ArrayList<>();
-                    
+                    int outerSize = in.getInt();
+                    // Create an EtEvent to wrap the timeFrames for consistency
+                    EtEvent etEvent = new EtEvent();
+
                     for (int o = 0; o < outerSize; ++o) {
                         // Read inner list size
-                        int innerSize = in.readInt();
-                        List<RocTimeFrameBank> sublist = new ArrayList<>();
-                        
+                        int innerSize = in.getInt();
+                        List<RocTimeFrameBank> sublist = new ArrayList<>(innerSize);
+
                         for (int f = 0; f < innerSize; ++f) {
                             RocTimeFrameBank frame = new RocTimeFrameBank();
-                            frame.setRocID(in.readInt());
-                            frame.setFrameNumber(in.readInt());
-                            frame.setTimeStamp(in.readLong());
-                            
+                            frame.setRocID(in.getInt());
+                            frame.setFrameNumber(in.getInt());
+                            frame.setTimeStamp(in.getLong());
+
                             // Read hits
-                            int hitCount = in.readInt();
+                            int hitCount = in.getInt();
+                            FADCHitBatch hits = frame.getHitBatch();
+                            hits.ensureCapacity(hitCount);
                             for (int h = 0; h < hitCount; ++h) {
-                                int crate = in.readInt();
-                                int slot = in.readInt();
-                                int channel = in.readInt();
-                                int charge = in.readInt();
-                                long time = in.readLong();
-                                frame.addHit(new FADCHit(crate, slot, channel, charge, time));
+                                int crate = in.getInt();
+                                int slot = in.getInt();
+                                int channel = in.getInt();
+                                int charge = in.getInt();
+                                long time = in.getLong();
+                                hits.add(crate, slot, channel, charge, time);
                             }
                             sublist.add(frame);
                         }
-                        timeFrames.add(sublist);
-                    }
-                    
-                    // Create an EtEvent to wrap the timeFrames for consistency
-                    EtEvent etEvent = new EtEvent();
-                    for (List<RocTimeFrameBank> timeFrame : timeFrames) {
-                        etEvent.addTimeFrame(timeFrame);
+                        etEvent.addTimeFrame(sublist);
                     }
                     return etEvent;
-                } catch (IOException e) {
+                } catch (BufferUnderflowException e) {
                     throw new ErsapException("Failed to deserialize SRO data", e);
                 }
             }
@@ -11,7 +11,10 @@ package org.jlab.ersap.actor.util;
  * @author gurjyan on 8/31/22
  * @project ersap-sampa
  */
+import com.lmax.disruptor.*;
+
 import java.io.*;
+import java.util.concurrent.ThreadFactory;
 
 
 public class AUtil {
@@ -62,4 +65,42 @@ public class AUtil {
         return copy;
     }
 
+
+    /**
+     * @param name blocking, sleeping, yielding or busy_spin
+     * @return Disruptor wait strategy
+     */
+    public static WaitStrategy waitStrategy(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "sleeping":
+                return new SleepingWaitStrategy();
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "busy_spin":
+                return new BusySpinWaitStrategy();
+            case "blocking":
+                return new BlockingWaitStrategy();
+            default:
+                throw new IllegalArgumentException("unknown wait strategy: " + name);
+        }
+    }
+
+    /**
+     * @param virtual if true, virtual threads, when the JVM supports them (Java 21 and later),
+     *                otherwise platform threads
+     * @return thread factory
+     */
+    public static ThreadFactory threadFactory(boolean virtual) {
+        if (virtual) {
+            try {
+                // Thread.ofVirtual().factory(), through reflection to build on older JDKs
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                        .getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+                System.out.println("WARNING: virtual threads are not supported, using platform threads");
+            }
+        }
+        return Thread::new;
+    }
 }
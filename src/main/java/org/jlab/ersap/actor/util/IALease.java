@@ -0,0 +1,20 @@
+package org.jlab.ersap.actor.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Event handed out by a source from a preallocated ring slot. The buffer stays valid
+ * until {@link #release()} is called, after which the slot is reused.
+ */
+public interface IALease {
+
+    /**
+     * @return event data, from position 0 to the limit
+     */
+    public ByteBuffer getBuffer();
+
+    /**
+     * Ends the lease. Calling it more than once has no effect.
+     */
+    public void release();
+}
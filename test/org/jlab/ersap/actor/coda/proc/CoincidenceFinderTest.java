@@ -0,0 +1,170 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CoincidenceFinderTest {
+
+    private static final List<String> CHANNELS = List.of("1-15-0", "1-15-1", "2-3-7");
+    private static final int[][] KEYS = {{1, 15, 0}, {1, 15, 1}, {2, 3, 7}};
+
+    private static CoincidenceFinder find(long window, int minChannels, FADCHitBatch batch) {
+        CoincidenceFinder finder = new CoincidenceFinder(CHANNELS, window, minChannels);
+        finder.reset();
+        finder.addAll(batch);
+        finder.find();
+        return finder;
+    }
+
+    private static void add(FADCHitBatch batch, int key, long time) {
+        batch.add(KEYS[key][0], KEYS[key][1], KEYS[key][2], 100, time);
+    }
+
+    @Test
+    public void allChannelsWithinTheWindow() {
+        FADCHitBatch batch = new FADCHitBatch();
+        add(batch, 2, 120);
+        add(batch, 0, 100);
+        add(batch, 1, 110);
+        // another channel of the same crate and slot is not a coincidence channel
+        batch.add(1, 15, 2, 100, 105);
+        add(batch, 0, 500);
+        add(batch, 1, 530);
+
+        CoincidenceFinder finder = find(20, 0, batch);
+        assertEquals(1, finder.count());
+        assertEquals(0, finder.start(0));
+        assertEquals(3, finder.end(0));
+        assertEquals(5, finder.getHits().size());
+        assertEquals(100, finder.getHits().time(0));
+    }
+
+    @Test
+    public void hitsSpanningMoreThanTheWindowAreNoCoincidence() {
+        FADCHitBatch batch = new FADCHitBatch();
+        add(batch, 0, 100);
+        add(batch, 1, 110);
+        add(batch, 2, 121);
+        assertEquals(0, find(20, 0, batch).count());
+        assertEquals(1, find(21, 0, batch).count());
+    }
+
+    @Test
+    public void minimumNumberOfChannels() {
+        FADCHitBatch batch = new FADCHitBatch();
+        add(batch, 0, 100);
+        add(batch, 2, 105);
+        add(batch, 1, 300);
+        add(batch, 1, 302);
+        add(batch, 0, 310);
+
+        CoincidenceFinder finder = find(20, 2, batch);
+        assertEquals(2, finder.count());
+        assertEquals(0, finder.start(0));
+        assertEquals(2, finder.end(0));
+        // the second hit of channel 1 alone does not make a coincidence
+        assertEquals(2, finder.start(1));
+        assertEquals(5, finder.end(1));
+    }
+
+    @Test
+    public void searchGoesOnAfterACoincidence() {
+        FADCHitBatch batch = new FADCHitBatch();
+        for (int k = 0; k < 3; k++) {
+            add(batch, 0, 1000 * k);
+            add(batch, 1, 1000 * k + 1);
+            add(batch, 0, 1000 * k + 2);
+        }
+        CoincidenceFinder finder = find(10, 2, batch);
+        assertEquals(3, finder.count());
+        for (int k = 0; k < 3; k++) {
+            assertEquals(3 * k, finder.start(k));
+            assertEquals(3 * k + 2, finder.end(k));
+        }
+    }
+
+    @Test
+    public void resetStartsANewFrame() {
+        CoincidenceFinder finder = new CoincidenceFinder(CHANNELS, 20, 0);
+        FADCHitBatch batch = new FADCHitBatch();
+        add(batch, 0, 100);
+        add(batch, 1, 101);
+        add(batch, 2, 102);
+        finder.addAll(batch, 0, 2);
+        assertEquals(0, finder.find());
+        finder.addAll(batch, 2, 3);
+        assertEquals(1, finder.find());
+        finder.reset();
+        assertEquals(0, finder.find());
+        assertEquals(0, finder.getHits().size());
+    }
+
+    @Test
+    public void matchesSearchOfEveryWindow() {
+        Random random = new Random(5);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            int minChannels = random.nextInt(4);
+            int need = minChannels == 0 ? CHANNELS.size() : minChannels;
+            long window = 5 + random.nextInt(60);
+            FADCHitBatch batch = new FADCHitBatch();
+            int n = random.nextInt(80);
+            for (int i = 0; i < n; i++) {
+                int key = random.nextInt(5);
+                long time = random.nextInt(2000);
+                if (key < 3) {
+                    add(batch, key, time);
+                } else {
+                    batch.add(9, 1, key, 100, time);
+                }
+            }
+            CoincidenceFinder finder = find(window, minChannels, batch);
+
+            // For every hit, the window of hits ending with it, after the last coincidence
+            FADCHitBatch hits = finder.getHits();
+            List<int[]> expected = new ArrayList<>();
+            int from = 0;
+            for (int right = 0; right < hits.size(); right++) {
+                int left = from;
+                while (hits.time(right) - hits.time(left) > window) {
+                    left++;
+                }
+                Set<Integer> channels = new HashSet<>();
+                for (int i = left; i <= right; i++) {
+                    channels.add(finder.channelId(hits.crate(i), hits.slot(i), hits.channel(i)));
+                }
+                if (channels.size() >= need) {
+                    expected.add(new int[]{left, right + 1});
+                    from = right + 1;
+                }
+            }
+            assertEquals(expected.size(), finder.count());
+            for (int k = 0; k < finder.count(); k++) {
+                assertEquals(expected.get(k)[0], finder.start(k));
+                assertEquals(expected.get(k)[1], finder.end(k));
+            }
+        }
+    }
+
+    @Test
+    public void titleJoinsChannelNames() {
+        assertEquals("1-15-0&1-15-1&2-3-7", new CoincidenceFinder(CHANNELS, 20, 0).getTitle());
+    }
+
+    @Test
+    public void tooManyChannelsAreRejected() {
+        List<String> channels = new ArrayList<>();
+        for (int i = 0; i < 65; i++) {
+            channels.add("1-" + (i / 16) + "-" + (i % 16));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new CoincidenceFinder(channels, 20, 0));
+        assertThrows(IllegalArgumentException.class, () -> new CoincidenceFinder(List.of(), 20, 0));
+    }
+}
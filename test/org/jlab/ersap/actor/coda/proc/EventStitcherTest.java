@@ -0,0 +1,219 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EventStitcherTest {
+
+    private static final long FRAME_LENGTH = 1000;
+    private static final long WINDOW = 40;
+    private static final int MULTIPLICITY = 3;
+
+    /**
+     * Time frames of two ROCs, frame f covering [f, f + 1) frame lengths, with up to
+     * maxHits random hits each.
+     */
+    private static List<List<RocTimeFrameBank>> frames(Random random, int count, int maxHits) {
+        List<List<RocTimeFrameBank>> frames = new ArrayList<>();
+        for (int f = 0; f < count; f++) {
+            List<RocTimeFrameBank> timeFrame = new ArrayList<>();
+            for (int roc = 1; roc <= 2; roc++) {
+                RocTimeFrameBank bank = new RocTimeFrameBank();
+                bank.setRocID(roc);
+                bank.setFrameNumber(f);
+                bank.setTimeStamp(f * FRAME_LENGTH);
+                timeFrame.add(bank);
+            }
+            int hits = random.nextInt(maxHits);
+            for (int i = 0; i < hits; i++) {
+                int roc = 1 + random.nextInt(2);
+                long time = f * FRAME_LENGTH + random.nextInt((int) FRAME_LENGTH);
+                timeFrame.get(roc - 1).addHit(roc, 3, random.nextInt(16), random.nextInt(4000), time);
+            }
+            frames.add(timeFrame);
+        }
+        return frames;
+    }
+
+    private static FADCHitBatch allHits(List<List<RocTimeFrameBank>> frames) {
+        FADCHitBatch all = new FADCHitBatch();
+        for (List<RocTimeFrameBank> timeFrame : frames) {
+            for (RocTimeFrameBank bank : timeFrame) {
+                all.addAll(bank.getHitBatch());
+            }
+        }
+        all.sortByTime();
+        return all;
+    }
+
+    /**
+     * @return number of clustered hits when all hits are clustered at once
+     */
+    private static long clusteredHits(List<List<RocTimeFrameBank>> frames) {
+        Awtbc awtbc = new Awtbc(MULTIPLICITY, WINDOW, false);
+        int clusters = awtbc.findClusters(allHits(frames));
+        long hits = 0;
+        for (int k = 0; k < clusters; k++) {
+            hits += awtbc.clusterEnd(k) - awtbc.clusterStart(k);
+        }
+        return hits;
+    }
+
+    private static long hits(EtEvent evt) {
+        long hits = 0;
+        for (List<RocTimeFrameBank> timeFrame : evt.getTimeFrames()) {
+            for (RocTimeFrameBank bank : timeFrame) {
+                FADCHitBatch batch = bank.getHitBatch();
+                for (int i = 0; i < batch.size(); i++) {
+                    assertEquals(bank.getRocID(), batch.crate(i), "hit in the bank of its ROC");
+                }
+                hits += batch.size();
+            }
+        }
+        return hits;
+    }
+
+    private static long flush(EventStitcher stitcher) {
+        stitcher.flush();
+        EtEvent last = new EtEvent();
+        stitcher.process(last);
+        return hits(last);
+    }
+
+    private static long stitchInOrder(List<List<RocTimeFrameBank>> frames, int framesPerEvent) {
+        EventStitcher stitcher = new EventStitcher(MULTIPLICITY, WINDOW, 8);
+        long hits = 0;
+        long previous = -1;
+        for (int i = 0; i < frames.size(); i += framesPerEvent) {
+            EtEvent evt = new EtEvent();
+            for (int j = i; j < Math.min(frames.size(), i + framesPerEvent); j++) {
+                evt.addTimeFrame(frames.get(j));
+            }
+            stitcher.process(evt);
+            for (List<RocTimeFrameBank> timeFrame : evt.getTimeFrames()) {
+                long frameNumber = timeFrame.get(0).getFrameNumber();
+                assertTrue(frameNumber > previous, "frames in order");
+                previous = frameNumber;
+            }
+            hits += hits(evt);
+        }
+        return hits + flush(stitcher);
+    }
+
+    @Test
+    public void sparseFramesMatchClusteringOfAllHits() {
+        List<List<RocTimeFrameBank>> frames = frames(new Random(7), 400, 60);
+        long expected = clusteredHits(frames);
+        assertTrue(expected > 0);
+        assertEquals(expected, stitchInOrder(frames, 3));
+    }
+
+    @Test
+    public void denseFramesMatchClusteringOfAllHits() {
+        // No gap longer than the time window, all clusters are found under the lock
+        List<List<RocTimeFrameBank>> frames = frames(new Random(8), 100, 400);
+        long expected = clusteredHits(frames);
+        assertEquals(expected, stitchInOrder(frames, 1));
+    }
+
+    @Test
+    public void reorderedFramesMatchClusteringOfAllHits() {
+        Random random = new Random(9);
+        List<List<RocTimeFrameBank>> frames = frames(random, 402, 60);
+        long expected = clusteredHits(frames);
+
+        // The first frame starts the stream, frames within blocks of 6 after it come in any order
+        List<List<RocTimeFrameBank>> shuffled = new ArrayList<>(frames);
+        for (int i = 6; i + 6 <= shuffled.size(); i += 6) {
+            Collections.shuffle(shuffled.subList(i, i + 6), random);
+        }
+        EventStitcher stitcher = new EventStitcher(MULTIPLICITY, WINDOW, 8);
+        long hits = 0;
+        for (List<RocTimeFrameBank> timeFrame : shuffled) {
+            EtEvent evt = new EtEvent();
+            evt.addTimeFrame(timeFrame);
+            stitcher.process(evt);
+            hits += hits(evt);
+        }
+        assertEquals(expected, hits + flush(stitcher));
+        assertEquals(0, stitcher.getLateFrames());
+        assertEquals(0, stitcher.getMissingFrames());
+        assertEquals(402, stitcher.getFrames());
+    }
+
+    private static IdentifiedEvents identify(EventStitcher stitcher, List<RocTimeFrameBank> timeFrame) {
+        EtEvent evt = new EtEvent();
+        evt.addTimeFrame(timeFrame);
+        IdentifiedEvents identified = new IdentifiedEvents();
+        stitcher.process(evt, identified);
+        assertTrue(evt.getTimeFrames().isEmpty());
+        return identified;
+    }
+
+    @Test
+    public void sharedByThreadsMatchesClusteringOfAllHits() throws Exception {
+        List<List<RocTimeFrameBank>> frames = frames(new Random(10), 2000, 60);
+        long expected = clusteredHits(frames);
+        int events = new Awtbc(MULTIPLICITY, WINDOW, false).findClusters(allHits(frames));
+
+        // The reorder buffer holds all frames, so none is given up however late its thread.
+        // The first frame starts the stream, the others come in the order of their threads.
+        EventStitcher stitcher = new EventStitcher(MULTIPLICITY, WINDOW, frames.size());
+        IdentifiedEvents first = identify(stitcher, frames.get(0));
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<IdentifiedEvents>> results = new ArrayList<>();
+        for (List<RocTimeFrameBank> timeFrame : frames.subList(1, frames.size())) {
+            results.add(pool.submit(() -> identify(stitcher, timeFrame)));
+        }
+        long hits = first.hitCount();
+        long identifiedEvents = first.size();
+        for (Future<IdentifiedEvents> result : results) {
+            IdentifiedEvents identified = result.get();
+            hits += identified.hitCount();
+            identifiedEvents += identified.size();
+        }
+        pool.shutdown();
+
+        stitcher.flush();
+        IdentifiedEvents last = new IdentifiedEvents();
+        stitcher.process(new EtEvent(), last);
+        hits += last.hitCount();
+        identifiedEvents += last.size();
+
+        assertEquals(expected, hits);
+        assertEquals(events, identifiedEvents);
+        assertEquals(0, stitcher.getLateFrames());
+        assertEquals(0, stitcher.getPendingFrames());
+    }
+
+    @Test
+    public void frameNumbersGoingBackRestart() {
+        List<List<RocTimeFrameBank>> run = frames(new Random(11), 100, 60);
+        long expected = clusteredHits(run);
+        List<List<RocTimeFrameBank>> again = frames(new Random(11), 100, 60);
+
+        EventStitcher stitcher = new EventStitcher(MULTIPLICITY, WINDOW, 8);
+        long hits = 0;
+        for (List<List<RocTimeFrameBank>> frames : List.of(run, again)) {
+            for (List<RocTimeFrameBank> timeFrame : frames) {
+                EtEvent evt = new EtEvent();
+                evt.addTimeFrame(timeFrame);
+                stitcher.process(evt);
+                hits += hits(evt);
+            }
+        }
+        hits += flush(stitcher);
+        assertEquals(1, stitcher.getRestarts());
+        assertEquals(2 * expected, hits);
+    }
+}
@@ -0,0 +1,137 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import org.jlab.ersap.actor.coda.source.sim.TimeFrameGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EvioParserParityTest {
+
+    private static final int FRAMES = 5;
+
+    private static TimeFrameGenerator generator(ByteOrder order) {
+        TimeFrameGenerator generator = new TimeFrameGenerator(3, 4, 200_000, 1);
+        generator.setByteOrder(order);
+        generator.setFramesPerBuffer(FRAMES);
+        return generator;
+    }
+
+    /**
+     * Evio-4 block holding the next time frames, the format of replay files.
+     */
+    private static ByteBuffer evio4Block(TimeFrameGenerator generator, ByteOrder order) {
+        ByteBuffer[] events = new ByteBuffer[FRAMES];
+        int words = 8;
+        for (int i = 0; i < FRAMES; i++) {
+            events[i] = generator.nextTimeFrame();
+            words += events[i].remaining() / 4;
+        }
+        ByteBuffer b = ByteBuffer.allocate(4 * words).order(order);
+        b.putInt(words);
+        b.putInt(1);
+        b.putInt(8);
+        b.putInt(FRAMES);
+        b.putInt(0);
+        // last block bit, version 4
+        b.putInt((1 << 9) | 4);
+        b.putInt(0);
+        b.putInt(0xc0da0100);
+        for (ByteBuffer event : events) {
+            b.put(event);
+        }
+        b.flip();
+        return b;
+    }
+
+    private static EtEvent parse(ByteBuffer buffer, boolean direct) throws Exception {
+        EvioEventParser parser = new EvioEventParser(false);
+        parser.setDirectDecoding(direct);
+        EtEvent evt = parser.parseEtEvent(buffer.duplicate().order(buffer.order()));
+        assertNotNull(evt);
+        return evt;
+    }
+
+    private static void assertSameHits(ByteBuffer buffer) throws Exception {
+        EtEvent expected = parse(buffer, false);
+        EtEvent actual = parse(buffer, true);
+
+        List<List<RocTimeFrameBank>> expectedFrames = expected.getTimeFrames();
+        List<List<RocTimeFrameBank>> actualFrames = actual.getTimeFrames();
+        assertEquals(FRAMES, expectedFrames.size());
+        assertEquals(expectedFrames.size(), actualFrames.size());
+        int hitCount = 0;
+        for (int f = 0; f < expectedFrames.size(); f++) {
+            List<RocTimeFrameBank> expectedBanks = expectedFrames.get(f);
+            List<RocTimeFrameBank> actualBanks = actualFrames.get(f);
+            assertEquals(expectedBanks.size(), actualBanks.size());
+            for (int r = 0; r < expectedBanks.size(); r++) {
+                RocTimeFrameBank e = expectedBanks.get(r);
+                RocTimeFrameBank a = actualBanks.get(r);
+                assertEquals(e.getRocID(), a.getRocID());
+                assertEquals(e.getFrameNumber(), a.getFrameNumber());
+                assertEquals(e.getTimeStamp(), a.getTimeStamp());
+                FADCHitBatch eh = e.getHitBatch();
+                FADCHitBatch ah = a.getHitBatch();
+                assertEquals(eh.size(), ah.size());
+                for (int i = 0; i < eh.size(); i++) {
+                    assertEquals(eh.crate(i), ah.crate(i));
+                    assertEquals(eh.slot(i), ah.slot(i));
+                    assertEquals(eh.channel(i), ah.channel(i));
+                    assertEquals(eh.charge(i), ah.charge(i));
+                    assertEquals(eh.time(i), ah.time(i));
+                    // within the time frame of its bank
+                    assertTrue(eh.time(i) >= e.getTimeStamp() && eh.time(i) < e.getTimeStamp() + 4 * 0x4000);
+                }
+                hitCount += eh.size();
+            }
+        }
+        assertTrue(hitCount > 0);
+    }
+
+    @Test
+    public void evio6BigEndian() throws Exception {
+        assertSameHits(generator(ByteOrder.BIG_ENDIAN).nextBuffer());
+    }
+
+    @Test
+    public void evio6LittleEndian() throws Exception {
+        assertSameHits(generator(ByteOrder.LITTLE_ENDIAN).nextBuffer());
+    }
+
+    @Test
+    public void evio4BigEndian() throws Exception {
+        assertSameHits(evio4Block(generator(ByteOrder.BIG_ENDIAN), ByteOrder.BIG_ENDIAN));
+    }
+
+    @Test
+    public void evio4LittleEndian() throws Exception {
+        assertSameHits(evio4Block(generator(ByteOrder.LITTLE_ENDIAN), ByteOrder.LITTLE_ENDIAN));
+    }
+
+    @Test
+    public void bothByteOrdersGiveTheSameHits() throws Exception {
+        EtEvent big = parse(generator(ByteOrder.BIG_ENDIAN).nextBuffer(), true);
+        EtEvent little = parse(generator(ByteOrder.LITTLE_ENDIAN).nextBuffer(), true);
+        for (int f = 0; f < FRAMES; f++) {
+            List<RocTimeFrameBank> b = big.getTimeFrames().get(f);
+            List<RocTimeFrameBank> l = little.getTimeFrames().get(f);
+            assertEquals(b.size(), l.size());
+            for (int r = 0; r < b.size(); r++) {
+                FADCHitBatch bh = b.get(r).getHitBatch();
+                FADCHitBatch lh = l.get(r).getHitBatch();
+                assertEquals(bh.size(), lh.size());
+                for (int i = 0; i < bh.size(); i++) {
+                    assertEquals(bh.channel(i), lh.channel(i));
+                    assertEquals(bh.charge(i), lh.charge(i));
+                    assertEquals(bh.time(i), lh.time(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class FADCWordDecoderTest {
+
+    @Test
+    public void vectorDecoderIsUsedWhenBuilt() {
+        // set by the build with -PvectorApi
+        assertEquals(Boolean.getBoolean("vectorApi"), FADCWordDecoder.getInstance().isVectorized());
+    }
+
+    @Test
+    public void instanceMatchesScalarDecoder() {
+        assertNull(FADCWordDecoderBenchmark.checkParity(new FADCWordDecoder(),
+                FADCWordDecoder.getInstance(), new Random(1)));
+    }
+
+    @Test
+    public void decodesHitWordsOfDirectBuffers() {
+        int n = 37;
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer b = ByteBuffer.allocateDirect(6 + 4 * n).order(order);
+            for (int i = 0; i < n; i++) {
+                int time = 100 * i + 1;
+                int channel = i % 16;
+                int charge = 8 * i + 3;
+                b.putInt(6 + 4 * i, (time << 17) | (channel << 13) | charge);
+            }
+            for (FADCWordDecoder decoder : new FADCWordDecoder[]{new FADCWordDecoder(), FADCWordDecoder.getInstance()}) {
+                FADCHitBatch hits = new FADCHitBatch();
+                decoder.decodePayload(1000L, 7, 3, b, 6, n, FADCWordDecoder.TIME_MASK, hits);
+                assertEquals(n, hits.size());
+                for (int i = 0; i < n; i++) {
+                    assertEquals(7, hits.crate(i));
+                    assertEquals(3, hits.slot(i));
+                    assertEquals(i % 16, hits.channel(i));
+                    assertEquals(8 * i + 3, hits.charge(i));
+                    assertEquals(1000L + 4 * (100 * i + 1), hits.time(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.jlab.ersap.actor.coda.proc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TimeFrameBuilderTest {
+
+    private static final long NO_TIMEOUT = 60_000_000_000L;
+
+    private static EtEvent event(int rocId, long frameNumber) {
+        RocTimeFrameBank bank = new RocTimeFrameBank();
+        bank.setRocID(rocId);
+        bank.setFrameNumber((int) frameNumber);
+        bank.setTimeStamp(frameNumber * 10);
+        EtEvent evt = new EtEvent();
+        evt.newTimeFrame().add(bank);
+        return evt;
+    }
+
+    private static void drain(TimeFrameBuilder builder, List<Long> frames) {
+        EtEvent evt;
+        while ((evt = builder.poll()) != null) {
+            frames.add(evt.getTimeFrames().get(0).get(0).getFrameNumber() & 0xffffffffL);
+        }
+    }
+
+    private static long[] frames(long first, int count) {
+        long[] frames = new long[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = first + i;
+        }
+        return frames;
+    }
+
+    private static long[] concat(long[] a, long[] b) {
+        long[] c = new long[a.length + b.length];
+        System.arraycopy(a, 0, c, 0, a.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    /**
+     * Feeds the frames of each stream, round robin and only while the builder accepts the
+     * stream. Stream s starts delay[s] rounds late.
+     */
+    private static List<Long> feed(TimeFrameBuilder builder, long[][] streams, int[] delay) {
+        List<Long> out = new ArrayList<>();
+        int[] next = new int[streams.length];
+        for (int round = 0; round < 100_000; round++) {
+            boolean done = true;
+            for (int s = 0; s < streams.length; s++) {
+                if (next[s] == streams[s].length) continue;
+                done = false;
+                if (round >= delay[s] && builder.accepts(s)) {
+                    builder.add(s, event(s, streams[s][next[s]++]));
+                }
+            }
+            drain(builder, out);
+            if (done) return out;
+        }
+        throw new AssertionError("Streams stalled: " + builder);
+    }
+
+    @Test
+    public void emitsCompleteFramesInOrder() {
+        TimeFrameBuilder builder = new TimeFrameBuilder(3, 16, NO_TIMEOUT, null);
+        long[] run = frames(5, 100);
+        List<Long> out = feed(builder, new long[][]{run, run, run}, new int[]{0, 3, 7});
+
+        assertEquals(100, out.size());
+        for (int i = 0; i < out.size(); i++) {
+            assertEquals(5 + i, (long) out.get(i));
+        }
+        assertEquals(100, builder.getCompleteFrames());
+        assertEquals(0, builder.getPartialFrames());
+        assertArrayEquals(new long[3], builder.getLate());
+    }
+
+    @Test
+    public void frameAfterEmissionIsLate() {
+        TimeFrameBuilder builder = new TimeFrameBuilder(2, 8, NO_TIMEOUT, null);
+        builder.add(0, event(0, 10));
+        builder.add(1, event(1, 10));
+        builder.add(0, event(0, 11));
+        builder.add(1, event(1, 11));
+        builder.add(1, event(1, 10));
+
+        List<Long> out = new ArrayList<>();
+        drain(builder, out);
+        assertEquals(List.of(10L, 11L), out);
+        assertArrayEquals(new long[]{0, 1}, builder.getLate());
+    }
+
+    @Test
+    public void staggeredRestartDropsNothing() {
+        // Stream 0 enters the new run while streams 1 and 2 still deliver the old one
+        TimeFrameBuilder builder = new TimeFrameBuilder(3, 16, NO_TIMEOUT, null);
+        long[] frames = concat(frames(1000, 100), frames(0, 100));
+        List<Long> out = feed(builder, new long[][]{frames, frames, frames}, new int[]{0, 10, 25});
+
+        assertEquals(200, out.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1000 + i, (long) out.get(i));
+            assertEquals(i, (long) out.get(100 + i));
+        }
+        assertEquals(1, builder.getRestarts());
+        assertEquals(200, builder.getCompleteFrames());
+        assertEquals(0, builder.getPartialFrames());
+        assertArrayEquals(new long[3], builder.getLate());
+    }
+
+    @Test
+    public void restartedStreamIsHeldBack() {
+        TimeFrameBuilder builder = new TimeFrameBuilder(2, 8, NO_TIMEOUT, null);
+        for (long f = 100; f < 104; f++) {
+            builder.add(0, event(0, f));
+        }
+        builder.add(0, event(0, 0));
+        assertFalse(builder.accepts(0));
+        assertTrue(builder.accepts(1));
+
+        // The old frames of stream 1 no longer wait for stream 0
+        List<Long> out = new ArrayList<>();
+        for (long f = 100; f < 104; f++) {
+            builder.add(1, event(1, f));
+        }
+        drain(builder, out);
+        assertEquals(List.of(100L, 101L, 102L, 103L), out);
+        assertEquals(0, builder.getRestarts());
+
+        builder.add(1, event(1, 0));
+        assertEquals(1, builder.getRestarts());
+        assertTrue(builder.accepts(0));
+        drain(builder, out);
+        assertEquals(List.of(100L, 101L, 102L, 103L, 0L), out);
+        assertEquals(5, builder.getCompleteFrames());
+    }
+
+    @Test
+    public void restartAfterCurrentRunTimesOut() throws InterruptedException {
+        // Stream 1 stops in the old run without closing
+        TimeFrameBuilder builder = new TimeFrameBuilder(2, 8, 1_000_000L, null);
+        for (long f = 100; f < 120; f++) {
+            builder.add(0, event(0, f));
+            builder.add(1, event(1, f));
+        }
+        builder.add(0, event(0, 0));
+        assertFalse(builder.accepts(0));
+
+        Thread.sleep(5);
+        builder.emitReady(System.nanoTime());
+        assertEquals(1, builder.getRestarts());
+        assertTrue(builder.accepts(0));
+
+        // A stale frame of stream 1 is dropped without moving the new run
+        builder.add(1, event(1, 120));
+        for (long f = 1; f < 50; f++) {
+            builder.add(0, event(0, f));
+            builder.emitReady(System.nanoTime() + 2_000_000L);
+        }
+        List<Long> out = new ArrayList<>();
+        drain(builder, out);
+        assertEquals(20 + 50, out.size());
+        assertEquals(0L, (long) out.get(20));
+        assertArrayEquals(new long[]{0, 1}, builder.getLate());
+
+        // Stream 1 rejoins when it goes back too
+        builder.add(1, event(1, 50));
+        assertEquals(1, builder.getRestarts());
+        assertArrayEquals(new long[]{0, 1}, builder.getLate());
+    }
+
+    @Test
+    public void wrapOfFrameNumber() {
+        TimeFrameBuilder builder = new TimeFrameBuilder(2, 16, NO_TIMEOUT, null);
+        long[] frames = concat(frames(0xffffffffL - 49, 50), frames(0, 50));
+        List<Long> out = feed(builder, new long[][]{frames, frames}, new int[]{0, 5});
+
+        assertEquals(100, out.size());
+        assertEquals(0xffffffffL, (long) out.get(49));
+        assertEquals(0L, (long) out.get(50));
+        assertEquals(1, builder.getRestarts());
+        assertEquals(100, builder.getCompleteFrames());
+    }
+}
@@ -0,0 +1,135 @@
+package org.jlab.ersap.actor.datatypes;
+
+import org.jlab.epsci.ersap.base.error.ErsapException;
+import org.jlab.epsci.ersap.engine.ErsapSerializer;
+import org.jlab.ersap.actor.coda.proc.FADCHitBatch;
+import org.jlab.ersap.actor.coda.proc.IdentifiedEvents;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class IdentifiedEventDataTypeTest {
+
+    private static final ErsapSerializer SERIALIZER = IdentifiedEventDataType.INSTANCE.serializer();
+
+    private static IdentifiedEvents events() {
+        FADCHitBatch source = new FADCHitBatch();
+        source.add(1, 3, 0, 100, 1_000_010);
+        source.add(2, 3, 15, 4000, 1_000_012);
+        source.add(1, 4, 7, 0, 1_000_050);
+        source.add(65535, 255, 255, -1, 2_000_000);
+        source.add(1, 3, 1, 7, 2_000_001);
+
+        IdentifiedEvents events = new IdentifiedEvents();
+        events.addFrame(10, 1_000_000);
+        events.addEvent(source, 0, 2);
+        events.addEvent(source, 2, 3);
+        events.addFrame(11, 2_000_000);
+        events.addFrame(-2, 3_000_000);
+        events.addEvent(source, 3, 5);
+        return events;
+    }
+
+    @Test
+    public void roundTrip() throws ErsapException {
+        IdentifiedEvents events = events();
+        IdentifiedEvents read = (IdentifiedEvents) SERIALIZER.read(SERIALIZER.write(events));
+
+        assertEquals(events.frameCount(), read.frameCount());
+        for (int f = 0; f < events.frameCount(); f++) {
+            assertEquals(events.getFrameNumber(f), read.getFrameNumber(f));
+            assertEquals(events.getTimeStamp(f), read.getTimeStamp(f));
+        }
+        assertEquals(events.size(), read.size());
+        for (int k = 0; k < events.size(); k++) {
+            assertEquals(events.frame(k), read.frame(k));
+            assertEquals(events.time(k), read.time(k));
+            assertEquals(events.start(k), read.start(k));
+            assertEquals(events.end(k), read.end(k));
+        }
+        FADCHitBatch hits = events.getHits();
+        FADCHitBatch readHits = read.getHits();
+        assertEquals(hits.size(), readHits.size());
+        for (int i = 0; i < hits.size(); i++) {
+            assertEquals(hits.crate(i), readHits.crate(i));
+            assertEquals(hits.slot(i), readHits.slot(i));
+            assertEquals(hits.channel(i), readHits.channel(i));
+            assertEquals(hits.charge(i), readHits.charge(i));
+            assertEquals(hits.time(i), readHits.time(i));
+        }
+    }
+
+    @Test
+    public void emptyRoundTrip() throws ErsapException {
+        IdentifiedEvents read = (IdentifiedEvents) SERIALIZER.read(SERIALIZER.write(new IdentifiedEvents()));
+        assertEquals(0, read.frameCount());
+        assertEquals(0, read.size());
+    }
+
+    @Test
+    public void hitOutOfRangeIsRejected() {
+        FADCHitBatch source = new FADCHitBatch();
+        source.add(65536, 3, 0, 100, 10);
+        IdentifiedEvents events = new IdentifiedEvents();
+        events.addFrame(1, 0);
+        events.addEvent(source, 0, 1);
+        assertThrows(ErsapException.class, () -> SERIALIZER.write(events));
+    }
+
+    @Test
+    public void otherObjectIsRejected() {
+        assertThrows(ErsapException.class, () -> SERIALIZER.write("events"));
+    }
+
+    private static ByteBuffer header(int frames, int count, int hitCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putInt(IdentifiedEventDataType.MAGIC).putInt(frames).putInt(count).putInt(hitCount);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void negativeCountsAreRejected() {
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(header(-1, 0, 0)));
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(header(0, -1, 0)));
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(header(0, 0, -1)));
+    }
+
+    @Test
+    public void countsBeyondTheBufferAreRejected() {
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(header(1, 0, 0)));
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(header(0, Integer.MAX_VALUE, 0)));
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(header(0, 0, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void truncatedBufferIsRejected() throws ErsapException {
+        ByteBuffer buffer = SERIALIZER.write(events());
+        for (int length = 0; length < buffer.remaining(); length++) {
+            ByteBuffer truncated = buffer.duplicate();
+            truncated.limit(length);
+            assertThrows(ErsapException.class, () -> SERIALIZER.read(truncated));
+        }
+    }
+
+    @Test
+    public void hitCountsNotMatchingTheEventsAreRejected() throws ErsapException {
+        ByteBuffer buffer = SERIALIZER.write(events());
+        // hit count of the first event, after the header and the 3 frames
+        int offset = 4 * 4 + 3 * (4 + 8) + 4 + 8;
+        buffer.putInt(offset, 3);
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(buffer));
+        buffer.putInt(offset, -1);
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(buffer));
+    }
+
+    @Test
+    public void badMagicIsRejected() throws ErsapException {
+        ByteBuffer buffer = SERIALIZER.write(events());
+        buffer.putInt(0, 1);
+        assertThrows(ErsapException.class, () -> SERIALIZER.read(buffer));
+    }
+}